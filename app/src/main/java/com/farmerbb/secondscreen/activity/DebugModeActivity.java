@@ -28,6 +28,7 @@ import com.farmerbb.secondscreen.BuildConfig;
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
 import com.farmerbb.secondscreen.service.NotificationService;
+import com.farmerbb.secondscreen.util.CommandTrace;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
@@ -36,6 +37,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
 
 // The top secret debugging menu, which can be accessed by enabling debug mode (10 taps right below
 // the action bar in the ProfileListFragment), then long-pressing on the red area that appears
@@ -93,13 +96,15 @@ public class DebugModeActivity extends PreferenceActivity implements OnPreferenc
             case "dump_app_state":
                 dumpAppState("current", "prefCurrent.xml");
                 dumpAppState(getPackageName() + "_preferences", "prefNew.xml");
-                dumpAppState(U.getPrefCurrent(this).getString("filename", "0"), "prefSaved.xml");
+                dumpProfile(U.getPrefCurrent(this).getString("filename", "0"), "prefSaved.xml");
 
                 if(getPackageName().equals("com.farmerbb.secondscreen"))
                     dumpAppState(MainActivity.class.getName().replace("com.farmerbb.secondscreen.", ""), "prefMain.xml");
                 else
                     dumpAppState(MainActivity.class.getName(), "prefMain.xml");
 
+                dumpAppState("journal", "journal.xml");
+                CommandTrace.getInstance().export(new File(getExternalFilesDir(null), "commandTrace.tsv"));
                 break;
         }
 
@@ -108,6 +113,27 @@ public class DebugModeActivity extends PreferenceActivity implements OnPreferenc
         return true;
     }
 
+    // Profiles are kept in the ProfileStore rather than in their own XML files,
+    // so write out their values as a plain list of keys and values instead
+    private void dumpProfile(String filename, String name2) {
+        File file2 = new File(getExternalFilesDir(null), name2);
+        file2.delete();
+
+        if(!U.profileExists(this, filename))
+            return;
+
+        StringBuilder builder = new StringBuilder();
+        for(Map.Entry<String, ?> entry : new TreeMap<>(U.getPrefSaved(this, filename).getAll()).entrySet()) {
+            builder.append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        }
+
+        try {
+            OutputStream os = new FileOutputStream(file2);
+            os.write(builder.toString().getBytes());
+            os.close();
+        } catch (IOException e) { /* Gracefully fail */ }
+    }
+
     private void dumpAppState(String name, String name2) {
         File file = new File(getFilesDir().getParent() + File.separator + "shared_prefs" + File.separator + name + ".xml");
         File file2 = new File(getExternalFilesDir(null), name2);
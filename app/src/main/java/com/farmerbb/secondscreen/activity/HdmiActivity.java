@@ -22,11 +22,9 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.graphics.Typeface;
-import android.hardware.display.DisplayManager;
 import android.os.Build;
 import android.os.Bundle;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.util.DisplayMetrics;
 import android.view.Display;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
@@ -35,9 +33,10 @@ import android.widget.TextView;
 
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
+import com.farmerbb.secondscreen.util.DisplayProfileMap;
+import com.farmerbb.secondscreen.util.DisplayTopology;
 import com.farmerbb.secondscreen.util.U;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -67,14 +66,18 @@ public final class HdmiActivity extends Activity {
         SharedPreferences prefMain = U.getPrefMain(this);
         filename = prefMain.getString("hdmi_load_profile", "show_list");
 
-        if("show_list".equals(filename)) {
+        // A profile picked for this particular display takes precedence over the auto-start action
+        String mappedFilename = DisplayProfileMap.getInstance().resolve(this);
+        if(mappedFilename != null) {
+            U.loadProfile(this, mappedFilename);
+            finish();
+        } else if("show_list".equals(filename)) {
             if(prefMain.getBoolean("inactive", true))
                 showMenu();
             else
                 finish();
         } else {
-            File file = new File(getFilesDir() + File.separator + filename);
-            if(file.exists()) {
+            if(U.profileExists(this, filename)) {
                 U.loadProfile(this, filename);
                 finish();
             } else {
@@ -131,31 +134,8 @@ public final class HdmiActivity extends Activity {
         // Close notification drawer
         U.closeNotificationDrawer(this);
 
-        DisplayManager dm = (DisplayManager) getApplicationContext().getSystemService(DISPLAY_SERVICE);
-        DisplayMetrics metrics = new DisplayMetrics();
-
-        Display[] displays = dm.getDisplays();
-        displays[displays.length - 1].getRealMetrics(metrics);
-
-        String extScreenRes = metrics.widthPixels + "x" + metrics.heightPixels;
-
-        switch(extScreenRes) {
-            case "3840x2160":
-                extScreenRes = getResources().getStringArray(R.array.pref_resolution_list)[1];
-                break;
-            case "1920x1080":
-                extScreenRes = getResources().getStringArray(R.array.pref_resolution_list)[2];
-                break;
-            case "1280x720":
-                extScreenRes = getResources().getStringArray(R.array.pref_resolution_list)[3];
-                break;
-            case "854x480":
-                extScreenRes = getResources().getStringArray(R.array.pref_resolution_list)[4];
-                break;
-        }
-
         TextView textView = findViewById(R.id.hdmiTextView);
-        textView.setText(extScreenRes);
+        textView.setText(getResolutionName());
 
         // Get array of profiles
         final String[][] profileList = U.listProfiles(this);
@@ -177,9 +157,33 @@ public final class HdmiActivity extends Activity {
             listView.setAdapter(adapter);
             listView.setClickable(true);
             listView.setOnItemClickListener((arg0, arg1, position, arg3) -> {
+                CheckBox rememberCheckBox = findViewById(R.id.hdmiRememberCheckBox);
+                if(rememberCheckBox.isChecked())
+                    DisplayProfileMap.getInstance().assign(this, profileList[0][position]);
+
                 U.loadProfile(this, profileList[0][position]);
                 finish();
             });
         }
     }
+
+    // Returns the resolution of the external display, using the name shown in the profile editor
+    // if it is one of the presets there
+    private String getResolutionName() {
+        DisplayTopology.Descriptor display = DisplayTopology.getInstance(this).getExternalSink();
+        if(display == null)
+            display = DisplayTopology.getInstance(this).getDisplay(Display.DEFAULT_DISPLAY);
+
+        String resolution = display.getWidth() + "x" + display.getHeight();
+        String[] values = getResources().getStringArray(R.array.pref_resolution_list_values_landscape);
+        String[] names = getResources().getStringArray(R.array.pref_resolution_list);
+
+        // The first entry is "Device native"
+        for(int i = 1; i < values.length && i < names.length; i++) {
+            if(values[i].equals(resolution))
+                return names[i];
+        }
+
+        return resolution;
+    }
 }
@@ -76,11 +76,12 @@ import com.farmerbb.secondscreen.receiver.TaskerActionReceiver;
 import com.farmerbb.secondscreen.receiver.TaskerConditionReceiver;
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
 import com.farmerbb.secondscreen.service.NotificationService;
+import com.farmerbb.secondscreen.util.CommandPlan;
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
@@ -129,21 +130,10 @@ SystemAlertPermissionDialogFragment.Listener {
         @Override
         protected Void doInBackground(Void... params) {
             // Build commands to pass to su
-            final int chromeCommand = 0;
-            final int densityCommand = 1;
-            final int densityCommand2 = 2;
-            final int sizeCommand = 3;
-            final int overscanCommand = 4;
-            final int immersiveCommand = 5;
-            final int freeformCommand = 6;
-            final int hdmiRotationCommand = 7;
-
-            // Initialize su array
-            String[] su = new String[hdmiRotationCommand + 1];
-            Arrays.fill(su, "");
-
-            su[chromeCommand] = U.chromeCommandRemove;
-            su[sizeCommand] = U.sizeCommand(MainActivity.this, "reset");
+            CommandPlan plan = new CommandPlan();
+
+            plan.add(Step.CHROME, U.chromeCommandRemove);
+            plan.add(Step.SIZE, U.sizeCommand(MainActivity.this, "reset"));
 
             PackageManager pm = getPackageManager();
             if(!(pm.hasSystemFeature("com.cyanogenmod.android")
@@ -154,28 +144,24 @@ SystemAlertPermissionDialogFragment.Listener {
 
                 if(!info.packageName.startsWith("com.farmerbb.taskbar")
                         || !info.name.endsWith("HSLActivity")
-                        || !U.isDesktopModeActive(MainActivity.this)) {
-                    su[densityCommand] = U.densityCommand(MainActivity.this, "reset");
-
-                    // We run the density command twice, for reliability
-                    su[densityCommand2] = su[densityCommand];
-                }
+                        || !U.isDesktopModeActive(MainActivity.this))
+                    plan.add(Step.DENSITY, U.densityCommand(MainActivity.this, "reset"));
             }
 
             if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
-                su[overscanCommand] = U.overscanCommand(MainActivity.this, "reset");
+                plan.add(Step.OVERSCAN, U.overscanCommand(MainActivity.this, "reset"));
 
             if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-                su[immersiveCommand] = U.immersiveCommand("do-nothing");
+                plan.add(Step.IMMERSIVE, U.immersiveCommand("do-nothing"));
 
             if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
                     && U.getTaskbarPackageName(MainActivity.this) == null)
-                su[freeformCommand] = U.freeformCommand(false);
+                plan.add(Step.FREEFORM, U.freeformCommand(false));
             
-            su[hdmiRotationCommand] = U.hdmiRotationCommand + "landscape";
+            plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand("landscape"));
 
             // Run superuser commands
-            U.runCommands(MainActivity.this, su, false);
+            U.runCommands(MainActivity.this, plan.schedule(false), false);
 
             return null;
         }
@@ -126,16 +126,13 @@ public final class NotificationSettingsActivity extends PreferenceActivity imple
         SharedPreferences prefMain = U.getPrefMain(this);
         SharedPreferences.Editor editor = prefMain.edit();
 
-        Intent serviceIntent = new Intent(this, NotificationService.class);
-        boolean restartNotification = false;
+        boolean updateNotification = false;
 
         if((prefNew.getBoolean("hide_notification", false) != prefMain.getBoolean("hide_notification", false)
                 || !prefNew.getString("notification_action", "lock-device").equals(prefMain.getString("notification_action", "lock-device"))
                 || !prefNew.getString("notification_action_2", "turn-off").equals(prefMain.getString("notification_action_2", "turn-off")))
-                && !prefCurrent.getBoolean("not_active", true)) {
-            stopService(serviceIntent);
-            restartNotification = true;
-        }
+                && !prefCurrent.getBoolean("not_active", true))
+            updateNotification = true;
 
         editor.putBoolean("hide_notification", prefNew.getBoolean("hide_notification", false));
         editor.putString("notification_action", prefNew.getString("notification_action", "lock-device"));
@@ -149,8 +146,8 @@ public final class NotificationSettingsActivity extends PreferenceActivity imple
         prefNewEditor.remove("notification_action_2");
         prefNewEditor.apply();
 
-        if(restartNotification)
-            U.startService(this, serviceIntent);
+        if(updateNotification)
+            NotificationService.update(this);
     }
 
     /**
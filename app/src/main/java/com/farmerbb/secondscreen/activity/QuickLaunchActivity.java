@@ -29,7 +29,6 @@ import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.util.PluginBundleManager;
 import com.farmerbb.secondscreen.util.U;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -75,8 +74,7 @@ public final class QuickLaunchActivity extends Activity {
             if(!tasker)
                 currentFilename = prefCurrent.getString("filename", "null");
 
-            File fileToLaunch = new File(getFilesDir() + File.separator + filename);
-            if(fileToLaunch.exists() && !filename.equals(currentFilename))
+            if(U.profileExists(this, filename) && !filename.equals(currentFilename))
                 U.loadProfile(this, filename);
             else if(filename.equals("turn_off") || filename.equals(currentFilename)) {
                 if(!prefCurrent.getBoolean("not_active", true))
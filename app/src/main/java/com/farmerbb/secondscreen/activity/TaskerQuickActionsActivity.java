@@ -36,6 +36,8 @@ import android.view.WindowManager;
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.fragment.dialog.QuickActionsDialogFragment;
 import com.farmerbb.secondscreen.service.LockDeviceService;
+import com.farmerbb.secondscreen.service.QuickActionService;
+import com.farmerbb.secondscreen.support.NonRootUtils;
 import com.farmerbb.secondscreen.util.PluginBundleManagerQuickActions;
 import com.farmerbb.secondscreen.util.U;
 
@@ -48,7 +50,8 @@ import com.farmerbb.secondscreen.util.U;
 // profile is turned off.
 // Each option that is selected adds/modifies one entry into the xml file.  The ProfileLoadService
 // is then invoked immediately after the option is selected, which loads the Quick Actions profile
-// settings.  In the event that a user-created profile is already in effect, a copy of the running
+// settings (or the QuickActionService, if the option only changes a single setting of a profile
+// that is already active).  In the event that a user-created profile is already in effect, a copy of the running
 // profile is made and used as the basis to build the Quick Actions profile off of.
 public final class TaskerQuickActionsActivity extends PreferenceActivity implements
 OnPreferenceClickListener,
@@ -479,8 +482,16 @@ SharedPreferences.OnSharedPreferenceChangeListener {
             else {
                 // Start quick actions profile
                 if(prefMain.getBoolean("first-run", false)
-                        && !(blacklisted && !prefMain.getBoolean("expert_mode", false)))
-                    U.loadProfile(this, "quick_actions");
+                        && !(blacklisted && !prefMain.getBoolean("expert_mode", false))) {
+                    // Quick actions that only change a single setting of an already active
+                    // profile are applied on their own, instead of reloading the whole profile
+                    if(QuickActionService.isSingleSetting(key)
+                            && !prefCurrent.getBoolean("not_active", true)
+                            && NonRootUtils.hasWriteSettingsPermission(this))
+                        U.startService(this, new Intent(this, QuickActionService.class));
+                    else
+                        U.loadProfile(this, "quick_actions");
+                }
 
                 // Set active state of "Reset settings" button
                 if(launchedFromApp)
@@ -540,7 +551,7 @@ SharedPreferences.OnSharedPreferenceChangeListener {
         } else {
             // If there already is a profile active (non-Quick Actions), copy that profile's xml file to quick_actions.xml.
             if(!"quick_actions".equals(prefCurrent.getString("filename", "0"))) {
-                SharedPreferences prefActive = getSharedPreferences(prefCurrent.getString("filename", "0"), Context.MODE_PRIVATE);
+                SharedPreferences prefActive = U.getPrefSaved(this, prefCurrent.getString("filename", "0"));
 
                 editor.putString("original_filename", prefCurrent.getString("filename", "0"));
 
@@ -21,7 +21,6 @@ import android.app.DialogFragment;
 import android.app.Fragment;
 import android.app.FragmentTransaction;
 import android.content.ActivityNotFoundException;
-import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
@@ -46,10 +45,9 @@ import android.widget.ListView;
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.activity.FragmentContainerActivity;
 import com.farmerbb.secondscreen.fragment.dialog.SystemAlertPermissionDialogFragment;
+import com.farmerbb.secondscreen.util.ProfileStore;
 import com.farmerbb.secondscreen.util.U;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 // Fragment launched as part of MainActivity either by: pressing the Edit button in
@@ -546,10 +544,8 @@ SharedPreferences.OnSharedPreferenceChangeListener {
 
         editor.apply();
 
-        // Save profile name to file, for use with MainActivity
-        FileOutputStream output = getActivity().openFileOutput(filename, Context.MODE_PRIVATE);
-        output.write(prefSaved.getString("profile_name", getResources().getString(R.string.action_new)).getBytes());
-        output.close();
+        // Save profile name, for use with MainActivity
+        ProfileStore.getInstance().setTitle(getActivity(), filename, prefSaved.getString("profile_name", getResources().getString(R.string.action_new)));
 
         // Refresh list of profiles
         U.listProfilesBroadcast(getActivity());
@@ -699,12 +695,7 @@ SharedPreferences.OnSharedPreferenceChangeListener {
     }
 
     public void deleteProfile() {
-        // Build the pathname to delete file, then perform delete operation
-        File fileToDelete = new File(getActivity().getFilesDir() + File.separator + filename);
-        fileToDelete.delete();
-
-        File xmlFileToDelete = new File(getActivity().getFilesDir().getParent() + File.separator + "shared_prefs" + File.separator + filename + ".xml");
-        xmlFileToDelete.delete();
+        ProfileStore.getInstance().delete(getActivity(), filename);
 
         U.showToast(getActivity(), R.string.profile_deleted);
 
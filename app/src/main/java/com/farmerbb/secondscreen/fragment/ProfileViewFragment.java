@@ -38,9 +38,9 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import com.farmerbb.secondscreen.R;
+import com.farmerbb.secondscreen.util.ProfileStore;
 import com.farmerbb.secondscreen.util.U;
 
-import java.io.File;
 
 // Fragment launched as part of MainActivity that shows a brief summary of a profile selected from
 // ProfileListActivity. It also contains a button that will either: launch the ProfileLoadService
@@ -310,12 +310,7 @@ public final class ProfileViewFragment extends Fragment {
     }
 
     public void deleteProfile() {
-        // Build the pathname to delete file, then perform delete operation
-        File fileToDelete = new File(getActivity().getFilesDir() + File.separator + filename);
-        fileToDelete.delete();
-
-        File xmlFileToDelete = new File(getActivity().getFilesDir().getParent() + File.separator + "shared_prefs" + File.separator + filename + ".xml");
-        xmlFileToDelete.delete();
+        ProfileStore.getInstance().delete(getActivity(), filename);
 
         U.showToast(getActivity(), R.string.profile_deleted);
 
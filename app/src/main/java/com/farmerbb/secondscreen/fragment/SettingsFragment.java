@@ -34,9 +34,9 @@ import com.farmerbb.secondscreen.activity.HdmiProfileSelectActivity;
 import com.farmerbb.secondscreen.activity.NotificationSettingsActivity;
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
 import com.farmerbb.secondscreen.service.SafeModeToggleService;
+import com.farmerbb.secondscreen.util.ProfileIndex;
 import com.farmerbb.secondscreen.util.U;
 
-import java.io.File;
 import java.io.IOException;
 
 // Fragment launched as part of FragmentContainerActivity that shows a list of application settings.
@@ -148,8 +148,7 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
         if(prefMain.getString("hdmi_load_profile", "show_list").equals("show_list"))
             findPreference("hdmi_select_profile").setSummary(getResources().getString(R.string.show_list));
         else {
-            File file = new File(getActivity().getFilesDir() + File.separator + prefMain.getString("hdmi_load_profile", "show_list"));
-            if(file.exists()) {
+            if(U.profileExists(getActivity(), prefMain.getString("hdmi_load_profile", "show_list"))) {
                 try {
                     findPreference("hdmi_select_profile").setSummary(getResources().getString(R.string.action_load, U.getProfileTitle(getActivity(), prefMain.getString("hdmi_load_profile", "show_list"))));
                 } catch (IOException e) { /* Gracefully fail */ }
@@ -238,10 +237,7 @@ public final class SettingsFragment extends PreferenceFragment implements OnPref
                     safeModePrefChanged();
                 break;
             case "hdmi_select_profile":
-                // Get number of files
-                int numOfFiles = U.getNumOfFiles(getActivity().getFilesDir());
-
-                if(numOfFiles == 0)
+                if(ProfileIndex.getInstance().getSnapshot(getActivity()).isEmpty())
                     U.showToast(getActivity(), R.string.no_profiles_found);
                 else {
                     Intent intent = new Intent(getActivity(), HdmiProfileSelectActivity.class);
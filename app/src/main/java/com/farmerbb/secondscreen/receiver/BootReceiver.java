@@ -24,12 +24,15 @@ import android.os.SystemClock;
 import com.farmerbb.secondscreen.service.BootService;
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
 import com.farmerbb.secondscreen.service.NotificationService;
+import com.farmerbb.secondscreen.util.Capabilities;
+import com.farmerbb.secondscreen.util.StateJournal;
 import com.farmerbb.secondscreen.util.U;
 
 // This receiver is responsible for recreating the DisplayConectionService and/or
 // NotificationService, where applicable, after a device reboot.
 // It is also responsible for launching the TurnOffService if safe mode is enabled and a profile
-// was active before the device last shut down/restarted.
+// was active before the device last shut down/restarted, and for recovering a profile switch
+// that was interrupted by the reboot (see StateJournal).
 public final class BootReceiver extends BroadcastReceiver {
 
     @Override
@@ -40,6 +43,8 @@ public final class BootReceiver extends BroadcastReceiver {
         boolean isDebugMode = prefMain.getBoolean("debug_mode", false);
 
         if(Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()) || isDebugMode) {
+            Capabilities.getInstance().invalidate();
+
             // Initialize preferences on BlissOS
             if(U.isBlissOs(context) && !prefMain.getBoolean("first-run", false))
                 U.initPrefs(context);
@@ -53,6 +58,9 @@ public final class BootReceiver extends BroadcastReceiver {
             if(prefCurrent.getInt("external_display_id", -1) > 1)
                 prefCurrent.edit().putInt("external_display_id", 1).apply();
 
+            // Finish (or undo) a profile switch that was interrupted by the reboot
+            StateJournal.getInstance().recover(context);
+
             if(!prefCurrent.getBoolean("not_active", true)) {
                 if(prefMain.getBoolean("safe_mode", false)
                         && !"activity-manager".equals(prefCurrent.getString("ui_refresh", "do-nothing"))
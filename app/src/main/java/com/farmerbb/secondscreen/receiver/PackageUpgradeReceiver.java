@@ -22,6 +22,7 @@ import android.content.SharedPreferences;
 
 import com.farmerbb.secondscreen.service.DisplayConnectionService;
 import com.farmerbb.secondscreen.service.NotificationService;
+import com.farmerbb.secondscreen.util.Capabilities;
 import com.farmerbb.secondscreen.util.U;
 
 // This receiver is responsible for restarting the DisplayConnectionService and/or
@@ -36,6 +37,8 @@ public final class PackageUpgradeReceiver extends BroadcastReceiver {
         boolean isDebugMode = prefMain.getBoolean("debug_mode", false);
 
         if(Intent.ACTION_MY_PACKAGE_REPLACED.equals(intent.getAction()) || isDebugMode) {
+            Capabilities.getInstance().invalidate();
+
             // Restore DisplayConnectionService
             if(prefMain.getBoolean("hdmi", true) && prefMain.getBoolean("first-run", false)) {
                 Intent serviceIntent = new Intent(context, DisplayConnectionService.class);
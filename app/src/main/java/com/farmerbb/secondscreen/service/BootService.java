@@ -21,18 +21,20 @@ import android.hardware.display.DisplayManager;
 import android.provider.Settings;
 import android.view.Display;
 
+import com.farmerbb.secondscreen.util.Command;
+import com.farmerbb.secondscreen.util.CommandPlan;
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
-import java.util.Arrays;
 
 // Service launched by BootReceiver.  Certain profile options (backlight off, vibration off, etc)
 // do not stick after a device reboot; this service takes care of re-running any needed commands.
 public final class BootService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public BootService() {
         super("BootService");
@@ -47,24 +49,14 @@ public final class BootService extends SecondScreenIntentService {
         SharedPreferences prefMain = U.getPrefMain(this);
 
         // Run superuser commands on boot
-        final int safeModeDensityCommand = 0;
-        final int safeModeSizeCommand = 1;
-        final int rotationPreCommand = 2;
-        final int rotationCommand = 3;
-        final int rotationPostCommand = 4;
-        final int vibrationCommand = 5;
-        final int backlightCommand = 6;
-
-        // Initialize su array
-        String[] su = new String[backlightCommand + 1];
-        Arrays.fill(su, "");
+        CommandPlan plan = new CommandPlan();
 
         if("auto-rotate".equals(prefCurrent.getString("rotation_lock_new", "do-nothing"))) {
-            su[rotationCommand] = U.rotationCommand + Intent.EXTRA_DOCK_STATE_DESK;
+            plan.add(Step.ROTATION, U.rotationCommand(Intent.EXTRA_DOCK_STATE_DESK));
             if(Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 1
                     && Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_dock", 0) == 1) {
-                su[rotationPreCommand] = U.rotationPrePostCommands + "0";
-                su[rotationPostCommand] = U.rotationPrePostCommands + "1";
+                plan.add(Step.ROTATION_PRE, U.rotationPrePostCommands(0));
+                plan.add(Step.ROTATION_POST, U.rotationPrePostCommands(1));
             }
         }
 
@@ -72,7 +64,7 @@ public final class BootService extends SecondScreenIntentService {
             // Set vibration command
             for(File vibrationOff : U.vibrationOff) {
                 if(vibrationOff.exists()) {
-                    su[vibrationCommand] = "echo 0 > " + vibrationOff.getAbsolutePath();
+                    plan.add(Step.VIBRATION, Command.sysfsWrite(vibrationOff.getAbsolutePath(), "0"));
                     break;
                 }
             }
@@ -93,23 +85,23 @@ public final class BootService extends SecondScreenIntentService {
             // Set backlight command
             for(File backlightOff : U.backlightOff) {
                 if(backlightOff.exists()) {
-                    su[backlightCommand] = "sleep 2 && echo 0 > " + backlightOff.getAbsolutePath();
+                    plan.add(Step.BACKLIGHT, Command.sysfsWrite(backlightOff.getAbsolutePath(), "0", 2));
                     break;
                 }
             }
         }
 
         if(prefMain.getBoolean("safe_mode", false) && "activity-manager".equals(prefCurrent.getString("ui_refresh", "do-nothing"))) {
-            su[safeModeSizeCommand] = U.safeModeSizeCommand("null");
-            su[safeModeDensityCommand] = U.safeModeDensityCommand("null");
+            plan.add(Step.SAFE_MODE_SIZE, U.safeModeSizeCommand("null"));
+            plan.add(Step.SAFE_MODE_DENSITY, U.safeModeDensityCommand("null"));
 
             SharedPreferences.Editor editor = prefCurrent.edit();
             editor.putString("ui_refresh", "activity-manager-safe-mode");
-            editor.commit();
+            editor.apply();
         }
 
         // Run superuser commands
-        U.runCommands(this, su, false);
+        U.runCommands(this, plan.schedule(false), false);
 
         // Send broadcast to start Taskbar
         if(prefCurrent.getBoolean("taskbar", false)) {
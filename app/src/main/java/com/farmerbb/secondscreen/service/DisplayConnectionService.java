@@ -21,14 +21,12 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.hardware.display.DisplayManager;
 import android.os.IBinder;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.view.Display;
 
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.activity.HdmiActivity;
@@ -36,6 +34,8 @@ import com.farmerbb.secondscreen.activity.MainActivity;
 import com.farmerbb.secondscreen.activity.TurnOffActivity;
 import com.farmerbb.secondscreen.support.ServiceBinder;
 import com.farmerbb.secondscreen.support.ServiceInterface;
+import com.farmerbb.secondscreen.util.DisplayEventHub;
+import com.farmerbb.secondscreen.util.DisplayProfileMap;
 import com.farmerbb.secondscreen.util.U;
 
 // This is a long-running service started if the "Enable auto-start" preference is set.
@@ -46,58 +46,58 @@ import com.farmerbb.secondscreen.util.U;
 // set to load the currently active profile, or it will launch the TurnOffActivity otherwise.
 public final class DisplayConnectionService extends Service implements ServiceInterface {
 
-    DisplayManager.DisplayListener listener = new DisplayManager.DisplayListener() {
+    // The profile mapped to the display that is currently connected (if any).  Resolved when the
+    // display is connected, as the display can no longer be looked up once it has been removed.
+    String displayProfile;
+
+    DisplayEventHub.Listener listener = new DisplayEventHub.Listener() {
         @Override
-        public void onDisplayAdded(int displayId) {
+        public void onDisplayConnected() {
             SharedPreferences prefCurrent = U.getPrefCurrent(DisplayConnectionService.this);
-            DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-            Display[] displays = dm.getDisplays();
-
-            try {
-                if(displays[displays.length - 2].getDisplayId() == Display.DEFAULT_DISPLAY
-                        && prefCurrent.getBoolean("not_active", true)) {
-                    Intent hdmiIntent = new Intent(DisplayConnectionService.this, HdmiActivity.class);
-                    hdmiIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                    startActivity(hdmiIntent);
+            displayProfile = DisplayProfileMap.getInstance().resolve(DisplayConnectionService.this);
+
+            if(prefCurrent.getBoolean("not_active", true)) {
+                // Load the profile picked for this particular display right away, if there is one
+                if(displayProfile != null) {
+                    U.loadProfile(DisplayConnectionService.this, displayProfile);
+                    return;
                 }
-            } catch (ArrayIndexOutOfBoundsException e) { /* Gracefully fail */ }
-        }
 
-        @Override
-        public void onDisplayChanged(int displayId) {}
+                Intent hdmiIntent = new Intent(DisplayConnectionService.this, HdmiActivity.class);
+                hdmiIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                startActivity(hdmiIntent);
+            }
+        }
 
         @Override
-        public void onDisplayRemoved(int displayId) {
+        public void onDisplayDisconnected() {
             Intent intent = new Intent();
             intent.setAction(U.SCREEN_DISCONNECT);
             LocalBroadcastManager.getInstance(DisplayConnectionService.this).sendBroadcast(intent);
 
             SharedPreferences prefCurrent = U.getPrefCurrent(DisplayConnectionService.this);
-            DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-            Display[] displays = dm.getDisplays();
-
-            try {
-                if(displays[displays.length - 1].getDisplayId() == Display.DEFAULT_DISPLAY
-                        && !prefCurrent.getBoolean("not_active", true)) {
-                    SharedPreferences prefMain = U.getPrefMain(DisplayConnectionService.this);
-                    if("quick_actions".equals(prefCurrent.getString("filename", "0"))) {
-                        SharedPreferences prefSaved = U.getPrefQuickActions(DisplayConnectionService.this);
-                        if(prefMain.getString("hdmi_load_profile", "show_list").equals(prefSaved.getString("original_filename", "0")))
-                            U.turnOffProfile(DisplayConnectionService.this);
-                        else if(prefMain.getBoolean("inactive", true)) {
-                            Intent turnOffIntent = new Intent(DisplayConnectionService.this, TurnOffActivity.class);
-                            turnOffIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                            startActivity(turnOffIntent);
-                        }
-                    } else if(prefMain.getString("hdmi_load_profile", "show_list").equals(prefCurrent.getString("filename", "0")))
+
+            if(!prefCurrent.getBoolean("not_active", true)) {
+                SharedPreferences prefMain = U.getPrefMain(DisplayConnectionService.this);
+                if("quick_actions".equals(prefCurrent.getString("filename", "0"))) {
+                    SharedPreferences prefSaved = U.getPrefQuickActions(DisplayConnectionService.this);
+                    if(isAutoStartProfile(prefMain, prefSaved.getString("original_filename", "0")))
                         U.turnOffProfile(DisplayConnectionService.this);
                     else if(prefMain.getBoolean("inactive", true)) {
                         Intent turnOffIntent = new Intent(DisplayConnectionService.this, TurnOffActivity.class);
                         turnOffIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                         startActivity(turnOffIntent);
                     }
+                } else if(isAutoStartProfile(prefMain, prefCurrent.getString("filename", "0")))
+                    U.turnOffProfile(DisplayConnectionService.this);
+                else if(prefMain.getBoolean("inactive", true)) {
+                    Intent turnOffIntent = new Intent(DisplayConnectionService.this, TurnOffActivity.class);
+                    turnOffIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    startActivity(turnOffIntent);
                 }
-            } catch (ArrayIndexOutOfBoundsException e) { /* Gracefully fail */ }
+            }
+
+            displayProfile = null;
         }
     };
 
@@ -116,8 +116,8 @@ public final class DisplayConnectionService extends Service implements ServiceIn
 
     @Override
     public void onCreate() {
-        DisplayManager manager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-        manager.registerDisplayListener(listener, null);
+        DisplayEventHub.getInstance().subscribe(this, listener);
+        displayProfile = DisplayProfileMap.getInstance().resolve(this);
     }
 
     @Override
@@ -159,7 +159,14 @@ public final class DisplayConnectionService extends Service implements ServiceIn
 
     @Override
     public void onDestroy() {
-        DisplayManager manager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-        manager.unregisterDisplayListener(listener);
+        DisplayEventHub.getInstance().unsubscribe(listener);
+    }
+
+    // Profiles that were (or would have been) loaded automatically when the display was connected
+    // are also turned off automatically when it is disconnected.  A profile mapped to some other
+    // display doesn't count, as it wouldn't have been loaded for this one.
+    private boolean isAutoStartProfile(SharedPreferences prefMain, String filename) {
+        return prefMain.getString("hdmi_load_profile", "show_list").equals(filename)
+                || filename.equals(displayProfile);
     }
 }
@@ -0,0 +1,261 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.farmerbb.secondscreen.support.SupportUtils;
+import com.farmerbb.secondscreen.util.CommandTrace;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+// Runs SecondScreen's background jobs (subclasses of SecondScreenIntentService) one at a time,
+// in the order they were started, on a single app-wide thread.
+//
+// A job can supersede queued jobs with the same key (so that, for example, a profile load that
+// hasn't started yet is replaced by a newer load or turn-off), and queued jobs can be cancelled.
+// While there is anything queued or running, the JobService is kept in the foreground with one
+// notification; it is stopped again shortly after the queue has drained, so that bursts of jobs
+// share it.
+public final class JobRunner {
+
+    private static final String TAG = "SecondScreen";
+
+    // How long the JobService is kept around after the last job has finished
+    private static final long IDLE_DELAY = 1000;
+
+    private static final class Job {
+        private final SecondScreenIntentService service;
+        private final Intent intent;
+        private final long notBefore;
+
+        private Job(SecondScreenIntentService service, Intent intent) {
+            this.service = service;
+            this.intent = intent;
+            this.notBefore = SystemClock.uptimeMillis() + service.getStartDelay();
+        }
+    }
+
+    private final ArrayDeque<Job> queue = new ArrayDeque<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable updateHost = this::updateHost;
+    private final Runnable stopHost = this::stopHost;
+
+    private Context context;
+    private Handler handler;
+    private Job running;
+    private boolean hostStarted = false;
+
+    private static JobRunner theInstance;
+
+    private JobRunner() {}
+
+    public static synchronized JobRunner getInstance() {
+        if(theInstance == null) theInstance = new JobRunner();
+
+        return theInstance;
+    }
+
+    // True if the intent is for a job, rather than for an actual service
+    public static boolean isJob(Intent intent) {
+        return getJobClass(intent) != null;
+    }
+
+    // Queues the job that the intent is for.  Returns false if the intent isn't for a job.
+    public boolean enqueue(Context context, Intent intent) {
+        Class<? extends SecondScreenIntentService> jobClass = getJobClass(intent);
+        if(jobClass == null)
+            return false;
+
+        SecondScreenIntentService service;
+        try {
+            service = jobClass.newInstance();
+        } catch (Exception e) {
+            return false;
+        }
+
+        service.attach(context);
+
+        synchronized(this) {
+            if(handler == null) {
+                this.context = context.getApplicationContext();
+
+                HandlerThread thread = new HandlerThread("JobRunner");
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+
+            String key = service.getSupersedeKey();
+            if(key != null) {
+                int superseded = removeQueued(key);
+                if(superseded > 0)
+                    Log.i(TAG, service.getName() + ": superseded " + superseded + " queued job(s)");
+            }
+
+            Job job = new Job(service, intent);
+            queue.add(job);
+            handler.postAtTime(this::runNext, job.notBefore);
+
+            // The host is started right away, rather than from the main thread, so that a job
+            // queued from a BroadcastReceiver has it before onReceive() returns
+            mainHandler.removeCallbacks(stopHost);
+            startHost();
+        }
+
+        return true;
+    }
+
+    // Removes queued jobs of the given type, and asks a running one to stop early.
+    // Returns the number of queued jobs that were removed.
+    public synchronized int cancel(Class<? extends SecondScreenIntentService> jobClass) {
+        if(running != null && jobClass.isInstance(running.service))
+            running.service.cancel();
+
+        int removed = 0;
+
+        Iterator<Job> iterator = queue.iterator();
+        while(iterator.hasNext()) {
+            Job job = iterator.next();
+            if(jobClass.isInstance(job.service)) {
+                job.service.cancel();
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    public synchronized boolean isIdle() {
+        return running == null && queue.isEmpty();
+    }
+
+    private int removeQueued(String key) {
+        int removed = 0;
+
+        Iterator<Job> iterator = queue.iterator();
+        while(iterator.hasNext()) {
+            Job job = iterator.next();
+            if(key.equals(job.service.getSupersedeKey())) {
+                job.service.cancel();
+                iterator.remove();
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    // Called on the runner thread, once per queued job, once that job's start delay has passed.
+    // Each call runs at most one job; calls left behind by jobs that were removed from the queue
+    // (or that were already run by an earlier call) do nothing.
+    private void runNext() {
+        Job job;
+
+        synchronized(this) {
+            job = queue.peek();
+            if(job == null)
+                return;
+
+            // Jobs run in order, so wait for the job at the front of the queue
+            if(job.notBefore > SystemClock.uptimeMillis()) {
+                handler.postAtTime(this::runNext, job.notBefore);
+                return;
+            }
+
+            queue.poll();
+            running = job;
+        }
+
+        CommandTrace.getInstance().beginOperation(job.service.getName());
+
+        try {
+            job.service.onHandleIntent(job.intent);
+        } catch (RuntimeException e) {
+            Log.e(TAG, job.service.getName() + " failed", e);
+        } finally {
+            CommandTrace.getInstance().endOperation();
+
+            synchronized(this) {
+                running = null;
+            }
+
+            mainHandler.post(updateHost);
+        }
+    }
+
+    // Called on the main thread after each job; stops the JobService once there is no more work
+    private synchronized void updateHost() {
+        mainHandler.removeCallbacks(stopHost);
+
+        if(!isIdle())
+            startHost();
+        else if(hostStarted)
+            mainHandler.postDelayed(stopHost, IDLE_DELAY);
+    }
+
+    // Called while holding the lock, so that the host can't be stopped in between.  The host is
+    // started directly, rather than through SupportUtils.startService() (which only starts it once
+    // a binding to it has connected), so that it is already running once this returns.
+    private void startHost() {
+        if(!hostStarted) {
+            hostStarted = true;
+
+            Intent intent = new Intent(context, JobService.class);
+            try {
+                if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    intent.putExtra("start_foreground", true);
+                    context.startForegroundService(intent);
+                } else
+                    context.startService(intent);
+            } catch (IllegalStateException e) {
+                // Foreground services can't always be started from the background on 12+;
+                // the jobs still run on the runner thread, just without the host until it starts
+                Log.w(TAG, "Couldn't start the job host directly", e);
+                SupportUtils.startService(context, intent);
+            }
+        }
+    }
+
+    private synchronized void stopHost() {
+        if(hostStarted && isIdle()) {
+            hostStarted = false;
+            context.stopService(new Intent(context, JobService.class));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends SecondScreenIntentService> getJobClass(Intent intent) {
+        if(intent.getComponent() == null)
+            return null;
+
+        try {
+            Class<?> cls = Class.forName(intent.getComponent().getClassName());
+            if(SecondScreenIntentService.class.isAssignableFrom(cls))
+                return (Class<? extends SecondScreenIntentService>) cls;
+        } catch (ClassNotFoundException e) { /* Gracefully fail */ }
+
+        return null;
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.service;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.farmerbb.secondscreen.R;
+import com.farmerbb.secondscreen.support.ServiceBinder;
+import com.farmerbb.secondscreen.support.ServiceInterface;
+
+// Keeps SecondScreen in the foreground, with a single "background operations" notification, while
+// the JobRunner has jobs queued or running.  The JobRunner starts and stops this service itself.
+//
+// Jobs that need to be started through a PendingIntent (from a notification action or an alarm)
+// are started through this service as well; see getIntent().
+public final class JobService extends Service implements ServiceInterface {
+
+    private static final String EXTRA_JOB = "job";
+    private static final int NOTIFICATION_ID = 3;
+
+    // Used by jobs that are started as services from outside of the app (see SecondScreenIntentService)
+    static final int FORWARD_NOTIFICATION_ID = 4;
+
+    private final ServiceBinder binder = new ServiceBinder() {
+        @Override
+        public ServiceInterface getService() {
+            return JobService.this;
+        }
+    };
+
+    // Returns an intent that starts the given job when passed to this service
+    public static Intent getIntent(Context context, Class<? extends SecondScreenIntentService> jobClass) {
+        Intent intent = new Intent(context, JobService.class);
+        intent.putExtra(EXTRA_JOB, jobClass.getName());
+        return intent;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if(intent != null && intent.getBooleanExtra("start_foreground", false))
+            startForeground();
+
+        if(intent != null && intent.hasExtra(EXTRA_JOB)) {
+            Intent jobIntent = new Intent(intent);
+            jobIntent.setClassName(this, intent.getStringExtra(EXTRA_JOB));
+            jobIntent.removeExtra(EXTRA_JOB);
+
+            if(JobRunner.getInstance().enqueue(this, jobIntent))
+                return START_NOT_STICKY;
+        }
+
+        // Started by the JobRunner after its work was already done
+        if(JobRunner.getInstance().isIdle())
+            stopSelf();
+
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void startForeground() {
+        startForeground(NOTIFICATION_ID, buildNotification(this));
+    }
+
+    static Notification buildNotification(Context context) {
+        String id = "SecondScreenIntentService";
+
+        NotificationManager mNotificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
+        CharSequence name = context.getString(R.string.background_operations);
+        int importance = NotificationManager.IMPORTANCE_MIN;
+
+        mNotificationManager.createNotificationChannel(new NotificationChannel(id, name, importance));
+
+        // Build the notification
+        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(context, id)
+                .setSmallIcon(R.drawable.ic_action_dock)
+                .setContentTitle(context.getString(R.string.background_operations_active))
+                .setOngoing(true)
+                .setShowWhen(false);
+
+        // Set notification color on Lollipop
+        mBuilder.setColor(ContextCompat.getColor(context, R.color.primary_dark))
+                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
+
+        return mBuilder.build();
+    }
+}
@@ -39,8 +39,8 @@ import com.farmerbb.secondscreen.util.U;
 public final class LockDeviceService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public LockDeviceService() {
         super("LockDeviceService");
@@ -88,11 +88,11 @@ public final class LockDeviceService extends SecondScreenIntentService {
             editor.putInt("timeout", Settings.Secure.getInt(getContentResolver(), "lock_screen_lock_after_timeout", 5000));
             editor.apply();
 
-            U.runCommand(this, U.timeoutCommand + "1");
+            U.runCommand(this, U.timeoutCommand(1));
         }
 
         // Schedule TimeoutService to reset lock screen timeout to original value
-        Intent timeoutService = new Intent(this, TimeoutService.class);
+        Intent timeoutService = JobService.getIntent(this, TimeoutService.class);
         PendingIntent pendingIntent = PendingIntent.getService(this, 123456, timeoutService, PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
 
         AlarmManager manager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
@@ -26,18 +26,17 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
-import android.hardware.display.DisplayManager;
 import android.os.Build;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.view.Display;
 
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.activity.MainActivity;
 import com.farmerbb.secondscreen.activity.TaskerQuickActionsActivity;
 import com.farmerbb.secondscreen.activity.TurnOffActivity;
 import com.farmerbb.secondscreen.support.RotationLockService;
+import com.farmerbb.secondscreen.util.DisplayEventHub;
 import com.farmerbb.secondscreen.util.U;
 
 // The NotificationService is started whenever a profile is active, whether it be a user-created
@@ -47,10 +46,19 @@ import com.farmerbb.secondscreen.util.U;
 // backlight.  It will also temporarily restore the backlight if a display is connected or
 // disconnected while a profile is active.  Lastly, it is responsible for showing the
 // TurnOffActivity when the DisplayConnectionService is not running.
+//
+// When another profile is loaded while the service is running, only the notification is rebuilt
+// (see update()); the receivers, display listener and rotation lock overlay are kept as they are.
 public final class NotificationService extends RotationLockService {
 
+    private static final int NOTIFICATION_ID = 1;
+    private static final String CHANNEL_ID = "NotificationService";
+
     NotificationCompat.Builder mBuilder;
 
+    // Whether the notification was hidden when the service was started
+    boolean hideNotification;
+
     BroadcastReceiver screenOnReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -87,56 +95,66 @@ public final class NotificationService extends RotationLockService {
         }
     };
 
-    DisplayManager.DisplayListener listener = new DisplayManager.DisplayListener() {
+    DisplayEventHub.Listener listener = new DisplayEventHub.Listener() {
         @Override
-        public void onDisplayAdded(int displayId) {
+        public void onDisplayConnected() {
             Intent intent = new Intent();
             intent.setAction(U.SCREEN_CONNECT);
             LocalBroadcastManager.getInstance(NotificationService.this).sendBroadcast(intent);
 
-            DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-            Display[] displays = dm.getDisplays();
-
-            try {
-                if(displays[displays.length - 2].getDisplayId() == Display.DEFAULT_DISPLAY) {
-                    Intent serviceIntent = new Intent(NotificationService.this, ScreenOnService.class);
-                    U.startService(NotificationService.this, serviceIntent);
-                }
-            } catch (ArrayIndexOutOfBoundsException e) { /* Gracefully fail */ }
+            Intent serviceIntent = new Intent(NotificationService.this, ScreenOnService.class);
+            U.startService(NotificationService.this, serviceIntent);
         }
 
         @Override
-        public void onDisplayChanged(int displayId) {}
+        public void onDisplayDisconnected() {
+            Intent serviceIntent = new Intent(NotificationService.this, TempBacklightOnService.class);
+            U.startService(NotificationService.this, serviceIntent);
+
+            SharedPreferences prefMain = U.getPrefMain(NotificationService.this);
+            ActivityManager manager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+            boolean displayConnectionServiceRunning = false;
+
+            for(ActivityManager.RunningServiceInfo service : manager.getRunningServices(Integer.MAX_VALUE)) {
+                if(DisplayConnectionService.class.getName().equals(service.service.getClassName()))
+                    displayConnectionServiceRunning = true;
+            }
+
+            if(prefMain.getBoolean("inactive", true) && !displayConnectionServiceRunning) {
+                Intent turnOffIntent = new Intent(NotificationService.this, TurnOffActivity.class);
+                turnOffIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                startActivity(turnOffIntent);
+            }
+        }
+    };
 
+    BroadcastReceiver updateReceiver = new BroadcastReceiver() {
         @Override
-        public void onDisplayRemoved(int displayId) {
-            DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-            Display[] displays = dm.getDisplays();
-
-            try {
-                if(displays[displays.length - 1].getDisplayId() == Display.DEFAULT_DISPLAY) {
-                    Intent serviceIntent = new Intent(NotificationService.this, TempBacklightOnService.class);
-                    U.startService(NotificationService.this, serviceIntent);
-
-                    SharedPreferences prefMain = U.getPrefMain(NotificationService.this);
-                    ActivityManager manager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
-                    boolean displayConnectionServiceRunning = false;
-
-                    for(ActivityManager.RunningServiceInfo service : manager.getRunningServices(Integer.MAX_VALUE)) {
-                        if(DisplayConnectionService.class.getName().equals(service.service.getClassName()))
-                            displayConnectionServiceRunning = true;
-                    }
+        public void onReceive(Context context, Intent intent) {
+            // The notification channel's importance can only be changed by restarting the service
+            if(U.getPrefMain(context).getBoolean("hide_notification", false) != hideNotification) {
+                Intent serviceIntent = new Intent(context, NotificationService.class);
+                stopService(serviceIntent);
+                U.startService(context, serviceIntent);
+                return;
+            }
 
-                    if(prefMain.getBoolean("inactive", true) && !displayConnectionServiceRunning) {
-                        Intent turnOffIntent = new Intent(NotificationService.this, TurnOffActivity.class);
-                        turnOffIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                        startActivity(turnOffIntent);
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException e) { /* Gracefully fail */ }
+            NotificationManager mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            mNotificationManager.notify(NOTIFICATION_ID, buildNotification());
+
+            updateSystemOverlay();
         }
     };
 
+    // Refreshes the notification of the running service to match the active profile,
+    // or starts the service if it isn't running
+    public static void update(Context context) {
+        Intent intent = new Intent(U.UPDATE_NOTIFICATION);
+
+        if(!LocalBroadcastManager.getInstance(context).sendBroadcast(intent))
+            U.startService(context, new Intent(context, NotificationService.class));
+    }
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     @Override
     public void onCreate() {
@@ -151,8 +169,9 @@ public final class NotificationService extends RotationLockService {
         registerReceiver(screenOnReceiver, filter1);
         registerReceiver(userPresentReceiver, filter2);
 
-        DisplayManager manager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-        manager.registerDisplayListener(listener, null);
+        DisplayEventHub.getInstance().subscribe(this, listener);
+
+        LocalBroadcastManager.getInstance(this).registerReceiver(updateReceiver, new IntentFilter(U.UPDATE_NOTIFICATION));
 
         super.onCreate();
     }
@@ -162,38 +181,44 @@ public final class NotificationService extends RotationLockService {
         unregisterReceiver(screenOnReceiver);
         unregisterReceiver(userPresentReceiver);
 
-        DisplayManager manager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
-        manager.unregisterDisplayListener(listener);
+        DisplayEventHub.getInstance().unsubscribe(listener);
+
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(updateReceiver);
 
         super.onDestroy();
     }
 
-    @SuppressWarnings("deprecation")
     @Override
     protected void startService() {
-        // Load preferences
-        SharedPreferences prefCurrent = U.getPrefCurrent(this);
         SharedPreferences prefMain = U.getPrefMain(this);
-
-        // Intent to launch MainActivity when notification is clicked
-        Intent mainActivityIntent = new Intent(this, MainActivity.class);
-        PendingIntent mainActivityPendingIntent = PendingIntent.getActivity(this, 0, mainActivityIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        String id = "NotificationService";
+        hideNotification = prefMain.getBoolean("hide_notification", false);
 
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationManager mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
             CharSequence name = getString(R.string.profile_active);
 
-            int importance = prefMain.getBoolean("hide_notification", false)
+            int importance = hideNotification
                     ? NotificationManager.IMPORTANCE_MIN
                     : NotificationManager.IMPORTANCE_LOW;
 
-            mNotificationManager.createNotificationChannel(new NotificationChannel(id, name, importance));
+            mNotificationManager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, name, importance));
         }
 
+        startForeground(NOTIFICATION_ID, buildNotification());
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification buildNotification() {
+        // Load preferences
+        SharedPreferences prefCurrent = U.getPrefCurrent(this);
+        SharedPreferences prefMain = U.getPrefMain(this);
+
+        // Intent to launch MainActivity when notification is clicked
+        Intent mainActivityIntent = new Intent(this, MainActivity.class);
+        PendingIntent mainActivityPendingIntent = PendingIntent.getActivity(this, 0, mainActivityIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
         // Build the notification
-        mBuilder = new NotificationCompat.Builder(this, id)
+        mBuilder = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentIntent(mainActivityPendingIntent)
                 .setSmallIcon(R.drawable.ic_action_dock)
                 .setContentTitle(getResources().getString(R.string.notification))
@@ -206,7 +231,7 @@ public final class NotificationService extends RotationLockService {
         setActionButton(prefMain.getString("notification_action", "lock-device"), prefCurrent, 1);
 
         // Respect setting to hide notification
-        if(prefMain.getBoolean("hide_notification", false))
+        if(hideNotification)
             mBuilder.setPriority(Notification.PRIORITY_MIN);
 
         // Set notification color on Lollipop
@@ -215,7 +240,7 @@ public final class NotificationService extends RotationLockService {
                     .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
         }
 
-        startForeground(1, mBuilder.build());
+        return mBuilder.build();
     }
 
     @Override
@@ -236,7 +261,7 @@ public final class NotificationService extends RotationLockService {
             customString = getResources().getStringArray(R.array.pref_notification_action_list)[0];
         } else if(key.equals("lock-device")) {
             // Lock Device
-            customIntent = new Intent(this, LockDeviceService.class);
+            customIntent = JobService.getIntent(this, LockDeviceService.class);
             customPendingIntent = PendingIntent.getService(this, code, customIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
             customString = getResources().getStringArray(R.array.pref_notification_action_list)[2];
         } else if(key.equals("quick-actions")) {
@@ -29,6 +29,7 @@ import android.net.wifi.WifiManager;
 import android.os.BatteryManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.provider.Settings.SettingNotFoundException;
 import android.view.Display;
@@ -38,16 +39,28 @@ import android.widget.Toast;
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.activity.UnableToStartActivity;
 import com.farmerbb.secondscreen.activity.TaskerConditionActivity;
+import com.farmerbb.secondscreen.util.Command;
 import com.farmerbb.secondscreen.util.CommandDispatcher;
+import com.farmerbb.secondscreen.util.CommandPlan;
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
+import com.farmerbb.secondscreen.util.Profile;
+import com.farmerbb.secondscreen.util.Profile.Field;
+import com.farmerbb.secondscreen.util.ProfileDiff;
+import com.farmerbb.secondscreen.util.Readiness.Signal;
+import com.farmerbb.secondscreen.util.RefreshAnalyzer;
+import com.farmerbb.secondscreen.util.RefreshAnalyzer.Refresh;
 import com.farmerbb.secondscreen.util.ShowToast;
+import com.farmerbb.secondscreen.util.StateJournal;
 import com.farmerbb.secondscreen.util.U;
+import com.farmerbb.secondscreen.util.WarmStart;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 // The ProfileLoadService is an important service that is responsible for loading all profiles.
 // It loads a xml file created by ProfileEditService, and will execute the actions based on
@@ -56,23 +69,39 @@ import java.util.Arrays;
 // This service also generates a current.xml file representing the current state of the active profile.
 // If a profile is loaded while another one is currently active, the profile's xml file is compared
 // to the current.xml file, so that only actions that differ from those already performed are
-// executed.  Lastly, the ProfileLoadService starts (or restarts) the NotificationService so that
+// executed.  Lastly, the ProfileLoadService starts (or updates) the NotificationService so that
 // the user is always informed of what profile is currently active.
 public final class ProfileLoadService extends SecondScreenIntentService {
 
     String filename;
+    Map<String, Object> recordedSystemState;
     Handler showToast;
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public ProfileLoadService() {
         super("ProfileLoadService");
-        showToast = new Handler();
+        showToast = new Handler(Looper.getMainLooper());
+    }
+
+    // Only the most recently requested profile needs to be loaded.  A newer load or turn-off
+    // replaces this one if it hasn't started yet; whichever runs last is compared against
+    // current.xml, which always reflects what was actually applied, so the profiles that were
+    // skipped over never have any effect.
+    @Override
+    protected String getSupersedeKey() {
+        return PROFILE_SWITCH;
+    }
+
+    @Override
+    protected long getStartDelay() {
+        return PROFILE_SWITCH_DELAY;
     }
 
     @SuppressLint("CommitPrefEdits")
+    @SuppressWarnings("unchecked")
     @Override
     protected void onHandleIntent(Intent intent) {
         super.onHandleIntent(intent);
@@ -80,10 +109,12 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         if(intent.getStringExtra(U.NAME) != null)
             filename = intent.getStringExtra(U.NAME);
 
+        recordedSystemState = (Map<String, Object>) intent.getSerializableExtra(StateJournal.EXTRA_SYSTEM_STATE);
+
         SharedPreferences prefCurrent = U.getPrefCurrent(this);
 
         // Check for root and then load profile
-        if(U.hasElevatedPermissions(this, true))
+        if(U.hasElevatedPermissions(this))
             loadProfile(prefCurrent);
         else {
             SharedPreferences.Editor editor = prefCurrent.edit();
@@ -115,78 +146,50 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         // Show brief "Loading profile" notification
         showToast.post(new ShowToast(this, R.string.loading_profile, Toast.LENGTH_SHORT));
 
+        // State to go back to if this load is interrupted and needs to be run again.
+        // The toggle is left out, as it is applied to quick_actions.xml right away.
+        Map<String, Object> before = new HashMap<>(prefCurrent.getAll());
+        before.remove("toggle");
+
         // Handle toggling of certain values
-        String toggle = prefCurrent.getString("toggle", "null");
-        if(!"null".equals(toggle) && filename.equals("quick_actions")) {
-            SharedPreferences.Editor editorSaved = prefSaved.edit();
+        if(filename.equals("quick_actions"))
+            QuickActionService.applyToggle(prefCurrent, prefSaved, editor);
 
-            if("immersive_new".equals(toggle)) {
-                toggle = "immersive";
-                editorSaved.remove("immersive_new");
-            }
+        // Compare the profile being loaded against the active one (if any), so that only the
+        // actions that differ between the two are executed
+        Profile target = WarmStart.getInstance().take(filename);
+        if(target == null)
+            target = Profile.fromSaved(this, prefSaved);
 
-            editorSaved.putBoolean(toggle, !prefSaved.getBoolean(toggle, false));
-            editorSaved.commit();
+        Profile active = Profile.fromCurrent(prefCurrent);
+        ProfileDiff diff = ProfileDiff.between(active, target);
 
-            editor.remove("toggle");
-        }
+        // Read the system settings that this profile overrides, so that they can be restored when
+        // it is turned off, and record the switch in the journal before anything is changed.
+        // If this is a switch that was interrupted and is being run again, the device may already
+        // be partly switched, so the values read before the interrupted switch are used instead.
+        Map<String, Object> system = readSystemState(diff);
+        if(recordedSystemState != null)
+            system.putAll(recordedSystemState);
 
-        // Build commands to pass to su
+        putAll(editor, system);
+        StateJournal.getInstance().start(this, StateJournal.OP_LOAD, filename, before, system);
 
-        // Commands will be run in this order (except if "Restart ActivityManager" is selected)
-        final int wifiCommand = 0;
-        final int densityCommand = 1;
-        final int densityCommand2 = 2;
-        final int sizeCommand = 3;
-        final int overscanCommand = 4;
-        final int rotationPreCommand = 5;
-        final int rotationCommand = 6;
-        final int rotationPostCommand = 7;
-        final int chromeCommand = 8;
-        final int chromeCommand2 = 9;
-        final int immersiveCommand = 10;
-        final int freeformCommand = 11;
-        final int hdmiRotationCommand = 12;
-        final int navbarCommand = 13;
-        final int daydreamsCommand = 14;
-        final int daydreamsChargingCommand = 15;
-        final int safeModeDensityCommand = 16;
-        final int safeModeSizeCommand = 17;
-        final int uiRefreshCommand = 18;
-        final int uiRefreshCommand2 = 19;
-        final int stayOnCommand = 20;
-        final int showTouchesCommand = 21;
-        final int vibrationCommand = 22;
-        final int backlightCommand = 23;
-        final int setHomeActivityCommand = 24;
-        final int total = 25;
-
-        // Initialize su array
-        String[] su = new String[total];
-        Arrays.fill(su, "");
+        // Build commands to pass to su
+        CommandPlan plan = new CommandPlan();
+        boolean restartActivityManager = false;
 
         // Bluetooth
         if(getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
             BluetoothAdapter bluetooth = BluetoothAdapter.getDefaultAdapter();
             if(bluetooth != null) {
-                if(prefCurrent.getBoolean("not_active", true))
-                    editor.putBoolean("bluetooth_on_system", bluetooth.isEnabled());
-
-                if(prefSaved.getBoolean("bluetooth_on", false)) {
-                    if(prefCurrent.getBoolean("not_active", true))
+                if(diff.turnsOn(Field.BLUETOOTH))
+                    bluetooth.enable();
+                else if(diff.turnsOff(Field.BLUETOOTH)) {
+                    if(prefCurrent.getBoolean("bluetooth_on_system", false))
                         bluetooth.enable();
-                    else {
-                        if(!prefCurrent.getBoolean("bluetooth_on", false))
-                            bluetooth.enable();
-                    }
-                } else {
-                    if(!prefCurrent.getBoolean("not_active", true))
-                        if(prefCurrent.getBoolean("bluetooth_on", false)) {
-                            if(prefCurrent.getBoolean("bluetooth_on_system", false))
-                                bluetooth.enable();
-                            else
-                                bluetooth.disable();
-                        }
+                    else
+                        bluetooth.disable();
                 }
             }
         }
@@ -195,45 +198,27 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         if(U.canEnableWifi(this)) {
             Boolean enableWifi = null;
 
-            WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-            if(prefCurrent.getBoolean("not_active", true))
-                editor.putBoolean("wifi_on_system", wifi.isWifiEnabled());
-
-            if(prefSaved.getBoolean("wifi_on", false)) {
-                if(prefCurrent.getBoolean("not_active", true))
-                    enableWifi = true;
-                else {
-                    if(!prefCurrent.getBoolean("wifi_on", false))
-                        enableWifi = true;
-                }
-            } else {
-                if(!prefCurrent.getBoolean("not_active", true))
-                    if(prefCurrent.getBoolean("wifi_on", false))
-                        enableWifi = prefCurrent.getBoolean("wifi_on_system", false);
-            }
+            if(diff.turnsOn(Field.WIFI))
+                enableWifi = true;
+            else if(diff.turnsOff(Field.WIFI))
+                enableWifi = prefCurrent.getBoolean("wifi_on_system", false);
 
             if (enableWifi != null) {
                 boolean wifiHandled = U.setWifiEnabled(this, enableWifi);
 
                 if (!wifiHandled) {
-                    su[wifiCommand] = U.wifiCommand(enableWifi);
+                    plan.add(Step.WIFI, U.wifiCommand(enableWifi));
 
-                    if(CommandDispatcher.getInstance().addCommand(this, su[wifiCommand])
+                    if(CommandDispatcher.getInstance().addCommand(this, plan.get(Step.WIFI))
                             || U.isInNonRootMode(this))
-                        su[wifiCommand] = "";
+                        plan.remove(Step.WIFI);
                 }
             }
         }
 
         // Clear default home
-        boolean shouldEnableTaskbarHome = false;
-        boolean shouldDisableTaskbarHome = false;
-
-        if(!prefCurrent.getBoolean("clear_home", false) && prefSaved.getBoolean("clear_home", false))
-            shouldEnableTaskbarHome = true;
-
-        if(prefCurrent.getBoolean("clear_home", false) && !prefSaved.getBoolean("clear_home", false))
-            shouldDisableTaskbarHome = true;
+        boolean shouldEnableTaskbarHome = diff.turnsOn(Field.CLEAR_HOME);
+        boolean shouldDisableTaskbarHome = diff.turnsOff(Field.CLEAR_HOME);
 
         boolean shouldClearHome = shouldEnableTaskbarHome || shouldDisableTaskbarHome;
         if(shouldClearHome) {
@@ -251,7 +236,7 @@ public final class ProfileLoadService extends SecondScreenIntentService {
 
                         if(defaultLauncher != null) {
                             editor.putString("home_activity", defaultLauncher.activityInfo.packageName + "/" + defaultLauncher.activityInfo.name);
-                            su[setHomeActivityCommand] = U.setHomeActivityCommand + taskbarPackageName + "/com.farmerbb.taskbar.activity.HomeActivity";
+                            plan.add(Step.SET_HOME_ACTIVITY, U.setHomeActivityCommand(taskbarPackageName + "/com.farmerbb.taskbar.activity.HomeActivity"));
                         }
                     }
                 } else if(shouldDisableTaskbarHome) {
@@ -261,7 +246,7 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                         String defaultLauncher = prefCurrent.getString("home_activity", null);
                         if(defaultLauncher != null) {
                             editor.remove("home_activity");
-                            su[setHomeActivityCommand] = U.setHomeActivityCommand + defaultLauncher;
+                            plan.add(Step.SET_HOME_ACTIVITY, U.setHomeActivityCommand(defaultLauncher));
                         }
                     }
                 }
@@ -282,29 +267,15 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         // Freeform windows
         boolean rebootRequired = false;
 
-        if(prefCurrent.getBoolean("not_active", true))
-            editor.putBoolean("freeform_system", U.hasFreeformSupport(this));
-
-        if(prefSaved.getBoolean("freeform", false)) {
-            if(prefCurrent.getBoolean("not_active", true)) {
-                su[freeformCommand] = U.freeformCommand(true);
-                if(!U.hasFreeformSupport(this))
-                    rebootRequired = true;
-            } else {
-                if(!prefCurrent.getBoolean("freeform", false)) {
-                    su[freeformCommand] = U.freeformCommand(true);
-                    if(!U.hasFreeformSupport(this))
-                        rebootRequired = true;
-                }
-            }
-        } else {
-            if(!prefCurrent.getBoolean("not_active", true))
-                if(prefCurrent.getBoolean("freeform", false)) {
-                    boolean freeformSystem = prefCurrent.getBoolean("freeform_system", false);
-                    su[freeformCommand] = U.freeformCommand(freeformSystem);
-                    if(U.hasFreeformSupport(this) != freeformSystem)
-                        rebootRequired = true;
-                }
+        if(diff.turnsOn(Field.FREEFORM)) {
+            plan.add(Step.FREEFORM, U.freeformCommand(true));
+            if(!U.hasFreeformSupport(this))
+                rebootRequired = true;
+        } else if(diff.turnsOff(Field.FREEFORM)) {
+            boolean freeformSystem = prefCurrent.getBoolean("freeform_system", false);
+            plan.add(Step.FREEFORM, U.freeformCommand(freeformSystem));
+            if(U.hasFreeformSupport(this) != freeformSystem)
+                rebootRequired = true;
         }
 
         // Resolution and density
@@ -317,16 +288,23 @@ public final class ProfileLoadService extends SecondScreenIntentService {
 
         String uiRefresh = (cmWorkaround || rebootRequired)
                 ? "activity-manager"
-                : prefSaved.getString("ui_refresh", "do-nothing");
+                : target.getUiRefresh();
+
+        // Read the live display state once, to determine which UI refresh (if any) is needed
+        RefreshAnalyzer analyzer = new RefreshAnalyzer(this, target.getString(Field.SIZE), target.getString(Field.DENSITY));
+        boolean shouldRunSizeCommand = analyzer.isSizeChanged();
+        boolean shouldRunDensityCommand = analyzer.isDensityChanged();
 
-        boolean shouldRunSizeCommand = U.runSizeCommand(this, prefSaved.getString("size", "reset"));
-        boolean shouldRunDensityCommand = U.runDensityCommand(this, prefSaved.getString("density", "reset"));
+        // Don't restart the ActivityManager if the forced size and density are already in effect,
+        // unless a restart is needed for another reason
+        boolean activityManagerRestartNeeded = uiRefresh.contains("activity-manager")
+                && (cmWorkaround || rebootRequired || !analyzer.isForcedStateApplied());
 
-        boolean runSizeCommand = uiRefresh.contains("activity-manager") || shouldRunSizeCommand;
-        boolean runDensityCommand = uiRefresh.contains("activity-manager") || shouldRunDensityCommand;
+        boolean runSizeCommand = activityManagerRestartNeeded || shouldRunSizeCommand;
+        boolean runDensityCommand = activityManagerRestartNeeded || shouldRunDensityCommand;
 
         if(runSizeCommand) {
-            String size = prefSaved.getString("size", "reset");
+            String size = target.getString(Field.SIZE);
 
             // Swap height and width under certain conditions
             if(!"reset".equals(size) && (U.isDesktopModeActive(this) && !prefMain.getBoolean("landscape", false))) {
@@ -337,27 +315,23 @@ public final class ProfileLoadService extends SecondScreenIntentService {
             if(uiRefresh.equals("activity-manager") || cmWorkaround) {
                 // Run a different command if we are restarting the ActivityManager
                 if("reset".equals(size))
-                    su[sizeCommand] = U.safeModeSizeCommand("null");
+                    plan.add(Step.SIZE, U.safeModeSizeCommand("null"));
                 else
-                    su[sizeCommand] = U.safeModeSizeCommand(size.replace('x', ','));
+                    plan.add(Step.SIZE, U.safeModeSizeCommand(size.replace('x', ',')));
             } else
-                su[sizeCommand] = U.sizeCommand(this, size);
+                plan.add(Step.SIZE, U.sizeCommand(this, size));
         }
 
         if(runDensityCommand) {
-            String density = prefSaved.getString("density", "reset");
+            String density = target.getString(Field.DENSITY);
             if(uiRefresh.equals("activity-manager") && !cmWorkaround) {
                 // Run a different command if we are restarting the ActivityManager
                 if("reset".equals(density))
-                    su[densityCommand] = U.safeModeDensityCommand("null");
+                    plan.add(Step.DENSITY, U.safeModeDensityCommand("null"));
                 else
-                    su[densityCommand] = U.safeModeDensityCommand(density);
-            } else {
-                su[densityCommand] = U.densityCommand(this, density);
-
-                // We run the density command twice, for reliability
-                su[densityCommand2] = su[densityCommand];
-            }
+                    plan.add(Step.DENSITY, U.safeModeDensityCommand(density));
+            } else
+                plan.add(Step.DENSITY, U.densityCommand(this, density));
         }
 
         if(!rebootRequired) {
@@ -367,115 +341,21 @@ public final class ProfileLoadService extends SecondScreenIntentService {
 
         // Overscan
         if(U.canEnableOverscan()) {
-            if(prefSaved.getBoolean("overscan", false)) {
-                String overscanValues = "";
-
-                if(prefCurrent.getBoolean("not_active", true)) {
-                    overscanValues = prefSaved.getInt("overscan_bottom", 20) + ","
-                            + prefSaved.getInt("overscan_left", 20) + ","
-                            + prefSaved.getInt("overscan_top", 20) + ","
-                            + prefSaved.getInt("overscan_right", 20);
-                } else {
-                    if(prefCurrent.getBoolean("overscan", false)) {
-                        // Check saved overscan integers against current overscan integers
-                        if((prefSaved.getInt("overscan_bottom", 0) != prefCurrent.getInt("overscan_bottom", 20))
-                        || (prefSaved.getInt("overscan_left", 0) != prefCurrent.getInt("overscan_left", 20))
-                        || (prefSaved.getInt("overscan_top", 0) != prefCurrent.getInt("overscan_top", 20))
-                        || (prefSaved.getInt("overscan_right", 0) != prefCurrent.getInt("overscan_right", 20))) {
-                            if(prefMain.getBoolean("landscape", false)) {
-                                overscanValues = prefSaved.getInt("overscan_left", 20) + ","
-                                        + prefSaved.getInt("overscan_top", 20) + ","
-                                        + prefSaved.getInt("overscan_right", 20) + ","
-                                        + prefSaved.getInt("overscan_bottom", 20);
-                            } else {
-                                overscanValues = prefSaved.getInt("overscan_bottom", 20) + ","
-                                        + prefSaved.getInt("overscan_left", 20) + ","
-                                        + prefSaved.getInt("overscan_top", 20) + ","
-                                        + prefSaved.getInt("overscan_right", 20);
-                            }
-                        }
-                    } else if(prefMain.getBoolean("landscape", false)) {
-                        overscanValues = prefSaved.getInt("overscan_left", 20) + ","
-                                + prefSaved.getInt("overscan_top", 20) + ","
-                                + prefSaved.getInt("overscan_right", 20) + ","
-                                + prefSaved.getInt("overscan_bottom", 20);
-                    } else {
-                        overscanValues = prefSaved.getInt("overscan_bottom", 20) + ","
-                                + prefSaved.getInt("overscan_left", 20) + ","
-                                + prefSaved.getInt("overscan_top", 20) + ","
-                                + prefSaved.getInt("overscan_right", 20);
-                    }
-                }
-
-                if(!overscanValues.isEmpty()) {
-                    // Fix overscan values under certain conditions
-                    if(U.isDesktopModeActive(this) && !prefMain.getBoolean("landscape", false)) {
-                        String[] splitValues = overscanValues.split(",");
-                        overscanValues = splitValues[1] + ","
-                                + splitValues[2] + ","
-                                + splitValues[3] + ","
-                                + splitValues[0];
-                    }
-
-                    su[overscanCommand] = U.overscanCommand(this, overscanValues);
-                }
-            } else if(!prefCurrent.getBoolean("not_active", true) && prefCurrent.getBoolean("overscan", false))
-                su[overscanCommand] = U.overscanCommand(this, "reset");
+            if(target.getBoolean(Field.OVERSCAN)) {
+                if(diff.isChanged(Field.OVERSCAN) || diff.isOverscanChanged())
+                    plan.add(Step.OVERSCAN, U.overscanCommand(this, target, !diff.isActivating()));
+            } else if(diff.turnsOff(Field.OVERSCAN))
+                plan.add(Step.OVERSCAN, U.overscanCommand(this, "reset"));
         }
 
         // Screen rotation
-        if("fallback".equals(prefSaved.getString("rotation_lock_new", "fallback")) && prefSaved.getBoolean("rotation_lock", false))
-            editor.putString("rotation_lock_new", "landscape");
-        else
-            editor.putString("rotation_lock_new", prefSaved.getString("rotation_lock_new", "do-nothing"));
-
-        try {
-            if(prefCurrent.getBoolean("not_active", true)) {
-                editor.putInt("user_rotation", Settings.System.getInt(getContentResolver(), Settings.System.USER_ROTATION));
-                editor.putInt("rotation_setting", Settings.System.getInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION));
-            }
-        } catch (SettingNotFoundException e) { /* Gracefully fail */ }
-
         int dockMode;
-        if(prefCurrent.getBoolean("not_active", true)) {
-            // Get current UI mode
-            UiModeManager mUiModeManager = (UiModeManager) getSystemService(Context.UI_MODE_SERVICE);
-            int uiMode = mUiModeManager.getCurrentModeType();
-
-            // Determine current dock state, based on the current UI mode
-            switch(uiMode) {
-                case Configuration.UI_MODE_TYPE_DESK:
-                    dockMode = Intent.EXTRA_DOCK_STATE_DESK;
-                    break;
-                case Configuration.UI_MODE_TYPE_CAR:
-                    dockMode = Intent.EXTRA_DOCK_STATE_CAR;
-                    break;
-                default:
-                    dockMode = Intent.EXTRA_DOCK_STATE_UNDOCKED;
-            }
-
-            editor.putInt("dock_mode", dockMode);
-            editor.putInt("dock_mode_current", dockMode);
-        } else
+        if(diff.isActivating())
+            dockMode = (Integer) system.get("dock_mode");
+        else
             dockMode = prefCurrent.getInt("dock_mode_current", Intent.EXTRA_DOCK_STATE_UNDOCKED);
 
-        switch(prefSaved.getString("rotation_lock_new", "fallback")) {
-            case "fallback":
-                if(prefSaved.getBoolean("rotation_lock", false)) {
-                    dockMode = Intent.EXTRA_DOCK_STATE_UNDOCKED;
-
-                    if(prefMain.getBoolean("landscape", false))
-                        Settings.System.putInt(getContentResolver(), Settings.System.USER_ROTATION, Surface.ROTATION_0);
-                    else
-                        Settings.System.putInt(getContentResolver(), Settings.System.USER_ROTATION, Surface.ROTATION_90);
-
-                    Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 0);
-                } else {
-                    dockMode = prefCurrent.getInt("dock_mode", Intent.EXTRA_DOCK_STATE_UNDOCKED);
-                    Settings.System.putInt(getContentResolver(), Settings.System.USER_ROTATION, prefCurrent.getInt("user_rotation", Surface.ROTATION_0));
-                    Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, prefCurrent.getInt("rotation_setting", 1));
-                }
-                break;
+        switch(target.getString(Field.ROTATION_LOCK)) {
             case "auto-rotate":
                 dockMode = Intent.EXTRA_DOCK_STATE_DESK;
                 Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
@@ -520,108 +400,66 @@ public final class ProfileLoadService extends SecondScreenIntentService {
             runRotationCommand = false;
 
         if(runRotationCommand) {
-            su[rotationCommand] = U.rotationCommand + dockMode;
+            plan.add(Step.ROTATION, U.rotationCommand(dockMode));
 
             // Workaround for if Daydreams is enabled and we are enabling dock mode
             if(dockMode == Intent.EXTRA_DOCK_STATE_DESK
                     && Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 1
                     && Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_dock", 0) == 1)
             {
-                su[rotationPreCommand] = U.rotationPrePostCommands + "0";
-                su[rotationPostCommand] = U.rotationPrePostCommands + "1";
+                plan.add(Step.ROTATION_PRE, U.rotationPrePostCommands(0));
+                plan.add(Step.ROTATION_POST, U.rotationPrePostCommands(1));
             }
         }
 
         // Screen timeout
-        if(prefCurrent.getBoolean("not_active", true)) {
-            editor.putInt("screen_timeout_system", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, 60000));
-            editor.putInt("stay_on_plugged_in_system", Settings.Global.getInt(getContentResolver(), Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0));
-        }
-
-        switch(prefSaved.getString("screen_timeout", "do-nothing")) {
+        switch(target.getString(Field.SCREEN_TIMEOUT)) {
             case "always-on":
-                if(!"always-on".equals(prefCurrent.getString("screen_timeout", "null"))) {
+                if(diff.isChanged(Field.SCREEN_TIMEOUT)) {
                     Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, 2147482000);
-                    if(!prefCurrent.getBoolean("not_active", true))
-                        su[stayOnCommand] = U.stayOnCommand + prefCurrent.getInt("stay_on_while_plugged_in_system", 0);
+                    if(!diff.isActivating())
+                        plan.add(Step.STAY_ON, U.stayOnCommand(prefCurrent.getInt("stay_on_while_plugged_in_system", 0)));
                 }
                 break;
             case "always-on-charging":
-                if(!"always-on-charging".equals(prefCurrent.getString("screen_timeout", "null"))) {
-                    su[stayOnCommand] = U.stayOnCommand + (BatteryManager.BATTERY_PLUGGED_AC
-                            | BatteryManager.BATTERY_PLUGGED_USB | BatteryManager.BATTERY_PLUGGED_WIRELESS);
-                    if(!prefCurrent.getBoolean("not_active", true))
+                if(diff.isChanged(Field.SCREEN_TIMEOUT)) {
+                    plan.add(Step.STAY_ON, U.stayOnCommand(BatteryManager.BATTERY_PLUGGED_AC
+                            | BatteryManager.BATTERY_PLUGGED_USB | BatteryManager.BATTERY_PLUGGED_WIRELESS));
+                    if(!diff.isActivating())
                         Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, prefCurrent.getInt("screen_timeout_system", 60000));
                 }
                 break;
             case "do-nothing":
-                if(!"do-nothing".equals(prefCurrent.getString("screen_timeout", "null")) && !prefCurrent.getBoolean("not_active", true)) {
+                if(diff.isChanged(Field.SCREEN_TIMEOUT) && !diff.isActivating()) {
                     Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, prefCurrent.getInt("screen_timeout_system", 60000));
-                    su[stayOnCommand] = U.stayOnCommand + prefCurrent.getInt("stay_on_while_plugged_in_system", 0);
+                    plan.add(Step.STAY_ON, U.stayOnCommand(prefCurrent.getInt("stay_on_while_plugged_in_system", 0)));
                 }
                 break;
         }
 
         // Chrome desktop mode
-        if(prefSaved.getBoolean("chrome", false)) {
-            if(prefCurrent.getBoolean("not_active", true)) {
-                su[chromeCommand] = U.chromeCommand(this);
-                su[chromeCommand2] = U.chromeCommand2(this);
-            } else {
-                if(!prefCurrent.getBoolean("chrome", false)) {
-                    su[chromeCommand] = U.chromeCommand(this);
-                    su[chromeCommand2] = U.chromeCommand2(this);
-                }
-            }
-        } else {
-            if(!prefCurrent.getBoolean("not_active", true))
-                if(prefCurrent.getBoolean("chrome", false)) {
-                    su[chromeCommand] = U.chromeCommandRemove;
-                    su[chromeCommand2] = U.chromeCommand2(this);
-                }
+        if(diff.turnsOn(Field.CHROME)) {
+            plan.add(Step.CHROME, U.chromeCommand(this));
+            plan.add(Step.CHROME_2, U.chromeCommand2(this));
+        } else if(diff.turnsOff(Field.CHROME)) {
+            plan.add(Step.CHROME, U.chromeCommandRemove);
+            plan.add(Step.CHROME_2, U.chromeCommand2(this));
         }
 
         // Daydreams
-        if(prefCurrent.getBoolean("not_active", true)) {
-            if(Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 1)
-                editor.putBoolean("daydreams_on_system", true);
-            else if(Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 0)
-                editor.putBoolean("daydreams_on_system", false);
-
-            if(Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_sleep", 0) == 1)
-                editor.putBoolean("daydreams_while_charging", true);
-            else if(Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_sleep", 0) == 0)
-                editor.putBoolean("daydreams_while_charging", false);
-        }
-
-        if(prefSaved.getBoolean("daydreams_on", false)) {
-            if(prefCurrent.getBoolean("not_active", true)) {
-                su[daydreamsCommand] = U.daydreamsCommand(true);
-                su[daydreamsChargingCommand] = U.daydreamsChargingCommand(true);
-            } else {
-                if(!prefCurrent.getBoolean("daydreams_on", false)) {
-                    su[daydreamsCommand] = U.daydreamsCommand(true);
-                    su[daydreamsChargingCommand] = U.daydreamsChargingCommand(true);
-                }
-            }
-        } else {
-            if(!prefCurrent.getBoolean("not_active", true))
-                if(prefCurrent.getBoolean("daydreams_on", false)) {
-                    su[daydreamsCommand] = U.daydreamsCommand(prefCurrent.getBoolean("daydreams_on_system", false));
-                    su[daydreamsChargingCommand] = U.daydreamsChargingCommand(prefCurrent.getBoolean("daydreams_while_charging", false));
-                }
+        if(diff.turnsOn(Field.DAYDREAMS)) {
+            plan.add(Step.DAYDREAMS, U.daydreamsCommand(true));
+            plan.add(Step.DAYDREAMS_CHARGING, U.daydreamsChargingCommand(true));
+        } else if(diff.turnsOff(Field.DAYDREAMS)) {
+            plan.add(Step.DAYDREAMS, U.daydreamsCommand(prefCurrent.getBoolean("daydreams_on_system", false)));
+            plan.add(Step.DAYDREAMS_CHARGING, U.daydreamsChargingCommand(prefCurrent.getBoolean("daydreams_while_charging", false)));
         }
 
         // Vibration off
         String vibrationValue = "-1";
 
-        if(prefCurrent.getBoolean("not_active", true)) {
-            editor.putInt("haptic_feedback_enabled_system",
-                    Settings.System.getInt(getContentResolver(), "haptic_feedback_enabled", 0));
-        }
-
         // If user has set "vibration off" in profile
-        if(prefSaved.getBoolean("vibration_off", false)) {
+        if(target.getBoolean(Field.VIBRATION_OFF)) {
             // Check if one of the correct vibration files exist on device, read from it, then get the current value.
             // Also, set the vibration command now if UI refresh command is "do nothing"
             if(U.filesExist(U.vibrationOff)) {
@@ -642,15 +480,10 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                     // Close file on disk
                     reader1.close();
 
-                    if(prefCurrent.getBoolean("not_active", true)) {
+                    if(diff.turnsOn(Field.VIBRATION_OFF)) {
                         for(File vibrationOff : U.vibrationOff) {
                             if(vibrationOff.exists())
-                                su[vibrationCommand] = "echo 0 > " + vibrationOff.getAbsolutePath();
-                        }
-                    } else if(!prefCurrent.getBoolean("vibration_off", false)) {
-                        for(File vibrationOff : U.vibrationOff) {
-                            if(vibrationOff.exists())
-                                su[vibrationCommand] = "echo 0 > " + vibrationOff.getAbsolutePath();
+                                plan.add(Step.VIBRATION, Command.sysfsWrite(vibrationOff.getAbsolutePath(), "0"));
                         }
                     }
                 } catch (IOException e1) { /* Gracefully fail */ }
@@ -662,8 +495,7 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                 editor.putInt("vibration_value", Integer.parseInt(vibrationValue));
 
             // Change haptic feedback system preference for devices that don't support disabling via sysfs
-            if(prefCurrent.getBoolean("not_active", true)
-                    || !prefCurrent.getBoolean("vibration_off", false))
+            if(diff.turnsOn(Field.VIBRATION_OFF))
                 Settings.System.putInt(getContentResolver(), "haptic_feedback_enabled", 0);
         }
 
@@ -676,15 +508,14 @@ public final class ProfileLoadService extends SecondScreenIntentService {
             if(prefCurrent.getInt("vibration_value", -1) != -1) {
                 for(File vibrationOff : U.vibrationOff) {
                     if(vibrationOff.exists())
-                        su[vibrationCommand] = "echo " + prefCurrent.getInt("vibration_value", -1) + " > " + vibrationOff.getAbsolutePath();
+                        plan.add(Step.VIBRATION, Command.sysfsWrite(vibrationOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("vibration_value", -1))));
                 }
 
                 editor.putInt("vibration_value", -1);
             }
 
             // Change haptic feedback system preference for devices that don't support disabling via sysfs
-            if(!prefCurrent.getBoolean("not_active", true)
-                    && prefCurrent.getBoolean("vibration_off", false)
+            if(diff.turnsOff(Field.VIBRATION_OFF)
                     && prefCurrent.getInt("haptic_feedback_enabled_system", -1) != -1)
                 Settings.System.putInt(getContentResolver(), "haptic_feedback_enabled",
                         prefCurrent.getInt("haptic_feedback_enabled_system", -1));
@@ -693,19 +524,7 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         // Backlight off
 
         // If user has set "backlight off" in profile
-        if(prefSaved.getBoolean("backlight_off", false)) {
-            // Save current auto-brightness value for future use, if the current state of "backlight off" is false
-            try {
-                if(!prefCurrent.getBoolean("backlight_off", false))
-                    editor.putInt("auto_brightness", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE));
-            } catch (SettingNotFoundException e) { /* Gracefully fail */ }
-
-            // Save current backlight value for future use, if the current state of "backlight off" is false
-            try {
-                if(!prefCurrent.getBoolean("backlight_off", false))
-                    editor.putInt("backlight_value", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS));
-            } catch (SettingNotFoundException e1) { /* Gracefully fail */ }
-
+        if(target.getBoolean(Field.BACKLIGHT_OFF)) {
             if(!uiRefresh.equals("activity-manager")) {
                 // Check to see if Chromecast screen mirroring is active.
                 // If it is, and user has "Restart SystemUI" as their UI refresh method,
@@ -722,15 +541,15 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                     if(U.castScreenActive(this)
                         && uiRefresh.equals("system-ui")
                         && ((runSizeCommand || runDensityCommand)
-                        || prefCurrent.getBoolean("not_active", true)
+                        || diff.isActivating()
                         || prefCurrent.getBoolean("force_ui_refresh", false))) {
-                        if(prefCurrent.getBoolean("backlight_off", false)
+                        if(active != null && active.getBoolean(Field.BACKLIGHT_OFF)
                             && prefCurrent.getInt("backlight_value", -1) != -1) {
                             if(prefCurrent.getInt("backlight_value", -1) <= 10) {
                                 // Manually update the sysfs value to guarantee that the backlight will restore
                                 for(File backlightOff : U.backlightOff) {
                                     if(backlightOff.exists()) {
-                                        su[backlightCommand] = "echo " + prefCurrent.getInt("backlight_value", -1) + " > " + backlightOff.getAbsolutePath();
+                                        plan.add(Step.BACKLIGHT, Command.sysfsWrite(backlightOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("backlight_value", -1))));
                                         break;
                                     }
                                 }
@@ -748,17 +567,10 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                         Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS, 0);
 
                         // Set backlight command (delay will be handled later)
-                        if(prefCurrent.getBoolean("not_active", true)) {
+                        if(diff.turnsOn(Field.BACKLIGHT_OFF)) {
                             for(File backlightOff : U.backlightOff) {
                                 if(backlightOff.exists()) {
-                                    su[backlightCommand] = "echo 0 > " + backlightOff.getAbsolutePath();
-                                    break;
-                                }
-                            }
-                        } else if(!prefCurrent.getBoolean("backlight_off", false)) {
-                            for(File backlightOff : U.backlightOff) {
-                                if(backlightOff.exists()) {
-                                    su[backlightCommand] = "echo 0 > " + backlightOff.getAbsolutePath();
+                                    plan.add(Step.BACKLIGHT, Command.sysfsWrite(backlightOff.getAbsolutePath(), "0"));
                                     break;
                                 }
                             }
@@ -776,7 +588,7 @@ public final class ProfileLoadService extends SecondScreenIntentService {
                     // Manually update the sysfs value to guarantee that the backlight will restore
                     for(File backlightOff : U.backlightOff) {
                         if(backlightOff.exists()) {
-                            su[backlightCommand] = "echo " + prefCurrent.getInt("backlight_value", -1) + " > " + backlightOff.getAbsolutePath();
+                            plan.add(Step.BACKLIGHT, Command.sysfsWrite(backlightOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("backlight_value", -1))));
                             break;
                         }
                     }
@@ -792,229 +604,124 @@ public final class ProfileLoadService extends SecondScreenIntentService {
         }
 
         // Show touches
-        if(prefCurrent.getBoolean("not_active", true)) {
-            if(Settings.System.getInt(getContentResolver(), "show_touches", 0) == 1)
-                editor.putBoolean("show_touches_system", true);
-            else if(Settings.System.getInt(getContentResolver(), "show_touches", 0) == 0)
-                editor.putBoolean("show_touches_system", false);
-        }
-
-        if(prefSaved.getBoolean("show_touches", false)) {
-            if(prefCurrent.getBoolean("not_active", true))
-                su[showTouchesCommand] = U.showTouchesCommand(true);
-            else {
-                if(!prefCurrent.getBoolean("show_touches", false))
-                    su[showTouchesCommand] = U.showTouchesCommand(true);
-            }
-        } else {
-            if(!prefCurrent.getBoolean("not_active", true))
-                if(prefCurrent.getBoolean("show_touches", false))
-                    su[showTouchesCommand] = U.showTouchesCommand(prefCurrent.getBoolean("show_touches_system", false));
-        }
+        if(diff.turnsOn(Field.SHOW_TOUCHES))
+            plan.add(Step.SHOW_TOUCHES, U.showTouchesCommand(true));
+        else if(diff.turnsOff(Field.SHOW_TOUCHES))
+            plan.add(Step.SHOW_TOUCHES, U.showTouchesCommand(prefCurrent.getBoolean("show_touches_system", false)));
 
-        if(CommandDispatcher.getInstance().addCommand(this, su[showTouchesCommand])
+        if(CommandDispatcher.getInstance().addCommand(this, plan.get(Step.SHOW_TOUCHES))
                 || U.isInNonRootMode(this))
-            su[showTouchesCommand] = "";
+            plan.remove(Step.SHOW_TOUCHES);
 
         // Navigation bar
         if(getPackageManager().hasSystemFeature("com.cyanogenmod.android")) {
-            if(prefCurrent.getBoolean("not_active", true)) {
-                if(Settings.System.getInt(getContentResolver(), "dev_force_show_navbar", 0) == 1)
-                    editor.putBoolean("navbar_system", true);
-                else if(Settings.System.getInt(getContentResolver(), "dev_force_show_navbar", 0) == 0)
-                    editor.putBoolean("navbar_system", false);
-            }
+            if(diff.turnsOn(Field.NAVBAR)) {
+                try {
+                    Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 1);
+                } catch (SecurityException e) {
+                    plan.add(Step.NAVBAR, U.navbarCommand(true));
+                }
+            } else if(diff.turnsOff(Field.NAVBAR)) {
+                boolean navbarSystem = prefCurrent.getBoolean("navbar_system", false);
 
-            if(prefSaved.getBoolean("navbar", false)) {
-                if(prefCurrent.getBoolean("not_active", true))
-                    try {
-                        Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 1);
-                    } catch (SecurityException e) {
-                        su[navbarCommand] = U.navbarCommand(true);
-                    }
-                else {
-                    if(!prefCurrent.getBoolean("navbar", false))
-                        try {
-                            Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 1);
-                        } catch (SecurityException e) {
-                            su[navbarCommand] = U.navbarCommand(true);
-                        }
+                try {
+                    Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", navbarSystem ? 1 : 0);
+                } catch (SecurityException e) {
+                    plan.add(Step.NAVBAR, U.navbarCommand(navbarSystem));
                 }
-            } else {
-                if(!prefCurrent.getBoolean("not_active", true))
-                    if(prefCurrent.getBoolean("navbar", false))
-                        if(prefCurrent.getBoolean("navbar_system", false))
-                            try {
-                                Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 1);
-                            } catch (SecurityException e) {
-                                su[navbarCommand] = U.navbarCommand(true);
-                            }
-                        else
-                            try {
-                                Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 0);
-                            } catch (SecurityException e) {
-                                su[navbarCommand] = U.navbarCommand(false);
-                            }
             }
         }
 
         // Immersive mode
-        if(U.canEnableImmersiveMode()) {
-            if("fallback".equals(prefSaved.getString("immersive_new", "fallback")) && prefSaved.getBoolean("immersive", false))
-                editor.putString("immersive_new", "immersive-mode");
-            else
-                editor.putString("immersive_new", prefSaved.getString("immersive_new", "do-nothing"));
+        if(U.canEnableImmersiveMode() && diff.isChanged(Field.IMMERSIVE)) {
+            String immersive = target.getString(Field.IMMERSIVE);
 
-            switch(prefSaved.getString("immersive_new", "fallback")) {
-                case "fallback":
-                    if(prefSaved.getBoolean("immersive", false)) {
-                        if(!"immersive-mode".equals(prefCurrent.getString("immersive_new", "do-nothing"))) {
-                            su[immersiveCommand] = U.immersiveCommand("immersive-mode");
-                        }
-                    } else {
-                        if(!"do-nothing".equals(prefCurrent.getString("immersive_new", "do-nothing")) && !prefCurrent.getBoolean("not_active", true))
-                            su[immersiveCommand] = U.immersiveCommand("do-nothing");
-                    }
-                    break;
-                case "status-only":
-                    if(!"status-only".equals(prefCurrent.getString("immersive_new", "do-nothing"))) {
-                        su[immersiveCommand] = U.immersiveCommand("status-only");
-                    }
-                    break;
-                case "immersive-mode":
-                    if(!"immersive-mode".equals(prefCurrent.getString("immersive_new", "do-nothing"))) {
-                        su[immersiveCommand] = U.immersiveCommand("immersive-mode");
-                    }
-                    break;
-                case "do-nothing":
-                    if(!"do-nothing".equals(prefCurrent.getString("immersive_new", "do-nothing")) && !prefCurrent.getBoolean("not_active", true))
-                        su[immersiveCommand] = U.immersiveCommand("do-nothing");
-                    break;
-            }
+            // Nothing needs to be reset if a profile isn't already active
+            if(!"do-nothing".equals(immersive) || !diff.isActivating())
+                plan.add(Step.IMMERSIVE, U.immersiveCommand(immersive));
         }
 
         // HDMI rotation
-        if(prefCurrent.getBoolean("not_active", true)) {
-            if("portrait".equals(U.getSystemProperty("persist.demo.hdmirotation")))
-                editor.putString("hdmi_rotation_system", "portrait");
-            else
-                editor.putString("hdmi_rotation_system", "landscape");
-        }
-
-        if(prefSaved.getString("hdmi_rotation", "landscape").equals("portrait")) {
-            if(prefCurrent.getBoolean("not_active", true))
-                su[hdmiRotationCommand] = U.hdmiRotationCommand + prefSaved.getString("hdmi_rotation", "landscape");
-            else {
-                if(!prefCurrent.getString("hdmi_rotation", "landscape").equals("portrait"))
-                    su[hdmiRotationCommand] = U.hdmiRotationCommand + prefSaved.getString("hdmi_rotation", "landscape");
-            }
-        } else {
-            if(!prefCurrent.getBoolean("not_active", true))
-                if(prefCurrent.getString("hdmi_rotation", "landscape").equals("portrait"))
-                    su[hdmiRotationCommand] = U.hdmiRotationCommand + prefCurrent.getString("hdmi_rotation_system", "landscape");
+        if(diff.isChanged(Field.HDMI_ROTATION)) {
+            if(target.getString(Field.HDMI_ROTATION).equals("portrait"))
+                plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand("portrait"));
+            else if(!diff.isActivating())
+                plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand(prefCurrent.getString("hdmi_rotation_system", "landscape")));
         }
 
         // UI refresh
 
         // If a UI refresh command was run on the current profile, and we are loading a different
         // profile without a UI refresh command, run the previous one to restore things back to normal
-        if(!prefCurrent.getBoolean("not_active", true)
-                && !"do-nothing".equals(prefCurrent.getString("ui_refresh", "do-nothing"))
+        if(!diff.isActivating()
+                && !"do-nothing".equals(active.getUiRefresh())
                 && "do-nothing".equals(uiRefresh)) {
-            if(prefCurrent.getString("ui_refresh", "do-nothing").equals("activity-manager-safe-mode"))
+            if(active.getUiRefresh().equals("activity-manager-safe-mode"))
                 uiRefresh = "activity-manager";
             else
-                uiRefresh = prefCurrent.getString("ui_refresh", "do-nothing");
+                uiRefresh = active.getUiRefresh();
         }
 
         // Only refresh the UI if any of these conditions are met:
         // * Size and density commands need to be run
         // * A profile is not already active
         // * The user has changed the UI refresh method in the currently running profile
+        // The RefreshAnalyzer then picks the cheapest refresh that is still sufficient.
+        boolean refreshConfiguration = false;
+
         if((runSizeCommand || runDensityCommand)
-                || prefCurrent.getBoolean("not_active", true)
+                || diff.isActivating()
                 || prefCurrent.getBoolean("force_ui_refresh", false)) {
-            switch(uiRefresh) {
-                case "do-nothing":
-                    if(prefMain.getBoolean("safe_mode", false)) {
-                        if(runSizeCommand)
-                            su[safeModeSizeCommand] = U.safeModeSizeCommand("null");
-
-                        if(runDensityCommand)
-                            su[safeModeDensityCommand] = U.safeModeDensityCommand("null");
-                    }
-                    break;
-                case "system-ui":
-                    if(prefMain.getBoolean("safe_mode", false)) {
-                        if(runSizeCommand)
-                            su[safeModeSizeCommand] = U.safeModeSizeCommand("null");
+            if(("do-nothing".equals(uiRefresh) || "system-ui".equals(uiRefresh))
+                    && prefMain.getBoolean("safe_mode", false)) {
+                if(runSizeCommand)
+                    plan.add(Step.SAFE_MODE_SIZE, U.safeModeSizeCommand("null"));
 
-                        if(runDensityCommand)
-                            su[safeModeDensityCommand] = U.safeModeDensityCommand("null");
-                    }
+                if(runDensityCommand)
+                    plan.add(Step.SAFE_MODE_DENSITY, U.safeModeDensityCommand("null"));
+            }
+
+            Refresh refresh = analyzer.analyze(uiRefresh, runSizeCommand || runDensityCommand,
+                    prefCurrent.getBoolean("force_ui_refresh", false), diff);
 
-                    su[uiRefreshCommand] = U.uiRefreshCommand(this, false);
-                    su[uiRefreshCommand2] = U.uiRefreshCommand2(this, shouldClearHome);
+            switch(refresh) {
+                case CONFIGURATION:
+                    refreshConfiguration = !shouldClearHome;
                     break;
-                case "activity-manager":
-                    su[uiRefreshCommand] = U.uiRefreshCommand(this, true);
+                case SYSTEM_UI:
+                    plan.add(Step.UI_REFRESH, U.uiRefreshCommand(this, false));
+                    plan.add(Step.UI_REFRESH_2, U.uiRefreshCommand2(this, shouldClearHome));
+                    break;
+                case ACTIVITY_MANAGER:
+                    plan.add(Step.UI_REFRESH, U.uiRefreshCommand(this, true));
 
-                    // We run the superuser commands in a different order if this option is selected,
-                    // so re-create the command array.
+                    // The command plan runs the superuser commands in a different order if this option is selected.
                     // Remaining commands will be handled by the BootService
+                    restartActivityManager = true;
+
                     if(cmWorkaround) {
-                        su[uiRefreshCommand] = su[uiRefreshCommand].replace('1', '5');
-                        su = new String[]{
-                                su[sizeCommand],
-                                su[overscanCommand],
-                                su[chromeCommand],
-                                su[chromeCommand2],
-                                su[immersiveCommand],
-                                su[freeformCommand],
-                                su[hdmiRotationCommand],
-                                su[navbarCommand],
-                                su[daydreamsCommand],
-                                su[daydreamsChargingCommand],
-                                su[stayOnCommand],
-                                su[showTouchesCommand],
-                                su[densityCommand],
-                                su[setHomeActivityCommand],
-                                su[uiRefreshCommand]};
-                    } else
-                        su = new String[]{
-                                su[densityCommand],
-                                su[sizeCommand],
-                                su[overscanCommand],
-                                su[chromeCommand],
-                                su[chromeCommand2],
-                                su[immersiveCommand],
-                                su[freeformCommand],
-                                su[hdmiRotationCommand],
-                                su[navbarCommand],
-                                su[daydreamsCommand],
-                                su[daydreamsChargingCommand],
-                                su[stayOnCommand],
-                                su[showTouchesCommand],
-                                su[setHomeActivityCommand],
-                                su[uiRefreshCommand]};
+                        // The workaround needs a fixed delay, as there is nothing to wait on
+                        plan.add(Step.UI_REFRESH, Command.await(Signal.DELAY, 5000, Command.strip(plan.getCommand(Step.UI_REFRESH))));
+                        plan.runAfter(Step.DENSITY, Step.SHOW_TOUCHES);
+                    }
                     break;
             }
         }
 
         // Handle backlight command delay
-        if(prefSaved.getBoolean("backlight_off", false)
+        if(target.getBoolean(Field.BACKLIGHT_OFF)
                 && !"activity-manager".equals(uiRefresh)
-                && su[uiRefreshCommand].equals("")
-                && !su[backlightCommand].equals(""))
-            su[backlightCommand] = "sleep 2 && " + su[backlightCommand];
+                && !plan.has(Step.UI_REFRESH)
+                && plan.has(Step.BACKLIGHT))
+            plan.add(Step.BACKLIGHT, ((Command.SysfsWrite) plan.getCommand(Step.BACKLIGHT)).withDelay(2));
 
         // Remove any special preferences that are not needed after profile load
         if(prefCurrent.getBoolean("force_safe_mode", false)) {
             editor.remove("force_safe_mode");
 
             if(!"activity-manager".equals(uiRefresh)) {
-                su[safeModeSizeCommand] = U.safeModeSizeCommand("null");
-                su[safeModeDensityCommand] = U.safeModeDensityCommand("null");
+                plan.add(Step.SAFE_MODE_SIZE, U.safeModeSizeCommand("null"));
+                plan.add(Step.SAFE_MODE_DENSITY, U.safeModeDensityCommand("null"));
             }
         }
 
@@ -1022,68 +729,55 @@ public final class ProfileLoadService extends SecondScreenIntentService {
             editor.remove("force_ui_refresh");
 
         // Determine if we need to start or stop Taskbar
-        boolean shouldEnableFreeform = false;
-        boolean shouldDisableFreeform = false;
-
-        if(!prefCurrent.getBoolean("freeform", false) && prefSaved.getBoolean("freeform", false))
-            shouldEnableFreeform = true;
-
-        if(prefCurrent.getBoolean("freeform", false) && !prefSaved.getBoolean("freeform", false))
-            shouldDisableFreeform = true;
-
-        boolean shouldStartTaskbar = false;
-        boolean shouldStopTaskbar = false;
-
-        if(!prefCurrent.getBoolean("taskbar", false) && prefSaved.getBoolean("taskbar", false))
-            shouldStartTaskbar = true;
-
-        if(prefCurrent.getBoolean("taskbar", false) && !prefSaved.getBoolean("taskbar", false))
-            shouldStopTaskbar = true;
-
-        // Save preferences for future use
-        editor.putString("profile_name", prefSaved.getString("profile_name", getResources().getString(R.string.action_new)));
-        editor.putString("size", prefSaved.getString("size", "reset"));
-        editor.putString("density", prefSaved.getString("density", "reset"));
-        editor.putString("ui_refresh", uiRefresh);
-        editor.putString("screen_timeout", prefSaved.getString("screen_timeout", "do-nothing"));
-        editor.putString("hdmi_rotation", prefSaved.getString("hdmi_rotation", "landscape"));
-        editor.putBoolean("vibration_off", prefSaved.getBoolean("vibration_off", false));
-        editor.putBoolean("backlight_off", prefSaved.getBoolean("backlight_off", false));
-        editor.putBoolean("overscan", prefSaved.getBoolean("overscan", false));
-        editor.putBoolean("chrome", prefSaved.getBoolean("chrome", false));
-        editor.putBoolean("show_touches", prefSaved.getBoolean("show_touches", false));
-        editor.putBoolean("daydreams_on", prefSaved.getBoolean("daydreams_on", false));
-        editor.putBoolean("wifi_on", prefSaved.getBoolean("wifi_on", false));
-        editor.putBoolean("bluetooth_on", prefSaved.getBoolean("bluetooth_on", false));
-        editor.putBoolean("navbar", prefSaved.getBoolean("navbar", false));
-        editor.putBoolean("freeform", prefSaved.getBoolean("freeform", false));
-        editor.putBoolean("taskbar", prefSaved.getBoolean("taskbar", false));
-        editor.putBoolean("clear_home", prefSaved.getBoolean("clear_home", false));
-        editor.putInt("overscan_left", prefSaved.getInt("overscan_left", 20));
-        editor.putInt("overscan_right", prefSaved.getInt("overscan_right", 20));
-        editor.putInt("overscan_top", prefSaved.getInt("overscan_top", 20));
-        editor.putInt("overscan_bottom", prefSaved.getInt("overscan_bottom", 20));
-        editor.putInt("external_display_id", U.getExternalDisplayID(this));
+        boolean shouldEnableFreeform = diff.turnsOn(Field.FREEFORM);
+        boolean shouldDisableFreeform = diff.turnsOff(Field.FREEFORM);
+
+        boolean shouldStartTaskbar = diff.turnsOn(Field.TASKBAR);
+        boolean shouldStopTaskbar = diff.turnsOff(Field.TASKBAR);
+
+        // Save preferences for future use.
+        // Only the fields that differ from the active profile are written to current.xml
+        diff.writeTo(editor);
+
+        if(diff.isActivating() || !uiRefresh.equals(active.getUiRefresh()))
+            editor.putString("ui_refresh", uiRefresh);
+
+        int externalDisplayID = U.getExternalDisplayID(this);
+        if(prefCurrent.getInt("external_display_id", -1) != externalDisplayID)
+            editor.putInt("external_display_id", externalDisplayID);
 
         // Set "not_active" status to false
-        if(prefCurrent.getBoolean("not_active", true)) {
+        if(diff.isActivating()) {
             editor.putBoolean("not_active", false);
             editor.putLong("time_of_profile_start", System.currentTimeMillis());
         }
 
-        // Commit settings (for reliability)
-        editor.commit();
+        // Save settings, and add them to the journal entry before running any commands.
+        // The journal has everything needed to rebuild current.xml, so it can be written asynchronously.
+        editor.apply();
+        StateJournal.getInstance().prepared(this, prefCurrent.getAll(), restartActivityManager || rebootRequired);
 
         // Clear quick_actions.xml if profile being loaded is not a Quick Action
         if(!filename.equals("quick_actions")) {
             SharedPreferences prefSaved2 = U.getPrefQuickActions(this);
-            SharedPreferences.Editor prefSavedEditor = prefSaved2.edit();
-            prefSavedEditor.clear();
-            prefSavedEditor.commit();
+            if(!prefSaved2.getAll().isEmpty()) {
+                SharedPreferences.Editor prefSavedEditor = prefSaved2.edit();
+                prefSavedEditor.clear();
+                prefSavedEditor.apply();
+            }
         }
 
-        // Run superuser commands
-        U.runCommands(this, su, rebootRequired);
+        // Run superuser commands.  If any of them fail, the ones that were already applied are
+        // rolled back, and the device is left on the profile that was active before.
+        if(U.runCommands(this, plan, restartActivityManager, rebootRequired))
+            StateJournal.getInstance().complete(this);
+        else {
+            StateJournal.getInstance().abort(this);
+            showToast.post(new ShowToast(this, R.string.profile_load_failed, Toast.LENGTH_LONG));
+
+            U.listProfilesBroadcast(this);
+            return;
+        }
 
         // Refresh list of profiles
         U.listProfilesBroadcast(this);
@@ -1121,13 +815,126 @@ public final class ProfileLoadService extends SecondScreenIntentService {
             sendBroadcast(taskbarIntent);
         }
 
-        if((shouldEnableTaskbarHome || shouldDisableTaskbarHome)
+        if((shouldEnableTaskbarHome || shouldDisableTaskbarHome || refreshConfiguration)
                 && !(U.isInNonRootMode(this) && rebootRequired))
             U.goHome(this);
 
-        // Start (or restart) NotificationService
-        Intent serviceIntent = new Intent(this, NotificationService.class);
-        stopService(serviceIntent);
-        U.startService(this, serviceIntent);
+        // Start NotificationService, or update it if it is already running
+        NotificationService.update(this);
+    }
+
+    // Reads the current values of the system settings that the profile being loaded will change,
+    // so that they can be saved to current.xml and restored when the profile is turned off
+    private Map<String, Object> readSystemState(ProfileDiff diff) {
+        Map<String, Object> system = new HashMap<>();
+
+        if(diff.isActivating()) {
+            // Bluetooth
+            if(getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH)) {
+                BluetoothAdapter bluetooth = BluetoothAdapter.getDefaultAdapter();
+                if(bluetooth != null)
+                    system.put("bluetooth_on_system", bluetooth.isEnabled());
+            }
+
+            // Wi-Fi
+            if(U.canEnableWifi(this)) {
+                WifiManager wifi = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+                system.put("wifi_on_system", wifi.isWifiEnabled());
+            }
+
+            // Freeform windows
+            system.put("freeform_system", U.hasFreeformSupport(this));
+
+            // Screen rotation
+            try {
+                system.put("user_rotation", Settings.System.getInt(getContentResolver(), Settings.System.USER_ROTATION));
+                system.put("rotation_setting", Settings.System.getInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION));
+            } catch (SettingNotFoundException e) { /* Gracefully fail */ }
+
+            // Get current UI mode
+            UiModeManager mUiModeManager = (UiModeManager) getSystemService(Context.UI_MODE_SERVICE);
+            int uiMode = mUiModeManager.getCurrentModeType();
+
+            // Determine current dock state, based on the current UI mode
+            int dockMode;
+            switch(uiMode) {
+                case Configuration.UI_MODE_TYPE_DESK:
+                    dockMode = Intent.EXTRA_DOCK_STATE_DESK;
+                    break;
+                case Configuration.UI_MODE_TYPE_CAR:
+                    dockMode = Intent.EXTRA_DOCK_STATE_CAR;
+                    break;
+                default:
+                    dockMode = Intent.EXTRA_DOCK_STATE_UNDOCKED;
+            }
+
+            system.put("dock_mode", dockMode);
+            system.put("dock_mode_current", dockMode);
+
+            // Screen timeout
+            system.put("screen_timeout_system", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, 60000));
+            system.put("stay_on_plugged_in_system", Settings.Global.getInt(getContentResolver(), Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0));
+
+            // Daydreams
+            if(Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 1)
+                system.put("daydreams_on_system", true);
+            else if(Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 0)
+                system.put("daydreams_on_system", false);
+
+            if(Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_sleep", 0) == 1)
+                system.put("daydreams_while_charging", true);
+            else if(Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_sleep", 0) == 0)
+                system.put("daydreams_while_charging", false);
+
+            // Vibration off
+            system.put("haptic_feedback_enabled_system",
+                    Settings.System.getInt(getContentResolver(), "haptic_feedback_enabled", 0));
+
+            // Show touches
+            if(Settings.System.getInt(getContentResolver(), "show_touches", 0) == 1)
+                system.put("show_touches_system", true);
+            else if(Settings.System.getInt(getContentResolver(), "show_touches", 0) == 0)
+                system.put("show_touches_system", false);
+
+            // Navigation bar
+            if(getPackageManager().hasSystemFeature("com.cyanogenmod.android")) {
+                if(Settings.System.getInt(getContentResolver(), "dev_force_show_navbar", 0) == 1)
+                    system.put("navbar_system", true);
+                else if(Settings.System.getInt(getContentResolver(), "dev_force_show_navbar", 0) == 0)
+                    system.put("navbar_system", false);
+            }
+
+            // HDMI rotation
+            if("portrait".equals(U.getSystemProperty("persist.demo.hdmirotation")))
+                system.put("hdmi_rotation_system", "portrait");
+            else
+                system.put("hdmi_rotation_system", "landscape");
+        }
+
+        // Backlight off
+        if(diff.turnsOn(Field.BACKLIGHT_OFF)) {
+            // Save current auto-brightness value for future use, if the current state of "backlight off" is false
+            try {
+                system.put("auto_brightness", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS_MODE));
+            } catch (SettingNotFoundException e) { /* Gracefully fail */ }
+
+            // Save current backlight value for future use, if the current state of "backlight off" is false
+            try {
+                system.put("backlight_value", Settings.System.getInt(getContentResolver(), Settings.System.SCREEN_BRIGHTNESS));
+            } catch (SettingNotFoundException e1) { /* Gracefully fail */ }
+        }
+
+        return system;
+    }
+
+    private static void putAll(SharedPreferences.Editor editor, Map<String, Object> values) {
+        for(Map.Entry<String, Object> entry : values.entrySet()) {
+            if(entry.getValue() instanceof Boolean)
+                editor.putBoolean(entry.getKey(), (Boolean) entry.getValue());
+            else if(entry.getValue() instanceof Integer)
+                editor.putInt(entry.getKey(), (Integer) entry.getValue());
+            else if(entry.getValue() instanceof String)
+                editor.putString(entry.getKey(), (String) entry.getValue());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.service;
+
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Toast;
+
+import com.farmerbb.secondscreen.R;
+import com.farmerbb.secondscreen.util.CommandPlan;
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
+import com.farmerbb.secondscreen.util.Profile;
+import com.farmerbb.secondscreen.util.Profile.Field;
+import com.farmerbb.secondscreen.util.ProfileDiff;
+import com.farmerbb.secondscreen.util.ShowToast;
+import com.farmerbb.secondscreen.util.StateJournal;
+import com.farmerbb.secondscreen.util.U;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The QuickActionService applies quick actions that only change a single setting of the active
+// profile (such as the toggles in the notification), without reloading the whole profile.
+// TaskerQuickActionsActivity writes the change into quick_actions.xml as usual; this service then
+// compares quick_actions.xml against current.xml, and if only that setting differs, runs just the
+// commands for that setting, records it in current.xml, and updates the notification.
+// Anything else (such as other settings differing, or a different UI refresh method) is handed off
+// to the ProfileLoadService, which loads the quick actions profile in full.
+public final class QuickActionService extends SecondScreenIntentService {
+
+    // Fields that can be applied without reloading the rest of the profile
+    private static final Set<Field> SINGLE_SETTING_FIELDS = EnumSet.of(
+            Field.PROFILE_NAME,
+            Field.CHROME,
+            Field.IMMERSIVE,
+            Field.HDMI_ROTATION,
+            Field.OVERSCAN,
+            Field.OVERSCAN_LEFT,
+            Field.OVERSCAN_RIGHT,
+            Field.OVERSCAN_TOP,
+            Field.OVERSCAN_BOTTOM);
+
+    Handler showToast;
+
+    /**
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
+     */
+    public QuickActionService() {
+        super("QuickActionService");
+        showToast = new Handler(Looper.getMainLooper());
+    }
+
+    // True if the quick action only changes a single setting, so it can be run by this service
+    public static boolean isSingleSetting(String key) {
+        switch(key) {
+            case "temp_overscan":
+            case "temp_chrome":
+            case "temp_immersive":
+            case "temp_immersive_new":
+            case "temp_hdmi_rotation":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Applies a toggle requested by TaskerQuickActionsActivity (if there is one) to
+    // quick_actions.xml, and removes it from current.xml
+    static void applyToggle(SharedPreferences prefCurrent, SharedPreferences prefSaved, SharedPreferences.Editor editor) {
+        String toggle = prefCurrent.getString("toggle", "null");
+        if("null".equals(toggle))
+            return;
+
+        SharedPreferences.Editor editorSaved = prefSaved.edit();
+
+        if("immersive_new".equals(toggle)) {
+            toggle = "immersive";
+            editorSaved.remove("immersive_new");
+        }
+
+        editorSaved.putBoolean(toggle, !prefSaved.getBoolean(toggle, false));
+        editorSaved.apply();
+
+        editor.remove("toggle");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        super.onHandleIntent(intent);
+
+        SharedPreferences prefCurrent = U.getPrefCurrent(this);
+        SharedPreferences prefSaved = U.getPrefQuickActions(this);
+        SharedPreferences.Editor editor = prefCurrent.edit();
+
+        // State to go back to if the commands fail (see ProfileLoadService)
+        Map<String, Object> before = new HashMap<>(prefCurrent.getAll());
+        before.remove("toggle");
+
+        applyToggle(prefCurrent, prefSaved, editor);
+
+        Profile target = Profile.fromSaved(this, prefSaved);
+        ProfileDiff diff = ProfileDiff.between(Profile.fromCurrent(prefCurrent), target);
+
+        // Current.xml is given the filename here instead of by U.loadProfile()
+        editor.putString("filename", "quick_actions");
+
+        if(!isSingleSetting(prefCurrent, diff)) {
+            editor.apply();
+
+            Intent loadIntent = new Intent(this, ProfileLoadService.class);
+            loadIntent.putExtra(U.NAME, "quick_actions");
+            U.startService(this, loadIntent);
+            return;
+        }
+
+        // Build commands to pass to su.  A profile is already active, so these are the same
+        // commands the ProfileLoadService would run when switching to quick_actions.xml.
+        CommandPlan plan = new CommandPlan();
+
+        // Chrome desktop mode
+        if(diff.turnsOn(Field.CHROME)) {
+            plan.add(Step.CHROME, U.chromeCommand(this));
+            plan.add(Step.CHROME_2, U.chromeCommand2(this));
+        } else if(diff.turnsOff(Field.CHROME)) {
+            plan.add(Step.CHROME, U.chromeCommandRemove);
+            plan.add(Step.CHROME_2, U.chromeCommand2(this));
+        }
+
+        // Immersive mode
+        if(U.canEnableImmersiveMode() && diff.isChanged(Field.IMMERSIVE))
+            plan.add(Step.IMMERSIVE, U.immersiveCommand(target.getString(Field.IMMERSIVE)));
+
+        // HDMI rotation
+        if(diff.isChanged(Field.HDMI_ROTATION)) {
+            if(target.getString(Field.HDMI_ROTATION).equals("portrait"))
+                plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand("portrait"));
+            else
+                plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand(prefCurrent.getString("hdmi_rotation_system", "landscape")));
+        }
+
+        // Overscan
+        if(U.canEnableOverscan()) {
+            if(target.getBoolean(Field.OVERSCAN)) {
+                if(diff.isChanged(Field.OVERSCAN) || diff.isOverscanChanged())
+                    plan.add(Step.OVERSCAN, U.overscanCommand(this, target, true));
+            } else if(diff.turnsOff(Field.OVERSCAN))
+                plan.add(Step.OVERSCAN, U.overscanCommand(this, "reset"));
+        }
+
+        // Save settings, and record the change in the journal before running any commands
+        diff.writeTo(editor);
+        editor.apply();
+        StateJournal.getInstance().begin(this, StateJournal.OP_LOAD, "quick_actions", before, prefCurrent.getAll());
+
+        if(U.runCommands(this, plan, false, false))
+            StateJournal.getInstance().complete(this);
+        else {
+            StateJournal.getInstance().abort(this);
+            showToast.post(new ShowToast(this, R.string.profile_load_failed, Toast.LENGTH_LONG));
+        }
+
+        // Refresh list of profiles
+        U.listProfilesBroadcast(this);
+
+        // The Tasker condition is based on the profile that quick actions were started from,
+        // which hasn't changed, so there is no need to request a Tasker query here.
+        // Only the notification needs to be updated.
+        NotificationService.update(this);
+    }
+
+    // True if only the fields in SINGLE_SETTING_FIELDS differ from the active profile, and nothing
+    // else would need to be run along with them (a UI refresh, safe mode, etc)
+    private boolean isSingleSetting(SharedPreferences prefCurrent, ProfileDiff diff) {
+        if(diff.isActivating()
+                || !U.hasElevatedPermissions(this)
+                || prefCurrent.getBoolean("force_ui_refresh", false)
+                || prefCurrent.getBoolean("force_safe_mode", false))
+            return false;
+
+        if(!diff.getTarget().getUiRefresh().equals(diff.getActive().getUiRefresh()))
+            return false;
+
+        for(Field field : diff.getChangedFields()) {
+            if(!SINGLE_SETTING_FIELDS.contains(field))
+                return false;
+        }
+
+        return true;
+    }
+}
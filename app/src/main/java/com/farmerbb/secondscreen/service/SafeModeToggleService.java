@@ -18,6 +18,7 @@ package com.farmerbb.secondscreen.service;
 import android.content.Intent;
 import android.content.SharedPreferences;
 
+import com.farmerbb.secondscreen.util.Command;
 import com.farmerbb.secondscreen.util.U;
 
 // This service is launched whenever the safe mode option has been changed in the app settings,
@@ -25,8 +26,8 @@ import com.farmerbb.secondscreen.util.U;
 public final class SafeModeToggleService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public SafeModeToggleService() {
         super("SafeModeToggleService");
@@ -41,7 +42,7 @@ public final class SafeModeToggleService extends SecondScreenIntentService {
         final int safeModeSizeCommand = 1;
 
         // Initialize su array
-        String[] su = new String[safeModeSizeCommand + 1];
+        Command[] su = new Command[safeModeSizeCommand + 1];
 
         if(intent.getBooleanExtra("safe_mode", false)) {
             su[safeModeDensityCommand] = U.safeModeDensityCommand("null");
@@ -21,6 +21,7 @@ import android.hardware.display.DisplayManager;
 import android.provider.Settings;
 import android.view.Display;
 
+import com.farmerbb.secondscreen.util.Command;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
@@ -32,8 +33,8 @@ import java.io.File;
 public final class ScreenOnService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public ScreenOnService() {
         super("ScreenOnService");
@@ -63,7 +64,7 @@ public final class ScreenOnService extends SecondScreenIntentService {
             // Run superuser command to blank screen again after device was turned off
             for(File backlightOff : U.backlightOff) {
                 if(backlightOff.exists()) {
-                    U.runCommand(this, "sleep 2 && echo 0 > " + backlightOff.getAbsolutePath());
+                    U.runCommand(this, Command.sysfsWrite(backlightOff.getAbsolutePath(), "0", 2));
                     break;
                 }
             }
@@ -15,97 +15,93 @@
 
 package com.farmerbb.secondscreen.service;
 
-import android.annotation.TargetApi;
-import android.app.IntentService;
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.IBinder;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.Nullable;
-import androidx.core.app.NotificationCompat;
-import androidx.core.content.ContextCompat;
 
-import com.farmerbb.secondscreen.R;
-import com.farmerbb.secondscreen.support.ServiceBinder;
-import com.farmerbb.secondscreen.support.ServiceInterface;
-
-import java.util.Random;
-
-public abstract class SecondScreenIntentService extends IntentService implements ServiceInterface {
+// Base class for SecondScreen's background operations (loading and turning off profiles, etc).
+//
+// These used to be separate IntentServices, each of which was started, brought into the
+// foreground with its own notification, and torn down again every time it was run.  They are now
+// jobs, run one at a time on the JobRunner's thread while a single JobService keeps the app in the
+// foreground.  They are still started with U.startService(), so callers don't need to know.
+//
+// Jobs are still declared in the manifest as exported services, under the same names as before,
+// so that anything outside of the app that starts them by component name (the support library,
+// automation apps, "am startservice") keeps working.  When started that way, the service only
+// forwards the intent to the JobRunner and stops itself; the job is run by a separate instance.
+public abstract class SecondScreenIntentService extends Service {
+
+    // Supersede key shared by the ProfileLoadService and TurnOffService, so that when profiles are
+    // switched in quick succession, only the last requested switch is run
+    static final String PROFILE_SWITCH = "profile_switch";
+
+    // Start delay for profile switches.  Short enough not to be noticed, but long enough for a
+    // burst of requests (from Tasker, or from tapping through the notification) to be folded.
+    static final long PROFILE_SWITCH_DELAY = 250;
+
+    private final String name;
+    private volatile boolean cancelled = false;
 
     public SecondScreenIntentService(String name) {
-        super(name);
+        this.name = name;
     }
 
-    private final ServiceBinder binder = new ServiceBinder() {
-        @Override
-        public ServiceInterface getService() {
-            return SecondScreenIntentService.this;
-        }
-    };
-
-    @Nullable
-    @Override
-    public IBinder onBind(Intent intent) {
-        return binder;
+    // Called by the JobRunner before the job is queued
+    final void attach(Context context) {
+        attachBaseContext(context.getApplicationContext());
     }
 
-    @CallSuper
-    @Override
-    protected void onHandleIntent(@Nullable Intent intent) {
-        if(intent.getBooleanExtra("start_foreground", false))
-            startForeground();
+    public final String getName() {
+        return name;
     }
 
+    // Only called when started as an actual service, from outside of the app
     @Override
-    public void startForeground() {
-        String id = "SecondScreenIntentService";
-
-        NotificationManager mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        CharSequence name = getString(R.string.background_operations);
-        int importance = NotificationManager.IMPORTANCE_MIN;
-
-        mNotificationManager.createNotificationChannel(new NotificationChannel(id, name, importance));
+    public final int onStartCommand(Intent intent, int flags, int startId) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            startForeground(JobService.FORWARD_NOTIFICATION_ID, JobService.buildNotification(this));
 
-        // Build the notification
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(this, id)
-                .setSmallIcon(R.drawable.ic_action_dock)
-                .setContentTitle(getString(R.string.background_operations_active))
-                .setOngoing(true)
-                .setShowWhen(false);
+        if(intent != null)
+            JobRunner.getInstance().enqueue(this, intent);
 
-        // Set notification color on Lollipop
-        mBuilder.setColor(ContextCompat.getColor(this, R.color.primary_dark))
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
-
-        startForeground(new Random().nextInt(), mBuilder.build());
+        stopSelf(startId);
+        return START_NOT_STICKY;
     }
 
-    @TargetApi(Build.VERSION_CODES.O)
-    public Notification getNotification() {
-        String id = "SecondScreenIntentService";
+    @Nullable
+    @Override
+    public final IBinder onBind(Intent intent) {
+        return null;
+    }
 
-        NotificationManager mNotificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        CharSequence name = getString(R.string.background_operations);
-        int importance = NotificationManager.IMPORTANCE_MIN;
+    // Runs the job on the JobRunner's thread
+    @CallSuper
+    protected void onHandleIntent(@Nullable Intent intent) {}
 
-        mNotificationManager.createNotificationChannel(new NotificationChannel(id, name, importance));
+    // Jobs that return a key replace any job with the same key that is still waiting to run,
+    // instead of running after it.  Jobs of different types can share a key.
+    protected String getSupersedeKey() {
+        return null;
+    }
 
-        // Build the notification
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(this, id)
-                .setSmallIcon(R.drawable.ic_action_dock)
-                .setContentTitle(getString(R.string.background_operations_active))
-                .setOngoing(true)
-                .setShowWhen(false);
+    // How long (in milliseconds) the job waits in the queue before it is run, giving a newer job
+    // with the same supersede key the chance to replace it
+    protected long getStartDelay() {
+        return 0;
+    }
 
-        // Set notification color on Lollipop
-        mBuilder.setColor(ContextCompat.getColor(this, R.color.primary_dark))
-                .setVisibility(NotificationCompat.VISIBILITY_PUBLIC);
+    final void cancel() {
+        cancelled = true;
+    }
 
-        return mBuilder.build();
+    // Long-running jobs can check this between steps, and stop early if it returns true
+    protected final boolean isCancelled() {
+        return cancelled;
     }
 }
@@ -19,6 +19,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.provider.Settings;
 
+import com.farmerbb.secondscreen.util.Command;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
@@ -31,8 +32,8 @@ import java.io.File;
 public final class TempBacklightOnService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public TempBacklightOnService() {
         super("TempBacklightOnService");
@@ -54,7 +55,7 @@ public final class TempBacklightOnService extends SecondScreenIntentService {
                 // Manually update the sysfs value to guarantee that the backlight will restore
                 for(File backlightOff : U.backlightOff) {
                     if(backlightOff.exists()) {
-                        U.runCommand(this, "echo " + prefCurrent.getInt("backlight_value", -1) + " > " + backlightOff.getAbsolutePath());
+                        U.runCommand(this, Command.sysfsWrite(backlightOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("backlight_value", -1))));
                         break;
                     }
                 }
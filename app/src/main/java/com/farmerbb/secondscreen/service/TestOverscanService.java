@@ -24,13 +24,19 @@ import com.farmerbb.secondscreen.util.U;
 public final class TestOverscanService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public TestOverscanService() {
         super("TestOverscanService");
     }
 
+    // Only the most recently requested overscan values need to be tested
+    @Override
+    protected String getSupersedeKey() {
+        return "test_overscan";
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         super.onHandleIntent(intent);
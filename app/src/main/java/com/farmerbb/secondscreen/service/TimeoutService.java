@@ -25,8 +25,8 @@ import com.farmerbb.secondscreen.util.U;
 public final class TimeoutService extends SecondScreenIntentService {
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public TimeoutService() {
         super("TimeoutService");
@@ -44,7 +44,7 @@ public final class TimeoutService extends SecondScreenIntentService {
             editor.remove("timeout");
             editor.apply();
 
-            U.runCommand(this, U.timeoutCommand + timeout);
+            U.runCommand(this, U.timeoutCommand(timeout));
         }
     }
 }
@@ -23,6 +23,7 @@ import android.content.SharedPreferences;
 import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
 import android.view.Surface;
 import android.widget.Toast;
@@ -30,12 +31,24 @@ import android.widget.Toast;
 import com.farmerbb.secondscreen.R;
 import com.farmerbb.secondscreen.activity.UnableToStartActivity;
 import com.farmerbb.secondscreen.activity.TaskerConditionActivity;
+import com.farmerbb.secondscreen.util.Command;
 import com.farmerbb.secondscreen.util.CommandDispatcher;
+import com.farmerbb.secondscreen.util.CommandPlan;
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
+import com.farmerbb.secondscreen.util.Profile;
+import com.farmerbb.secondscreen.util.Profile.Field;
+import com.farmerbb.secondscreen.util.ProfileDiff;
+import com.farmerbb.secondscreen.util.Readiness.Signal;
+import com.farmerbb.secondscreen.util.RefreshAnalyzer;
+import com.farmerbb.secondscreen.util.RefreshAnalyzer.Refresh;
 import com.farmerbb.secondscreen.util.ShowToast;
+import com.farmerbb.secondscreen.util.StateJournal;
 import com.farmerbb.secondscreen.util.U;
 
 import java.io.File;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 // This service is run whenever the user requests the currently running profile to be turned off.
 // The TurnOffService runs in a similar manner as the ProfileLoadService. It reads current.xml
@@ -48,12 +61,23 @@ public final class TurnOffService extends SecondScreenIntentService {
     Handler showToast;
 
     /**
-     * A constructor is required, and must call the super IntentService(String)
-     * constructor with a name for the worker thread.
+     * A constructor is required, and must call the super SecondScreenIntentService(String)
+     * constructor with a name for the job.
      */
     public TurnOffService() {
         super("TurnOffService");
-        showToast = new Handler();
+        showToast = new Handler(Looper.getMainLooper());
+    }
+
+    // Turning off a profile replaces a profile load that hasn't started yet (see ProfileLoadService)
+    @Override
+    protected String getSupersedeKey() {
+        return PROFILE_SWITCH;
+    }
+
+    @Override
+    protected long getStartDelay() {
+        return PROFILE_SWITCH_DELAY;
     }
 
     @SuppressLint("CommitPrefEdits")
@@ -63,7 +87,19 @@ public final class TurnOffService extends SecondScreenIntentService {
 
         SharedPreferences prefCurrent = U.getPrefCurrent(this);
 
-        if(U.hasElevatedPermissions(this, true))
+        // If the profile load that this turn-off superseded was never run, there is nothing to
+        // turn off; the load and the turn-off cancel each other out
+        if(prefCurrent.getBoolean("not_active", true)) {
+            SharedPreferences.Editor editor = prefCurrent.edit();
+            editor.putString("filename", "0");
+            editor.remove("filename_backup");
+            editor.commit();
+
+            U.listProfilesBroadcast(this);
+            return;
+        }
+
+        if(U.hasElevatedPermissions(this))
             turnOffProfile(prefCurrent);
         else {
             SharedPreferences.Editor editor = prefCurrent.edit();
@@ -88,44 +124,24 @@ public final class TurnOffService extends SecondScreenIntentService {
     @SuppressLint("CommitPrefEdits")
     private void turnOffProfile(SharedPreferences prefCurrent) {
         SharedPreferences.Editor editor = prefCurrent.edit();
+        Map<String, Object> before = new HashMap<>(prefCurrent.getAll());
 
         // Show brief "Turning off profile" notification
         showToast.post(new ShowToast(this, R.string.turning_off_profile, Toast.LENGTH_SHORT));
 
-        // Build commands to pass to su
+        // Determine which actions were run by the active profile and need to be reversed
+        Profile active = Profile.fromCurrent(prefCurrent);
+        ProfileDiff diff = ProfileDiff.between(active, null);
 
-        // Commands will be run in this order (except if "Restart ActivityManager" is selected)
-        final int wifiCommand = 0;
-        final int densityCommand = 1;
-        final int densityCommand2 = 2;
-        final int sizeCommand = 3;
-        final int overscanCommand = 4;
-        final int rotationPreCommand = 5;
-        final int rotationCommand = 6;
-        final int rotationPostCommand = 7;
-        final int chromeCommand = 8;
-        final int chromeCommand2 = 9;
-        final int immersiveCommand = 10;
-        final int freeformCommand = 11;
-        final int hdmiRotationCommand = 12;
-        final int navbarCommand = 13;
-        final int daydreamsCommand = 14;
-        final int daydreamsChargingCommand = 15;
-        final int stayOnCommand = 16;
-        final int showTouchesCommand = 17;
-        final int uiRefreshCommand = 18;
-        final int uiRefreshCommand2 = 19;
-        final int vibrationCommand = 20;
-        final int backlightCommand = 21;
-        final int setHomeActivityCommand = 22;
-        final int total = 23;
-
-        // Initialize su array
-        String[] su = new String[total];
-        Arrays.fill(su, "");
+        // Record the switch in the journal before anything is changed
+        StateJournal.getInstance().start(this, StateJournal.OP_TURN_OFF, null, before, Collections.<String, Object>emptyMap());
+
+        // Build commands to pass to su
+        CommandPlan plan = new CommandPlan();
+        boolean restartActivityManager = false;
 
         // Bluetooth
-        if(prefCurrent.getBoolean("bluetooth_on", true)) {
+        if(diff.turnsOff(Field.BLUETOOTH)) {
             BluetoothAdapter bluetooth = BluetoothAdapter.getDefaultAdapter();
             if(prefCurrent.getBoolean("bluetooth_on_system", false))
                 bluetooth.enable();
@@ -136,7 +152,7 @@ public final class TurnOffService extends SecondScreenIntentService {
         // Wi-Fi
         Boolean enableWifi = null;
 
-        if(prefCurrent.getBoolean("wifi_on", true)) {
+        if(diff.turnsOff(Field.WIFI)) {
             enableWifi = prefCurrent.getBoolean("wifi_on_system", false);
         }
 
@@ -144,16 +160,16 @@ public final class TurnOffService extends SecondScreenIntentService {
             boolean wifiHandled = U.setWifiEnabled(this, enableWifi);
 
             if (!wifiHandled) {
-                su[wifiCommand] = U.wifiCommand(enableWifi);
+                plan.add(Step.WIFI, U.wifiCommand(enableWifi));
 
-                if(CommandDispatcher.getInstance().addCommand(this, su[wifiCommand])
+                if(CommandDispatcher.getInstance().addCommand(this, plan.get(Step.WIFI))
                         || U.isInNonRootMode(this))
-                    su[wifiCommand] = "";
+                    plan.remove(Step.WIFI);
             }
         }
 
         // Clear default home
-        boolean shouldDisableTaskbarHome = prefCurrent.getBoolean("clear_home", false);
+        boolean shouldDisableTaskbarHome = diff.turnsOff(Field.CLEAR_HOME);
 
         boolean shouldClearHome = shouldDisableTaskbarHome;
         if(shouldClearHome) {
@@ -167,7 +183,7 @@ public final class TurnOffService extends SecondScreenIntentService {
                     String defaultLauncher = prefCurrent.getString("home_activity", null);
                     if(defaultLauncher != null) {
                         editor.remove("home_activity");
-                        su[setHomeActivityCommand] = U.setHomeActivityCommand + defaultLauncher;
+                        plan.add(Step.SET_HOME_ACTIVITY, U.setHomeActivityCommand(defaultLauncher));
                     }
                 }
             }
@@ -186,9 +202,9 @@ public final class TurnOffService extends SecondScreenIntentService {
         // Freeform windows
         boolean rebootRequired = false;
 
-        if(prefCurrent.getBoolean("freeform", true)) {
+        if(diff.turnsOff(Field.FREEFORM)) {
             boolean freeformSystem = prefCurrent.getBoolean("freeform_system", false);
-            su[freeformCommand] = U.freeformCommand(freeformSystem);
+            plan.add(Step.FREEFORM, U.freeformCommand(freeformSystem));
             if(U.hasFreeformSupport(this) != freeformSystem)
                 rebootRequired = true;
         }
@@ -203,22 +219,29 @@ public final class TurnOffService extends SecondScreenIntentService {
 
         String uiRefresh = (cmWorkaround || rebootRequired)
                 ? "activity-manager"
-                : prefCurrent.getString("ui_refresh", "do-nothing");
+                : (active != null ? active.getUiRefresh() : "do-nothing");
+
+        // Read the live display state once, to determine which UI refresh (if any) is needed
+        RefreshAnalyzer analyzer = new RefreshAnalyzer(this, "reset", "reset");
+        boolean shouldRunSizeCommand = analyzer.isSizeChanged();
+        boolean shouldRunDensityCommand = analyzer.isDensityChanged();
 
-        boolean shouldRunSizeCommand = U.runSizeCommand(this, "reset");
-        boolean shouldRunDensityCommand = U.runDensityCommand(this, "reset");
+        // Don't restart the ActivityManager if the native size and density are already in effect,
+        // unless a restart is needed for another reason
+        boolean activityManagerRestartNeeded = uiRefresh.contains("activity-manager")
+                && (cmWorkaround || rebootRequired || !analyzer.isForcedStateApplied());
 
-        boolean runSizeCommand = uiRefresh.contains("activity-manager") || shouldRunSizeCommand;
-        boolean runDensityCommand = uiRefresh.contains("activity-manager") || shouldRunDensityCommand;
+        boolean runSizeCommand = activityManagerRestartNeeded || shouldRunSizeCommand;
+        boolean runDensityCommand = activityManagerRestartNeeded || shouldRunDensityCommand;
 
         if(runSizeCommand) {
             if(uiRefresh.equals("activity-manager")
                     || uiRefresh.equals("activity-manager-safe-mode")
                     || cmWorkaround)
                 // Run a different command if we are restarting the ActivityManager
-                su[sizeCommand] = U.safeModeSizeCommand("null");
+                plan.add(Step.SIZE, U.safeModeSizeCommand("null"));
             else
-                su[sizeCommand] = U.sizeCommand(this, "reset");
+                plan.add(Step.SIZE, U.sizeCommand(this, "reset"));
         }
 
         if(runDensityCommand) {
@@ -226,13 +249,9 @@ public final class TurnOffService extends SecondScreenIntentService {
                     || uiRefresh.equals("activity-manager-safe-mode"))
                     && !cmWorkaround)
                 // Run a different command if we are restarting the ActivityManager
-                su[densityCommand] = U.safeModeDensityCommand("null");
-            else {
-                su[densityCommand] = U.densityCommand(this, "reset");
-
-                // We run the density command twice, for reliability
-                su[densityCommand2] = su[densityCommand];
-            }
+                plan.add(Step.DENSITY, U.safeModeDensityCommand("null"));
+            else
+                plan.add(Step.DENSITY, U.densityCommand(this, "reset"));
         }
 
         if(!rebootRequired) {
@@ -241,8 +260,8 @@ public final class TurnOffService extends SecondScreenIntentService {
         }
 
         // Overscan
-        if(U.canEnableOverscan() && prefCurrent.getBoolean("overscan", true))
-            su[overscanCommand] = U.overscanCommand(this, "reset");
+        if(U.canEnableOverscan() && diff.turnsOff(Field.OVERSCAN))
+            plan.add(Step.OVERSCAN, U.overscanCommand(this, "reset"));
 
         // Screen rotation
         Settings.System.putInt(getContentResolver(), Settings.System.USER_ROTATION, prefCurrent.getInt("user_rotation", Surface.ROTATION_0));
@@ -253,46 +272,48 @@ public final class TurnOffService extends SecondScreenIntentService {
         boolean runRotationCommand = prefCurrent.getInt("dock_mode", Intent.EXTRA_DOCK_STATE_UNDOCKED) != prefCurrent.getInt("dock_mode_current", Intent.EXTRA_DOCK_STATE_UNDOCKED);
 
         if(runRotationCommand) {
-            su[rotationCommand] = U.rotationCommand + prefCurrent.getInt("dock_mode", Intent.EXTRA_DOCK_STATE_UNDOCKED);
+            plan.add(Step.ROTATION, U.rotationCommand(prefCurrent.getInt("dock_mode", Intent.EXTRA_DOCK_STATE_UNDOCKED)));
 
             // Workaround for if Daydreams is enabled and we are enabling dock mode
             if(prefCurrent.getInt("dock_mode", Intent.EXTRA_DOCK_STATE_UNDOCKED) == Intent.EXTRA_DOCK_STATE_DESK
                     && Settings.Secure.getInt(getContentResolver(), "screensaver_enabled", 0) == 1
                     && Settings.Secure.getInt(getContentResolver(), "screensaver_activate_on_dock", 0) == 1)
             {
-                su[rotationPreCommand] = U.rotationPrePostCommands + "0";
-                su[rotationPostCommand] = U.rotationPrePostCommands + "1";
+                plan.add(Step.ROTATION_PRE, U.rotationPrePostCommands(0));
+                plan.add(Step.ROTATION_POST, U.rotationPrePostCommands(1));
             }
         }
 
         // Screen timeout
-        switch(prefCurrent.getString("screen_timeout", "do-nothing")) {
-            case "always-on":
-                Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, prefCurrent.getInt("screen_timeout_system", 60000));
-                break;
-            case "always-on-charging":
-                su[stayOnCommand] = U.stayOnCommand + prefCurrent.getInt("stay_on_while_plugged_in_system", 0);
-                break;
+        if(diff.isChanged(Field.SCREEN_TIMEOUT)) {
+            switch(active.getString(Field.SCREEN_TIMEOUT)) {
+                case "always-on":
+                    Settings.System.putInt(getContentResolver(), Settings.System.SCREEN_OFF_TIMEOUT, prefCurrent.getInt("screen_timeout_system", 60000));
+                    break;
+                case "always-on-charging":
+                    plan.add(Step.STAY_ON, U.stayOnCommand(prefCurrent.getInt("stay_on_while_plugged_in_system", 0)));
+                    break;
+            }
         }
 
         // Chrome
-        if(prefCurrent.getBoolean("chrome", true)) {
-            su[chromeCommand] = U.chromeCommandRemove;
-            su[chromeCommand2] = U.chromeCommand2(this);
+        if(diff.turnsOff(Field.CHROME)) {
+            plan.add(Step.CHROME, U.chromeCommandRemove);
+            plan.add(Step.CHROME_2, U.chromeCommand2(this));
         }
 
         // Daydreams
-        if(prefCurrent.getBoolean("daydreams_on", true)) {
-            su[daydreamsCommand] = U.daydreamsCommand(prefCurrent.getBoolean("daydreams_on_system", false));
-            su[daydreamsChargingCommand] = U.daydreamsChargingCommand(prefCurrent.getBoolean("daydreams_while_charging", false));
+        if(diff.turnsOff(Field.DAYDREAMS)) {
+            plan.add(Step.DAYDREAMS, U.daydreamsCommand(prefCurrent.getBoolean("daydreams_on_system", false)));
+            plan.add(Step.DAYDREAMS_CHARGING, U.daydreamsChargingCommand(prefCurrent.getBoolean("daydreams_while_charging", false)));
         }
 
         // Vibration off
-        if(prefCurrent.getBoolean("vibration_off", false)) {
+        if(diff.turnsOff(Field.VIBRATION_OFF)) {
             if(prefCurrent.getInt("vibration_value", -1) != -1) {
                 for(File vibrationOff : U.vibrationOff) {
                     if(vibrationOff.exists())
-                        su[vibrationCommand] = "echo " + prefCurrent.getInt("vibration_value", -1) + " > " + vibrationOff.getAbsolutePath();
+                        plan.add(Step.VIBRATION, Command.sysfsWrite(vibrationOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("vibration_value", -1))));
                 }
             }
 
@@ -304,13 +325,13 @@ public final class TurnOffService extends SecondScreenIntentService {
         }
 
         // Backlight off
-        if(prefCurrent.getBoolean("backlight_off", false)
+        if(diff.turnsOff(Field.BACKLIGHT_OFF)
             && prefCurrent.getInt("backlight_value", -1) != -1) {
             if(prefCurrent.getInt("backlight_value", -1) <= 10) {
                 // Manually update the sysfs value to guarantee that the backlight will restore
                 for(File backlightOff : U.backlightOff) {
                     if(backlightOff.exists()) {
-                        su[backlightCommand] = "echo " + prefCurrent.getInt("backlight_value", -1) + " > " + backlightOff.getAbsolutePath();
+                        plan.add(Step.BACKLIGHT, Command.sysfsWrite(backlightOff.getAbsolutePath(), String.valueOf(prefCurrent.getInt("backlight_value", -1))));
                         break;
                     }
                 }
@@ -322,106 +343,88 @@ public final class TurnOffService extends SecondScreenIntentService {
         }
 
         // Show touches
-        if(prefCurrent.getBoolean("show_touches", true))
-            su[showTouchesCommand] = U.showTouchesCommand(prefCurrent.getBoolean("show_touches_system", false));
+        if(diff.turnsOff(Field.SHOW_TOUCHES))
+            plan.add(Step.SHOW_TOUCHES, U.showTouchesCommand(prefCurrent.getBoolean("show_touches_system", false)));
 
-        if(CommandDispatcher.getInstance().addCommand(this, su[showTouchesCommand])
+        if(CommandDispatcher.getInstance().addCommand(this, plan.get(Step.SHOW_TOUCHES))
                 || U.isInNonRootMode(this))
-            su[showTouchesCommand] = "";
+            plan.remove(Step.SHOW_TOUCHES);
 
         // Navigation bar
         if(getPackageManager().hasSystemFeature("com.cyanogenmod.android")
-                && prefCurrent.getBoolean("navbar", true)) {
+                && diff.turnsOff(Field.NAVBAR)) {
             if(prefCurrent.getBoolean("navbar_system", false))
                 try {
                     Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 1);
                 } catch (SecurityException e) {
-                    su[navbarCommand] = U.navbarCommand(true);
+                    plan.add(Step.NAVBAR, U.navbarCommand(true));
                 }
             else
                 try {
                     Settings.System.putInt(getContentResolver(), "dev_force_show_navbar", 0);
                 } catch (SecurityException e) {
-                    su[navbarCommand] = U.navbarCommand(false);
+                    plan.add(Step.NAVBAR, U.navbarCommand(false));
                 }
         }
 
         // Immersive mode
-        if(U.canEnableImmersiveMode() && !"do-nothing".equals(prefCurrent.getString("immersive_new", "do-nothing")))
-            su[immersiveCommand] = U.immersiveCommand("do-nothing");
+        if(U.canEnableImmersiveMode() && diff.isChanged(Field.IMMERSIVE))
+            plan.add(Step.IMMERSIVE, U.immersiveCommand("do-nothing"));
 
         // HDMI rotation
-        if(prefCurrent.getString("hdmi_rotation", "landscape").equals("portrait"))
-            su[hdmiRotationCommand] = U.hdmiRotationCommand + prefCurrent.getString("hdmi_rotation_system", "landscape");
+        if(diff.isChanged(Field.HDMI_ROTATION))
+            plan.add(Step.HDMI_ROTATION, U.hdmiRotationCommand(prefCurrent.getString("hdmi_rotation_system", "landscape")));
 
         // UI refresh
-        switch(uiRefresh) {
-            case "system-ui":
-                su[uiRefreshCommand] = U.uiRefreshCommand(this, false);
-                su[uiRefreshCommand2] = U.uiRefreshCommand2(this, shouldClearHome);
+        Refresh refresh = analyzer.analyze(uiRefresh.contains("activity-manager") ? "activity-manager" : uiRefresh,
+                runSizeCommand || runDensityCommand, false, diff);
+        boolean refreshConfiguration = false;
+
+        switch(refresh) {
+            case CONFIGURATION:
+                refreshConfiguration = !shouldClearHome;
+                break;
+            case SYSTEM_UI:
+                plan.add(Step.UI_REFRESH, U.uiRefreshCommand(this, false));
+                plan.add(Step.UI_REFRESH_2, U.uiRefreshCommand2(this, shouldClearHome));
                 break;
-            case "activity-manager":
-            case "activity-manager-safe-mode":
-                su[uiRefreshCommand] = U.uiRefreshCommand(this, true);
+            case ACTIVITY_MANAGER:
+                plan.add(Step.UI_REFRESH, U.uiRefreshCommand(this, true));
 
-                // We run the superuser commands in a different order if this option is selected,
-                // so re-create the command array.
+                // The command plan runs the superuser commands in a different order if this option is selected.
                 // Remaining commands will be handled by the BootService
+                restartActivityManager = true;
+
                 if(cmWorkaround) {
-                    su[uiRefreshCommand] = su[uiRefreshCommand].replace('1', '5');
-                    su = new String[]{
-                            su[sizeCommand],
-                            su[overscanCommand],
-                            su[chromeCommand],
-                            su[chromeCommand2],
-                            su[immersiveCommand],
-                            su[freeformCommand],
-                            su[hdmiRotationCommand],
-                            su[navbarCommand],
-                            su[daydreamsCommand],
-                            su[daydreamsChargingCommand],
-                            su[stayOnCommand],
-                            su[showTouchesCommand],
-                            su[densityCommand],
-                            su[setHomeActivityCommand],
-                            su[uiRefreshCommand]};
-                } else
-                    su = new String[]{
-                            su[densityCommand],
-                            su[sizeCommand],
-                            su[overscanCommand],
-                            su[chromeCommand],
-                            su[chromeCommand2],
-                            su[immersiveCommand],
-                            su[freeformCommand],
-                            su[hdmiRotationCommand],
-                            su[navbarCommand],
-                            su[daydreamsCommand],
-                            su[daydreamsChargingCommand],
-                            su[stayOnCommand],
-                            su[showTouchesCommand],
-                            su[setHomeActivityCommand],
-                            su[uiRefreshCommand]};
+                    // The workaround needs a fixed delay, as there is nothing to wait on
+                    plan.add(Step.UI_REFRESH, Command.await(Signal.DELAY, 5000, Command.strip(plan.getCommand(Step.UI_REFRESH))));
+                    plan.runAfter(Step.DENSITY, Step.SHOW_TOUCHES);
+                }
                 break;
         }
 
         // Determine if we need to stop Taskbar
-        boolean shouldDisableFreeform = prefCurrent.getBoolean("freeform", false);
+        boolean shouldDisableFreeform = diff.turnsOff(Field.FREEFORM);
 
-        boolean shouldStopTaskbar = prefCurrent.getBoolean("taskbar", false);
+        boolean shouldStopTaskbar = diff.turnsOff(Field.TASKBAR);
 
-        // Clear preferences and commit (for reliability)
+        // Clear preferences, and add them to the journal entry before running any commands.
+        // The journal has everything needed to rebuild current.xml, so it can be written asynchronously.
         editor.clear();
-        editor.commit();
+        editor.apply();
+        StateJournal.getInstance().prepared(this, prefCurrent.getAll(), restartActivityManager || rebootRequired);
 
         // Clear quick_actions.xml
         SharedPreferences prefSaved = U.getPrefQuickActions(this);
-        SharedPreferences.Editor prefSavedEditor = prefSaved.edit();
-        prefSavedEditor.clear();
-        prefSavedEditor.commit();
+        if(!prefSaved.getAll().isEmpty()) {
+            SharedPreferences.Editor prefSavedEditor = prefSaved.edit();
+            prefSavedEditor.clear();
+            prefSavedEditor.apply();
+        }
 
         // Run superuser commands
-        U.runCommands(this, su, rebootRequired);
+        U.runCommands(this, plan.schedule(restartActivityManager), rebootRequired);
+        StateJournal.getInstance().complete(this);
 
         // Refresh list of profiles
         U.listProfilesBroadcast(this);
@@ -455,7 +458,8 @@ public final class TurnOffService extends SecondScreenIntentService {
             sendBroadcast(taskbarIntent);
         }
 
-        if(shouldDisableTaskbarHome && !(U.isInNonRootMode(this) && rebootRequired))
+        if((shouldDisableTaskbarHome || refreshConfiguration)
+                && !(U.isInNonRootMode(this) && rebootRequired))
             U.goHome(this);
 
         // Stop NotificationService
@@ -0,0 +1,186 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.farmerbb.secondscreen.support.NonRootUtils;
+
+import rikka.shizuku.Shizuku;
+
+// Caches what SecondScreen is allowed to do on this device: whether root access is available,
+// whether WRITE_SECURE_SETTINGS has been granted, and whether Shizuku is running.
+//
+// Checking for root means running a command through su, so instead of checking every time a
+// profile is loaded or turned off, the result is kept for a while.  The snapshot is marked stale
+// early whenever something happens that could change it: a package being installed, updated, or
+// removed (such as a root manager or Shizuku), the device booting, or a command failing.  A stale
+// snapshot is checked again in the background, and is still returned on the main thread until
+// the new one is ready, so that the main thread never waits on su.
+public final class Capabilities {
+
+    // How long a snapshot is trusted for
+    private static final long TTL = 300000;
+
+    public static final class Snapshot {
+        private final boolean root;
+        private final boolean writeSecureSettings;
+        private final boolean shizuku;
+        private final long takenAt;
+
+        private Snapshot(boolean root, boolean writeSecureSettings, boolean shizuku) {
+            this.root = root;
+            this.writeSecureSettings = writeSecureSettings;
+            this.shizuku = shizuku;
+            this.takenAt = SystemClock.elapsedRealtime();
+        }
+
+        public boolean hasRoot() {
+            return root;
+        }
+
+        public boolean canWriteSecureSettings() {
+            return writeSecureSettings;
+        }
+
+        // Shizuku can be used to grant WRITE_SECURE_SETTINGS (see UnableToStartActivity)
+        public boolean hasShizuku() {
+            return shizuku;
+        }
+
+        private boolean isExpired() {
+            return SystemClock.elapsedRealtime() - takenAt >= TTL;
+        }
+    }
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    private Snapshot snapshot;
+    private boolean stale = false;
+    private boolean refreshing = false;
+    private boolean receiverRegistered = false;
+
+    // The application context, for refreshing the snapshot in the background
+    private Context context;
+
+    private static Capabilities theInstance;
+
+    private Capabilities() {}
+
+    public static synchronized Capabilities getInstance() {
+        if(theInstance == null) theInstance = new Capabilities();
+
+        return theInstance;
+    }
+
+    // Returns the current snapshot, checking everything again if it has expired or gone stale.
+    // On the main thread, an expired or stale snapshot is still returned, and is refreshed in the
+    // background; everything is only checked there if there is no snapshot at all yet.
+    public Snapshot get(Context context) {
+        synchronized(this) {
+            if(snapshot != null && !stale && !snapshot.isExpired())
+                return snapshot;
+
+            if(snapshot != null && Looper.myLooper() == Looper.getMainLooper()) {
+                refreshInBackground();
+                return snapshot;
+            }
+        }
+
+        return refresh(context);
+    }
+
+    // Checks everything again right away, regardless of the current snapshot
+    public Snapshot recheck(Context context) {
+        return refresh(context);
+    }
+
+    private Snapshot refresh(Context context) {
+        registerReceiver(context);
+
+        synchronized(this) {
+            this.context = context.getApplicationContext();
+            stale = false;
+        }
+
+        // Checked outside of the lock, as the root check may take a while
+        Snapshot newSnapshot = new Snapshot(
+                Superuser.getInstance().available(true),
+                NonRootUtils.hasWriteSecureSettingsPermission(context),
+                hasShizuku());
+
+        synchronized(this) {
+            snapshot = newSnapshot;
+            refreshing = false;
+        }
+
+        return newSnapshot;
+    }
+
+    // Called while holding the lock
+    private void refreshInBackground() {
+        if(refreshing || context == null)
+            return;
+
+        refreshing = true;
+
+        final Context appContext = context;
+        new Thread(() -> refresh(appContext)).start();
+    }
+
+    // Marks the snapshot as stale, and checks everything again in the background
+    public synchronized void invalidate() {
+        stale = true;
+        refreshInBackground();
+    }
+
+    private void registerReceiver(Context context) {
+        synchronized(this) {
+            if(receiverRegistered)
+                return;
+
+            receiverRegistered = true;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+
+        context.getApplicationContext().registerReceiver(packageReceiver, filter);
+    }
+
+    private static boolean hasShizuku() {
+        try {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && Shizuku.pingBinder();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+}
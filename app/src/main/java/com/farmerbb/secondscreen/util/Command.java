@@ -0,0 +1,355 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.view.Display;
+
+// A command in structured form.  Producers (U.sizeCommand(), U.navbarCommand(), etc) build these
+// directly, so that the in-process backends (the settings provider and the window manager) can
+// apply them from their fields, without having to split a command line back apart.
+//
+// The shell text of a command is only rendered when a shell backend actually needs it (or when
+// it is logged), and is cached from then on.  Commands are never parsed back from their text;
+// anything without a structured form of its own is built as a plain shell command.
+public abstract class Command {
+
+    private String text;
+
+    private Command() {}
+
+    // Renders the command as a shell command line
+    abstract String render();
+
+    @Override
+    public final String toString() {
+        if(text == null)
+            text = render();
+
+        return text;
+    }
+
+    // Factories
+
+    public static Command settingsPut(String namespace, String key, String value) {
+        return new SettingsPut(namespace, key, value);
+    }
+
+    public static Command wmSize(String size, int displayID) {
+        return new WmSize(size, displayID);
+    }
+
+    public static Command wmDensity(String density, int displayID) {
+        return new WmDensity(density, displayID);
+    }
+
+    public static Command wmOverscan(String overscan, int displayID) {
+        return new WmOverscan(overscan, displayID);
+    }
+
+    public static Command sysfsWrite(String path, String value) {
+        return new SysfsWrite(path, value, 0);
+    }
+
+    // Writes the value after waiting for the given number of seconds
+    public static Command sysfsWrite(String path, String value, int delay) {
+        return new SysfsWrite(path, value, delay);
+    }
+
+    public static Command am(String args) {
+        return new AmCommand(args);
+    }
+
+    public static Command svcWifi(boolean enabled) {
+        return new SvcWifi(enabled);
+    }
+
+    public static Command setProp(String key, String value) {
+        return new SetProp(key, value);
+    }
+
+    public static Command shell(String text) {
+        return new Shell(text);
+    }
+
+    // Runs the command once the signal is received, or once the timeout (in milliseconds)
+    // elapses (see Readiness).  The command may be null, to just wait.
+    public static Command await(Readiness.Signal signal, long timeout, Command next) {
+        return new Await(new Readiness.Wait(signal, timeout), next);
+    }
+
+    // Returns the command without any wait in front of it
+    public static Command strip(Command command) {
+        while(command instanceof Await) {
+            command = ((Await) command).next;
+        }
+
+        return command;
+    }
+
+    // "settings put <namespace> <key> <value>"
+    public static final class SettingsPut extends Command {
+        private final String namespace;
+        private final String key;
+        private final String value;
+
+        private SettingsPut(String namespace, String key, String value) {
+            this.namespace = namespace;
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        String render() {
+            return "settings put " + namespace + " " + key + " " + value;
+        }
+    }
+
+    // "wm size", "wm density" and "wm overscan", optionally for a specific display.
+    // Values use the same format as the wm command ("1920x1080", "320", "0,0,0,0", or "reset").
+    public static abstract class WmCommand extends Command {
+        private final String value;
+        final int displayID;
+
+        private WmCommand(String value, int displayID) {
+            this.value = value;
+            this.displayID = displayID;
+        }
+
+        // "size", "density" or "overscan"
+        public abstract String getKind();
+
+        // Returns the same command with a different value
+        public abstract WmCommand withValue(String value);
+
+        public String getValue() {
+            return value;
+        }
+
+        public boolean hasDisplayID() {
+            return displayID != Display.INVALID_DISPLAY;
+        }
+
+        // The display the command applies to (the default display, if none was given)
+        public int getDisplayID() {
+            return hasDisplayID() ? displayID : Display.DEFAULT_DISPLAY;
+        }
+
+        // The wm command that reports the current value, without changing it
+        String getQuery() {
+            return "wm " + getKind() + (hasDisplayID() ? " -d " + displayID : "");
+        }
+
+        @Override
+        String render() {
+            return "wm " + getKind() + " " + value + (hasDisplayID() ? " -d " + displayID : "");
+        }
+    }
+
+    public static final class WmSize extends WmCommand {
+        private WmSize(String value, int displayID) {
+            super(value, displayID);
+        }
+
+        @Override
+        public String getKind() {
+            return "size";
+        }
+
+        @Override
+        public WmCommand withValue(String value) {
+            return new WmSize(value, displayID);
+        }
+    }
+
+    public static final class WmDensity extends WmCommand {
+        private WmDensity(String value, int displayID) {
+            super(value, displayID);
+        }
+
+        @Override
+        public String getKind() {
+            return "density";
+        }
+
+        @Override
+        public WmCommand withValue(String value) {
+            return new WmDensity(value, displayID);
+        }
+    }
+
+    public static final class WmOverscan extends WmCommand {
+        private WmOverscan(String value, int displayID) {
+            super(value, displayID);
+        }
+
+        @Override
+        public String getKind() {
+            return "overscan";
+        }
+
+        @Override
+        public WmCommand withValue(String value) {
+            return new WmOverscan(value, displayID);
+        }
+    }
+
+    // "echo <value> > <path>", optionally after sleeping for a number of seconds
+    public static final class SysfsWrite extends Command {
+        private final String path;
+        private final String value;
+        private final int delay;
+
+        private SysfsWrite(String path, String value, int delay) {
+            this.path = path;
+            this.value = value;
+            this.delay = delay;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getDelay() {
+            return delay;
+        }
+
+        // Returns the same write, made after waiting for the given number of seconds
+        public SysfsWrite withDelay(int delay) {
+            return new SysfsWrite(path, value, delay);
+        }
+
+        @Override
+        String render() {
+            String write = "echo " + value + " > " + path;
+            return delay > 0 ? "sleep " + delay + " && " + write : write;
+        }
+    }
+
+    // "am <args>"
+    public static final class AmCommand extends Command {
+        private final String args;
+
+        private AmCommand(String args) {
+            this.args = args;
+        }
+
+        public String getArgs() {
+            return args;
+        }
+
+        @Override
+        String render() {
+            return "am " + args;
+        }
+    }
+
+    // "svc wifi enable" or "svc wifi disable"
+    public static final class SvcWifi extends Command {
+        private final boolean enabled;
+
+        private SvcWifi(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        String render() {
+            return "svc wifi " + (enabled ? "enable" : "disable");
+        }
+    }
+
+    // "setprop <key> <value>"
+    public static final class SetProp extends Command {
+        private final String key;
+        private final String value;
+
+        private SetProp(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        String render() {
+            return "setprop " + key + " " + value;
+        }
+    }
+
+    // Any other command line, run through the root shell as-is
+    public static final class Shell extends Command {
+        private final String command;
+
+        private Shell(String command) {
+            this.command = command;
+        }
+
+        @Override
+        String render() {
+            return command;
+        }
+    }
+
+    // A command that runs once a readiness signal is received (see Readiness)
+    public static final class Await extends Command {
+        private final Readiness.Wait wait;
+        private final Command next;
+
+        private Await(Readiness.Wait wait, Command next) {
+            this.wait = wait;
+            this.next = next;
+        }
+
+        Readiness.Wait getWait() {
+            return wait;
+        }
+
+        // The command to run after waiting (may itself be another wait), or null if there isn't one
+        public Command getNext() {
+            return next;
+        }
+
+        @Override
+        String render() {
+            return next == null ? wait.getDescription() : wait.getDescription() + " && " + next;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.farmerbb.secondscreen.util;
 
 import android.content.Context;
 import android.content.Intent;
+import android.text.TextUtils;
 
 import com.farmerbb.secondscreen.BuildConfig;
 
@@ -59,9 +60,20 @@ public class CommandDispatcher {
             if(screenOrientation != -1)
                 intent.putExtra("screen_orientation", screenOrientation);
 
+            long start = CommandTrace.now();
             context.sendBroadcast(intent);
+
+            // The support library runs the commands on its own, so only the hand-off is timed
+            if(!commands.isEmpty())
+                CommandTrace.getInstance().recordSince(CommandTrace.Backend.SUPPORT_LIBRARY,
+                        TextUtils.join("; ", commands), start, true, null);
         }
 
         theInstance = null;
     }
+
+    // Drops the queued commands without sending them
+    void discard() {
+        theInstance = null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Collects the commands needed to load or turn off a profile as a set of named steps, and then
+// schedules them into a single ordered batch.  Services fill in whichever steps they need;
+// steps that are never added (or are added with an empty command) never reach the shell.
+//
+// By default, steps run in the order they are declared below.  Individual steps can be
+// constrained to run after other steps, and when the ActivityManager is being restarted,
+// the scheduler uses each step's phase to decide what runs and in what order.
+public final class CommandPlan {
+
+    public enum Phase {
+        // Applied before the UI is refreshed
+        PRE_REFRESH,
+
+        // Refreshes the UI so that earlier steps take effect
+        REFRESH,
+
+        // Applied after the UI is refreshed (or just before it, if the ActivityManager is restarted)
+        POST_REFRESH,
+
+        // Skipped when the ActivityManager is restarted; the BootService takes care of these instead
+        DEFERRED_TO_BOOT
+    }
+
+    public enum Step {
+        WIFI(Phase.PRE_REFRESH),
+        DENSITY(Phase.PRE_REFRESH),
+        SIZE(Phase.PRE_REFRESH),
+        OVERSCAN(Phase.PRE_REFRESH),
+        ROTATION_PRE(Phase.DEFERRED_TO_BOOT),
+        ROTATION(Phase.DEFERRED_TO_BOOT),
+        ROTATION_POST(Phase.DEFERRED_TO_BOOT),
+        CHROME(Phase.PRE_REFRESH),
+        CHROME_2(Phase.PRE_REFRESH),
+        IMMERSIVE(Phase.PRE_REFRESH),
+        FREEFORM(Phase.PRE_REFRESH),
+        HDMI_ROTATION(Phase.PRE_REFRESH),
+        NAVBAR(Phase.PRE_REFRESH),
+        DAYDREAMS(Phase.PRE_REFRESH),
+        DAYDREAMS_CHARGING(Phase.PRE_REFRESH),
+        SAFE_MODE_DENSITY(Phase.DEFERRED_TO_BOOT),
+        SAFE_MODE_SIZE(Phase.DEFERRED_TO_BOOT),
+        UI_REFRESH(Phase.REFRESH),
+        UI_REFRESH_2(Phase.REFRESH, true),
+        STAY_ON(Phase.POST_REFRESH),
+        SHOW_TOUCHES(Phase.POST_REFRESH),
+        VIBRATION(Phase.DEFERRED_TO_BOOT),
+        BACKLIGHT(Phase.DEFERRED_TO_BOOT),
+        SET_HOME_ACTIVITY(Phase.POST_REFRESH);
+
+        private final Phase phase;
+
+        // Steps that only follow up on another step, and are redundant
+        // once the ActivityManager is restarted
+        private final boolean redundantOnRestart;
+
+        Step(Phase phase) {
+            this(phase, false);
+        }
+
+        Step(Phase phase, boolean redundantOnRestart) {
+            this.phase = phase;
+            this.redundantOnRestart = redundantOnRestart;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+    }
+
+    private final Map<Step, Command> commands = new EnumMap<>(Step.class);
+    private final Map<Step, Set<Step>> predecessors = new EnumMap<>(Step.class);
+
+    // Sets the command for a step, replacing any command previously set for it.
+    // Null commands remove the step from the plan.
+    public void add(Step step, Command command) {
+        if(command == null)
+            commands.remove(step);
+        else
+            commands.put(step, command);
+    }
+
+    // Returns the command set for a step as text, or an empty string if there isn't one
+    public String get(Step step) {
+        Command command = commands.get(step);
+        return command == null ? "" : command.toString();
+    }
+
+    // Returns the command set for a step, or null if there isn't one
+    public Command getCommand(Step step) {
+        return commands.get(step);
+    }
+
+    // True if the command is the one set for a step that refreshes the UI
+    public boolean isRefresh(Command command) {
+        for(Map.Entry<Step, Command> entry : commands.entrySet()) {
+            if(entry.getKey().phase == Phase.REFRESH && entry.getValue() == command)
+                return true;
+        }
+
+        return false;
+    }
+
+    public boolean has(Step step) {
+        return commands.containsKey(step);
+    }
+
+    public void remove(Step step) {
+        commands.remove(step);
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    // Requires a step to run after the given steps, if they are part of the plan
+    public void runAfter(Step step, Step... steps) {
+        Set<Step> set = predecessors.get(step);
+        if(set == null) {
+            set = EnumSet.noneOf(Step.class);
+            predecessors.put(step, set);
+        }
+
+        Collections.addAll(set, steps);
+    }
+
+    // Turns the plan into an ordered list of commands.
+    //
+    // If the ActivityManager is being restarted, nothing can run after the refresh, so refresh
+    // steps are moved to the very end, and steps that are redundant or deferred to boot are dropped.
+    public Command[] schedule(boolean restartActivityManager) {
+        List<Step> pending = new ArrayList<>();
+        for(Step step : commands.keySet()) {
+            if(!restartActivityManager
+                    || (step.phase != Phase.DEFERRED_TO_BOOT && !step.redundantOnRestart))
+                pending.add(step);
+        }
+
+        List<Command> scheduled = new ArrayList<>(pending.size());
+
+        while(!pending.isEmpty()) {
+            Step next = null;
+
+            // Steps are kept in declaration order, so the first ready step is the one to run next
+            for(Step step : pending) {
+                if(isReady(step, pending, restartActivityManager)) {
+                    next = step;
+                    break;
+                }
+            }
+
+            // Conflicting constraints; fall back to declaration order
+            if(next == null)
+                next = pending.get(0);
+
+            pending.remove(next);
+            scheduled.add(commands.get(next));
+        }
+
+        return scheduled.toArray(new Command[scheduled.size()]);
+    }
+
+    private boolean isReady(Step step, List<Step> pending, boolean restartActivityManager) {
+        for(Step other : pending) {
+            if(other == step)
+                continue;
+
+            if(restartActivityManager
+                    && step.phase == Phase.REFRESH
+                    && other.phase != Phase.REFRESH)
+                return false;
+        }
+
+        Set<Step> set = predecessors.get(step);
+        if(set != null) {
+            for(Step predecessor : set) {
+                if(pending.contains(predecessor))
+                    return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,63 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import java.util.Collections;
+import java.util.List;
+
+// Holds the outcome of a single command run through a root shell session: the command itself,
+// its exit code, any output (stdout and stderr combined), and how long it took to run.
+public final class CommandResult {
+
+    private final String command;
+    private final int exitCode;
+    private final List<String> output;
+    private final long duration;
+
+    CommandResult(String command, int exitCode, List<String> output) {
+        this(command, exitCode, output, 0);
+    }
+
+    CommandResult(String command, int exitCode, List<String> output, long duration) {
+        this.command = command;
+        this.exitCode = exitCode;
+        this.output = output == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(output);
+        this.duration = duration;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getOutput() {
+        return output;
+    }
+
+    // In microseconds
+    public long getDuration() {
+        return duration;
+    }
+
+    public boolean isSuccessful() {
+        return exitCode == 0;
+    }
+}
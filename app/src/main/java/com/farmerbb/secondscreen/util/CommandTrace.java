@@ -0,0 +1,255 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// Records how every command was run: which backend ran it, how long it took, and whether it
+// worked.  Each background job (profile load, turn-off, etc) is recorded as well, so that the time
+// a whole dock transition took can be compared against the steps it was made up of.
+//
+// Records are kept in memory in a fixed-size ring buffer, so the oldest ones are dropped once it is
+// full.  They can be exported as a tab-separated file from the debug mode menu.
+public final class CommandTrace {
+
+    private static final String TAG = "SecondScreen";
+
+    // Maximum number of records kept
+    private static final int CAPACITY = 512;
+
+    public enum Backend {
+        // Run through the pooled root shell
+        ROOT_SHELL,
+
+        // Written directly through the settings provider
+        SETTINGS_PROVIDER,
+
+        // Applied directly through the window manager (via reflection)
+        WINDOW_MANAGER,
+
+        // Applied through another system API (such as WifiManager)
+        SYSTEM_API,
+
+        // Sent to the support library to be run
+        SUPPORT_LIBRARY,
+
+        // Waiting on a readiness signal (see Readiness)
+        WAIT,
+
+        // A whole background job, from start to finish
+        JOB
+    }
+
+    public static final class Record {
+        private final long time;
+        private final String operation;
+        private final Backend backend;
+        private final String command;
+        private final long duration;
+        private final int exitCode;
+        private final String error;
+
+        private Record(String operation, Backend backend, String command, long duration, int exitCode, String error) {
+            this.time = System.currentTimeMillis();
+            this.operation = operation;
+            this.backend = backend;
+            this.command = command;
+            this.duration = duration;
+            this.exitCode = exitCode;
+            this.error = error;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public Backend getBackend() {
+            return backend;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getCommandClass() {
+            return classify(command);
+        }
+
+        // In microseconds
+        public long getDuration() {
+            return duration;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final Record[] buffer = new Record[CAPACITY];
+    private int next = 0;
+    private int size = 0;
+
+    // The job currently running, if any, and when it was started
+    private String operation;
+    private long operationStart;
+    private int operationRecords;
+
+    private static CommandTrace theInstance;
+
+    private CommandTrace() {}
+
+    public static synchronized CommandTrace getInstance() {
+        if(theInstance == null) theInstance = new CommandTrace();
+
+        return theInstance;
+    }
+
+    // Returns the current time, for passing to recordSince() once a command has finished
+    public static long now() {
+        return System.nanoTime() / 1000;
+    }
+
+    // Records a command that was started at the given time (see now()) and has just finished
+    public void recordSince(Backend backend, String command, long start, boolean success, String error) {
+        record(backend, command, now() - start, success ? 0 : 1, success ? null : error);
+    }
+
+    // Records a command that took the given number of microseconds
+    public synchronized void record(Backend backend, String command, long duration, int exitCode, String error) {
+        buffer[next] = new Record(operation, backend, command, duration, exitCode, error);
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+        operationRecords++;
+    }
+
+    void record(CommandResult result) {
+        String error = null;
+        if(!result.isSuccessful()) {
+            List<String> output = result.getOutput();
+            error = output.isEmpty() ? null : output.get(output.size() - 1);
+        }
+
+        record(Backend.ROOT_SHELL, result.getCommand(), result.getDuration(), result.getExitCode(), error);
+    }
+
+    // Called by the JobRunner around each job
+    public synchronized void beginOperation(String name) {
+        operation = name;
+        operationStart = now();
+        operationRecords = 0;
+    }
+
+    public void endOperation() {
+        String name;
+        long duration;
+        Record slowest = null;
+
+        synchronized(this) {
+            name = operation;
+            duration = now() - operationStart;
+
+            for(int i = 0; i < Math.min(operationRecords, size); i++) {
+                Record record = buffer[(next - 1 - i + CAPACITY) % CAPACITY];
+                if(slowest == null || record.duration > slowest.duration)
+                    slowest = record;
+            }
+
+            record(Backend.JOB, name, duration, 0, null);
+            operation = null;
+        }
+
+        if(slowest != null)
+            Log.i(TAG, name + " took " + duration / 1000 + " ms; slowest step: "
+                    + slowest.getCommandClass() + " (" + slowest.backend + ", " + slowest.duration / 1000 + " ms)");
+    }
+
+    // Returns the records, oldest first
+    public synchronized List<Record> getRecords() {
+        List<Record> records = new ArrayList<>(size);
+        for(int i = size; i > 0; i--) {
+            records.add(buffer[(next - i + CAPACITY) % CAPACITY]);
+        }
+
+        return records;
+    }
+
+    // Writes the records out as a tab-separated file.  Returns false if it couldn't be written.
+    public boolean export(File file) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("time\toperation\tbackend\tclass\tduration_us\texit_code\tcommand\terror\n");
+
+        for(Record record : getRecords()) {
+            builder.append(format.format(new Date(record.time))).append("\t")
+                    .append(sanitize(record.operation)).append("\t")
+                    .append(record.backend).append("\t")
+                    .append(record.getCommandClass()).append("\t")
+                    .append(record.duration).append("\t")
+                    .append(record.exitCode).append("\t")
+                    .append(sanitize(record.command)).append("\t")
+                    .append(sanitize(record.error)).append("\n");
+        }
+
+        try {
+            OutputStream os = new FileOutputStream(file);
+            os.write(builder.toString().getBytes());
+            os.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Reduces a command to what kind of command it is, without its arguments
+    // ("settings put secure", "wm size", "am broadcast", "echo", etc)
+    static String classify(String command) {
+        if(command == null)
+            return "";
+
+        String[] args = command.split(" ");
+        switch(args[0]) {
+            case "settings":
+                return args.length >= 3 ? args[0] + " " + args[1] + " " + args[2] : command;
+            case "wm":
+            case "am":
+            case "svc":
+            case "cmd":
+            case "await":
+                return args.length >= 2 ? args[0] + " " + args[1] : command;
+            default:
+                return args[0];
+        }
+    }
+
+    private static String sanitize(String text) {
+        return text == null ? "" : text.replace('\t', ' ').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,193 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Single shared listener for display events, used by both the DisplayConnectionService and the
+// NotificationService.
+//
+// Display events are received on a background thread and debounced: a burst of added, removed,
+// and changed events (such as a flaky HDMI connection bouncing a few times while being plugged in)
+// is coalesced into a single transition, which is only reported once the displays have settled.
+// A display that keeps reporting changes (such as refresh rate or HDR switches) can only hold back
+// the transition for so long.  Subscribers are notified on the main thread.
+//
+// Only external displays count (see DisplayTopology), so virtual displays created by screen
+// recorders or cast sessions don't cause a connect or disconnect.
+public final class DisplayEventHub {
+
+    public interface Listener {
+        // An external display is now connected, where none was before
+        void onDisplayConnected();
+
+        // The last external display has been disconnected
+        void onDisplayDisconnected();
+    }
+
+    // How long displays need to go without any events to be considered settled
+    private static final long SETTLE_DELAY = 750;
+
+    // The longest a burst of events can delay the transition, measured from its first event
+    private static final long MAX_SETTLE_DELAY = 3000;
+
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Context context;
+    private DisplayManager dm;
+    private DisplayTopology topology;
+    private HandlerThread thread;
+    private Handler handler;
+
+    // Whether an external display was connected as of the last settled state
+    private boolean connected;
+
+    // When the first event of the current burst was received, or 0 if there is no burst
+    private long burstStart = 0;
+
+    private final Runnable settle = this::settle;
+
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+            // Get a head start on loading a profile, while the display is still settling.
+            // Virtual displays (screen recorders, cast sessions) aren't worth preparing for.
+            if(!connected) {
+                topology.update(displayId);
+                if(topology.hasExternalSink())
+                    WarmStart.getInstance().prepare(context);
+            }
+
+            onDisplayEvent();
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            onDisplayEvent();
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+            onDisplayEvent();
+        }
+    };
+
+    private static DisplayEventHub theInstance;
+
+    private DisplayEventHub() {}
+
+    public static DisplayEventHub getInstance() {
+        if(theInstance == null) theInstance = new DisplayEventHub();
+
+        return theInstance;
+    }
+
+    public synchronized void subscribe(Context context, Listener listener) {
+        if(listeners.contains(listener))
+            return;
+
+        listeners.add(listener);
+
+        if(thread == null) {
+            this.context = context.getApplicationContext();
+            dm = (DisplayManager) this.context.getSystemService(Context.DISPLAY_SERVICE);
+
+            thread = new HandlerThread("DisplayEventHub");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+
+            topology = DisplayTopology.getInstance(this.context);
+            connected = isExternalDisplayConnected();
+            dm.registerDisplayListener(displayListener, handler);
+        }
+    }
+
+    public synchronized void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+
+        if(listeners.isEmpty() && thread != null) {
+            dm.unregisterDisplayListener(displayListener);
+            handler.removeCallbacks(settle);
+            thread.quitSafely();
+            burstStart = 0;
+
+            thread = null;
+            handler = null;
+        }
+    }
+
+    // Called on the hub thread; restarts the settle timer on every event in a burst,
+    // up to MAX_SETTLE_DELAY after the first one
+    private void onDisplayEvent() {
+        synchronized(this) {
+            if(handler == null)
+                return;
+
+            long now = SystemClock.uptimeMillis();
+            if(burstStart == 0)
+                burstStart = now;
+
+            handler.removeCallbacks(settle);
+            handler.postDelayed(settle, Math.max(0, Math.min(SETTLE_DELAY, burstStart + MAX_SETTLE_DELAY - now)));
+        }
+    }
+
+    private void settle() {
+        final List<Listener> toNotify;
+        final boolean nowConnected;
+
+        synchronized(this) {
+            if(handler == null)
+                return;
+
+            burstStart = 0;
+            nowConnected = isExternalDisplayConnected();
+            if(nowConnected == connected)
+                return;
+
+            connected = nowConnected;
+            toNotify = new ArrayList<>(listeners);
+        }
+
+        mainHandler.post(() -> {
+            for(Listener listener : toNotify) {
+                // Skip subscribers that have gone away in the meantime
+                synchronized(DisplayEventHub.this) {
+                    if(!listeners.contains(listener))
+                        continue;
+                }
+
+                if(nowConnected)
+                    listener.onDisplayConnected();
+                else
+                    listener.onDisplayDisconnected();
+            }
+        });
+    }
+
+    private boolean isExternalDisplayConnected() {
+        return topology.hasExternalSink();
+    }
+}
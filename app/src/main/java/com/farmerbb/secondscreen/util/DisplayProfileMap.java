@@ -0,0 +1,131 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Remembers which profile to load for each external display, so that docking into a given TV or
+// monitor always loads the profile that was picked for it, without showing the list of profiles.
+//
+// A display is identified by its fingerprints: its unique id (derived from the EDID on HDMI
+// displays) if the device reports one, and a combination of its name and supported modes, which
+// is used as a fallback on devices where the unique id isn't available or isn't stable.
+//
+// Mappings are stored in their own preferences file, and are kept in memory as a table keyed by
+// fingerprint, so resolving a display is a single lookup per fingerprint.
+public final class DisplayProfileMap {
+
+    private static final String FILENAME = "display_profiles";
+
+    private Map<String, String> table;
+
+    private static DisplayProfileMap theInstance;
+
+    private DisplayProfileMap() {}
+
+    public static DisplayProfileMap getInstance() {
+        if(theInstance == null) theInstance = new DisplayProfileMap();
+
+        return theInstance;
+    }
+
+    // Returns the filename of the profile mapped to the connected external display,
+    // or null if there is no display connected, or no (existing) profile mapped to it
+    public synchronized String resolve(Context context) {
+        DisplayTopology.Descriptor display = DisplayTopology.getInstance(context).getExternalSink();
+        if(display == null)
+            return null;
+
+        load(context);
+
+        for(String fingerprint : getFingerprints(display)) {
+            String filename = table.get(fingerprint);
+            if(filename != null && U.profileExists(context, filename))
+                return filename;
+        }
+
+        return null;
+    }
+
+    // Maps the connected external display to the given profile
+    public synchronized void assign(Context context, String filename) {
+        DisplayTopology.Descriptor display = DisplayTopology.getInstance(context).getExternalSink();
+        if(display == null)
+            return;
+
+        load(context);
+
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        for(String fingerprint : getFingerprints(display)) {
+            table.put(fingerprint, filename);
+            editor.putString(fingerprint, filename);
+        }
+
+        editor.apply();
+    }
+
+    // Called by the ProfileStore whenever a profile is deleted
+    synchronized void removeProfile(Context context, String filename) {
+        load(context);
+
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        boolean changed = false;
+
+        for(String fingerprint : new ArrayList<>(table.keySet())) {
+            if(filename.equals(table.get(fingerprint))) {
+                table.remove(fingerprint);
+                editor.remove(fingerprint);
+                changed = true;
+            }
+        }
+
+        if(changed)
+            editor.apply();
+    }
+
+    private void load(Context context) {
+        if(table != null)
+            return;
+
+        table = new HashMap<>();
+
+        for(Map.Entry<String, ?> entry : getPrefs(context).getAll().entrySet()) {
+            if(entry.getValue() instanceof String)
+                table.put(entry.getKey(), (String) entry.getValue());
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(FILENAME, Context.MODE_PRIVATE);
+    }
+
+    private static List<String> getFingerprints(DisplayTopology.Descriptor display) {
+        List<String> fingerprints = new ArrayList<>(2);
+
+        if(display.getUniqueId() != null)
+            fingerprints.add("id:" + display.getUniqueId());
+
+        fingerprints.add("name:" + display.getName() + "|" + TextUtils.join(",", display.getModes()));
+        return fingerprints;
+    }
+}
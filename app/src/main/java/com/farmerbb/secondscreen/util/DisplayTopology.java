@@ -0,0 +1,293 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.view.Display;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Cached view of the displays attached to the device, kept up to date from display callbacks.
+//
+// Looking up the external display used to mean calling DisplayManager.getDisplays() and taking
+// the last display in the array, which picks the wrong display as soon as a virtual display (such
+// as a screen recorder) or a cast display is present.  Instead, each display is described once
+// when it is added or changed, and the external display (the "sink") is worked out ahead of time,
+// so that looking it up is just a field read.
+public final class DisplayTopology {
+
+    // Values of the hidden Display.TYPE_* constants
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_INTERNAL = 1;
+    public static final int TYPE_EXTERNAL = 2;
+    public static final int TYPE_WIFI = 3;
+    public static final int TYPE_OVERLAY = 4;
+    public static final int TYPE_VIRTUAL = 5;
+
+    private static final String DESKTOP_MODE_SETTING = "force_desktop_mode_on_external_displays";
+
+    public static final class Descriptor {
+        private final int id;
+        private final int type;
+        private final int flags;
+        private final String name;
+        private final String ownerPackageName;
+        private final String uniqueId;
+        private final int width;
+        private final int height;
+        private final int densityDpi;
+        private final Set<String> modes;
+
+        private Descriptor(Display display) {
+            DisplayMetrics metrics = new DisplayMetrics();
+            display.getRealMetrics(metrics);
+
+            id = display.getDisplayId();
+            flags = display.getFlags();
+            name = display.getName();
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+            densityDpi = metrics.densityDpi;
+
+            Set<String> supportedModes = new TreeSet<>();
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                for(Display.Mode mode : display.getSupportedModes()) {
+                    supportedModes.add(mode.getPhysicalWidth() + "x" + mode.getPhysicalHeight()
+                            + "@" + Math.round(mode.getRefreshRate()));
+                }
+            }
+
+            modes = Collections.unmodifiableSet(supportedModes);
+
+            Object value = invokeHidden(display, "getType");
+            type = value instanceof Integer ? (Integer) value : TYPE_UNKNOWN;
+
+            value = invokeHidden(display, "getOwnerPackageName");
+            ownerPackageName = value instanceof String ? (String) value : null;
+
+            value = invokeHidden(display, "getUniqueId");
+            uniqueId = value instanceof String ? (String) value : null;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // The package that created this display, for virtual displays; null otherwise
+        public String getOwnerPackageName() {
+            return ownerPackageName;
+        }
+
+        // Stays the same for a given physical display across connections (derived from the EDID
+        // for HDMI displays), unlike the display id, which changes every time it is connected.
+        // May be null on devices that don't report it.
+        public String getUniqueId() {
+            return uniqueId;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getDensityDpi() {
+            return densityDpi;
+        }
+
+        // Supported modes as "widthxheight@refreshrate", sorted; empty before 6.0
+        public Set<String> getModes() {
+            return modes;
+        }
+
+        // True for a physical (or simulated) display that SecondScreen can drive:
+        // not the built-in display, and not a virtual or cast display
+        public boolean isExternalSink() {
+            if(id == Display.DEFAULT_DISPLAY || ownerPackageName != null)
+                return false;
+
+            if((flags & Display.FLAG_PRIVATE) != 0)
+                return false;
+
+            switch(type) {
+                case TYPE_EXTERNAL:
+                case TYPE_OVERLAY:
+                    return true;
+                case TYPE_UNKNOWN:
+                    // Couldn't read the type; the checks above will have to do
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private final SparseArray<Descriptor> displays = new SparseArray<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private DisplayManager dm;
+    private ContentResolver resolver;
+    private Descriptor externalSink;
+    private Boolean desktopModeEnabled;
+
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+            update(displayId);
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            update(displayId);
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+            synchronized(DisplayTopology.this) {
+                displays.remove(displayId);
+                findExternalSink();
+            }
+        }
+    };
+
+    private final ContentObserver desktopModeObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            synchronized(DisplayTopology.this) {
+                desktopModeEnabled = null;
+            }
+        }
+    };
+
+    private static DisplayTopology theInstance;
+
+    private DisplayTopology() {}
+
+    public static synchronized DisplayTopology getInstance(Context context) {
+        if(theInstance == null) {
+            theInstance = new DisplayTopology();
+            theInstance.init(context.getApplicationContext());
+        }
+
+        return theInstance;
+    }
+
+    // The listener and observer are registered for the lifetime of the process
+    private void init(Context context) {
+        dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        resolver = context.getContentResolver();
+
+        synchronized(this) {
+            for(Display display : dm.getDisplays()) {
+                displays.put(display.getDisplayId(), new Descriptor(display));
+            }
+
+            findExternalSink();
+        }
+
+        dm.registerDisplayListener(displayListener, handler);
+        resolver.registerContentObserver(Settings.Global.getUriFor(DESKTOP_MODE_SETTING), false, desktopModeObserver);
+    }
+
+    // Returns the external display, or null if none is connected
+    public synchronized Descriptor getExternalSink() {
+        return externalSink;
+    }
+
+    public synchronized boolean hasExternalSink() {
+        return externalSink != null;
+    }
+
+    // Returns the descriptor for the given display id, or null if there is no such display
+    public synchronized Descriptor getDisplay(int displayId) {
+        return displays.get(displayId);
+    }
+
+    public synchronized boolean isDesktopModeEnabled() {
+        if(desktopModeEnabled == null) {
+            try {
+                desktopModeEnabled = Settings.Global.getInt(resolver, DESKTOP_MODE_SETTING) == 1;
+            } catch (Settings.SettingNotFoundException e) {
+                desktopModeEnabled = false;
+            }
+        }
+
+        return desktopModeEnabled;
+    }
+
+    // Describes the display again right away, for callers that receive display events on
+    // another thread, and can't wait for the listener here to catch up
+    void update(int displayId) {
+        Display display = dm.getDisplay(displayId);
+
+        synchronized(this) {
+            if(display == null)
+                displays.remove(displayId);
+            else
+                displays.put(displayId, new Descriptor(display));
+
+            findExternalSink();
+        }
+    }
+
+    // Prefers a real (HDMI or USB) display over a simulated one; if there is more than one,
+    // the most recently connected one (the highest id) wins
+    private void findExternalSink() {
+        Descriptor sink = null;
+
+        for(int i = 0; i < displays.size(); i++) {
+            Descriptor descriptor = displays.valueAt(i);
+            if(!descriptor.isExternalSink())
+                continue;
+
+            if(sink == null
+                    || (descriptor.type == TYPE_EXTERNAL && sink.type != TYPE_EXTERNAL)
+                    || (descriptor.type == sink.type && descriptor.id > sink.id))
+                sink = descriptor;
+        }
+
+        externalSink = sink;
+    }
+
+    private static Object invokeHidden(Display display, String methodName) {
+        try {
+            return Display.class.getMethod(methodName).invoke(display);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
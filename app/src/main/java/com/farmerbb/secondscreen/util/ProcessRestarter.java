@@ -0,0 +1,163 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Process;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Kills the background processes that are left holding a stale configuration after the display
+// size or density has changed, as part of the "Restart SystemUI" UI refresh.
+//
+// Only processes that are actually running are touched (instead of every installed package),
+// and a few processes that are needed right after docking are always kept alive.
+final class ProcessRestarter {
+
+    private static final String TAG = "SecondScreen";
+
+    // Packages that are never killed as part of a UI refresh
+    private static final List<String> PRESERVED_PACKAGES = Arrays.asList(
+            "android",
+            "com.android.systemui", // Restarted separately
+            "com.android.phone",
+            "com.android.bluetooth",
+            "com.android.nfc",
+            "com.google.android.gms"
+    );
+
+    private ProcessRestarter() {}
+
+    // Returns the number of packages whose background processes were killed
+    static int killStaleProcesses(Context context, String launcherPackageName) {
+        Set<String> preserved = getPreservedPackages(context, launcherPackageName);
+        Set<String> candidates = getRunningPackages(context);
+        String source = "running processes";
+
+        // Fall back to every installed package if the running processes can't be determined
+        if(candidates == null) {
+            candidates = new HashSet<>();
+            source = "installed packages";
+
+            for(ApplicationInfo info : context.getPackageManager().getInstalledApplications(0)) {
+                candidates.add(info.packageName);
+            }
+        }
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int killed = 0;
+
+        for(String packageName : candidates) {
+            if(!preserved.contains(packageName)) {
+                am.killBackgroundProcesses(packageName);
+                killed++;
+            }
+        }
+
+        Log.i(TAG, "UI refresh: killed " + killed + " of " + candidates.size() + " " + source);
+        return killed;
+    }
+
+    private static Set<String> getPreservedPackages(Context context, String launcherPackageName) {
+        Set<String> preserved = new HashSet<>(PRESERVED_PACKAGES);
+        preserved.add(context.getPackageName());
+
+        // The launcher is force-stopped separately
+        if(launcherPackageName != null)
+            preserved.add(launcherPackageName);
+
+        String taskbarPackageName = U.getTaskbarPackageName(context);
+        if(taskbarPackageName != null)
+            preserved.add(taskbarPackageName);
+
+        // Keep the keyboard around, as it is needed right away on the external display
+        String inputMethod = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.DEFAULT_INPUT_METHOD);
+        if(inputMethod != null && inputMethod.contains("/"))
+            preserved.add(inputMethod.substring(0, inputMethod.indexOf('/')));
+
+        return preserved;
+    }
+
+    // Returns the packages that currently have a background process running,
+    // or null if this can't be determined
+    private static Set<String> getRunningPackages(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+
+        // Starting with 5.1.1, apps can only see their own processes here
+        boolean canSeeOtherProcesses = false;
+        Set<String> packages = new HashSet<>();
+
+        if(processes != null) {
+            for(ActivityManager.RunningAppProcessInfo process : processes) {
+                if(process.uid == Process.myUid())
+                    continue;
+
+                canSeeOtherProcesses = true;
+
+                // Foreground and perceptible processes can't be killed this way anyway
+                if(process.importance > ActivityManager.RunningAppProcessInfo.IMPORTANCE_PERCEPTIBLE
+                        && process.pkgList != null)
+                    Collections.addAll(packages, process.pkgList);
+            }
+        }
+
+        if(canSeeOtherProcesses)
+            return packages;
+
+        return getRunningPackagesAsRoot(context);
+    }
+
+    // Lists processes using the (already warm) root shell
+    private static Set<String> getRunningPackagesAsRoot(Context context) {
+        if(U.isInNonRootMode(context)
+                || U.getPrefMain(context).getBoolean("debug_mode", false)
+                || !Superuser.getInstance().available())
+            return null;
+
+        String command = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? "ps -A -o NAME" : "ps";
+        List<CommandResult> results = Superuser.getInstance().run(new String[]{command});
+
+        if(results.isEmpty() || !results.get(0).isSuccessful())
+            return null;
+
+        Set<String> packages = new HashSet<>();
+
+        for(String line : results.get(0).getOutput()) {
+            String[] columns = line.trim().split("\\s+");
+            String name = columns[columns.length - 1];
+
+            // Strip the suffix of secondary processes ("com.example.app:remote")
+            if(name.contains(":"))
+                name = name.substring(0, name.indexOf(':'));
+
+            // Skip native daemons, kernel threads, and HALs
+            if(name.contains(".") && !name.contains("/") && !name.contains("@") && !name.startsWith("["))
+                packages.add(name);
+        }
+
+        return packages;
+    }
+}
@@ -0,0 +1,167 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.farmerbb.secondscreen.R;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Immutable snapshot of the settings of a profile, parsed once from either a saved profile or
+// from current.xml (the profile that is currently active).  Every field has exactly one key
+// and one default value, so both sides of a comparison always agree on what "unset" means.
+public final class Profile {
+
+    public enum Field {
+        PROFILE_NAME("profile_name", ""),
+        SIZE("size", "reset"),
+        DENSITY("density", "reset"),
+        SCREEN_TIMEOUT("screen_timeout", "do-nothing"),
+        HDMI_ROTATION("hdmi_rotation", "landscape"),
+        ROTATION_LOCK("rotation_lock_new", "do-nothing"),
+        IMMERSIVE("immersive_new", "do-nothing"),
+        VIBRATION_OFF("vibration_off", false),
+        BACKLIGHT_OFF("backlight_off", false),
+        OVERSCAN("overscan", false),
+        OVERSCAN_LEFT("overscan_left", 20),
+        OVERSCAN_RIGHT("overscan_right", 20),
+        OVERSCAN_TOP("overscan_top", 20),
+        OVERSCAN_BOTTOM("overscan_bottom", 20),
+        CHROME("chrome", false),
+        SHOW_TOUCHES("show_touches", false),
+        DAYDREAMS("daydreams_on", false),
+        WIFI("wifi_on", false),
+        BLUETOOTH("bluetooth_on", false),
+        NAVBAR("navbar", false),
+        FREEFORM("freeform", false),
+        TASKBAR("taskbar", false),
+        CLEAR_HOME("clear_home", false);
+
+        private final String key;
+        private final Object defValue;
+
+        Field(String key, Object defValue) {
+            this.key = key;
+            this.defValue = defValue;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        Object getDefault() {
+            return defValue;
+        }
+    }
+
+    private final Map<Field, Object> values;
+
+    // The UI refresh method is kept separately, as the method actually used when loading a
+    // profile can differ from the one saved in it
+    private final String uiRefresh;
+
+    private Profile(Map<Field, Object> values, String uiRefresh) {
+        this.values = Collections.unmodifiableMap(values);
+        this.uiRefresh = uiRefresh;
+    }
+
+    // Parses a saved profile (or the quick actions profile)
+    public static Profile fromSaved(Context context, SharedPreferences prefSaved) {
+        Map<Field, Object> values = read(prefSaved);
+
+        values.put(Field.PROFILE_NAME, prefSaved.getString(Field.PROFILE_NAME.key,
+                context.getResources().getString(R.string.action_new)));
+
+        // Older profiles stored these as booleans; resolve the "fallback" values here so that
+        // they always compare equal to what is written to current.xml
+        if("fallback".equals(prefSaved.getString(Field.ROTATION_LOCK.key, "fallback")))
+            values.put(Field.ROTATION_LOCK, prefSaved.getBoolean("rotation_lock", false) ? "landscape" : "do-nothing");
+
+        if("fallback".equals(prefSaved.getString(Field.IMMERSIVE.key, "fallback")))
+            values.put(Field.IMMERSIVE, prefSaved.getBoolean("immersive", false) ? "immersive-mode" : "do-nothing");
+
+        return new Profile(values, prefSaved.getString("ui_refresh", "do-nothing"));
+    }
+
+    // Parses the active profile from current.xml, or returns null if no profile is active
+    public static Profile fromCurrent(SharedPreferences prefCurrent) {
+        if(prefCurrent.getBoolean("not_active", true))
+            return null;
+
+        Map<Field, Object> values = read(prefCurrent);
+
+        if("fallback".equals(values.get(Field.ROTATION_LOCK)))
+            values.put(Field.ROTATION_LOCK, "do-nothing");
+
+        if("fallback".equals(values.get(Field.IMMERSIVE)))
+            values.put(Field.IMMERSIVE, "do-nothing");
+
+        return new Profile(values, prefCurrent.getString("ui_refresh", "do-nothing"));
+    }
+
+    private static Map<Field, Object> read(SharedPreferences pref) {
+        Map<Field, Object> values = new EnumMap<>(Field.class);
+
+        for(Field field : Field.values()) {
+            Object defValue = field.defValue;
+
+            if(defValue instanceof Boolean)
+                values.put(field, pref.getBoolean(field.key, (Boolean) defValue));
+            else if(defValue instanceof Integer)
+                values.put(field, pref.getInt(field.key, (Integer) defValue));
+            else
+                values.put(field, pref.getString(field.key, (String) defValue));
+        }
+
+        return values;
+    }
+
+    public String getString(Field field) {
+        return (String) values.get(field);
+    }
+
+    public boolean getBoolean(Field field) {
+        return (Boolean) values.get(field);
+    }
+
+    public int getInt(Field field) {
+        return (Integer) values.get(field);
+    }
+
+    public String getUiRefresh() {
+        return uiRefresh;
+    }
+
+    Object get(Field field) {
+        return values.get(field);
+    }
+
+    // Writes a single field of this profile into the given editor
+    void put(SharedPreferences.Editor editor, Field field) {
+        Object value = values.get(field);
+
+        if(value instanceof Boolean)
+            editor.putBoolean(field.key, (Boolean) value);
+        else if(value instanceof Integer)
+            editor.putInt(field.key, (Integer) value);
+        else
+            editor.putString(field.key, (String) value);
+    }
+}
@@ -0,0 +1,109 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.SharedPreferences;
+
+import com.farmerbb.secondscreen.util.Profile.Field;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+// The set of fields that differ between the active profile and the profile being switched to.
+// The ProfileLoadService and TurnOffService only act on fields contained in the diff, and only
+// those fields are written back to current.xml.
+//
+// If no profile is active, every field is considered changed.  If the active profile is being
+// turned off, a field is considered changed if it differs from its default value.
+public final class ProfileDiff {
+
+    private final Profile active;
+    private final Profile target;
+    private final Set<Field> changed;
+
+    private ProfileDiff(Profile active, Profile target, Set<Field> changed) {
+        this.active = active;
+        this.target = target;
+        this.changed = Collections.unmodifiableSet(changed);
+    }
+
+    // active is null if no profile is currently active; target is null if the active profile
+    // is being turned off
+    public static ProfileDiff between(Profile active, Profile target) {
+        Set<Field> changed = EnumSet.noneOf(Field.class);
+
+        for(Field field : Field.values()) {
+            if(active == null) {
+                if(target != null)
+                    changed.add(field);
+            } else {
+                Object newValue = target != null ? target.get(field) : field.getDefault();
+                if(!active.get(field).equals(newValue))
+                    changed.add(field);
+            }
+        }
+
+        return new ProfileDiff(active, target, changed);
+    }
+
+    public Profile getActive() {
+        return active;
+    }
+
+    public Profile getTarget() {
+        return target;
+    }
+
+    public boolean isActivating() {
+        return active == null;
+    }
+
+    public boolean isChanged(Field field) {
+        return changed.contains(field);
+    }
+
+    public boolean isOverscanChanged() {
+        return changed.contains(Field.OVERSCAN_LEFT)
+                || changed.contains(Field.OVERSCAN_RIGHT)
+                || changed.contains(Field.OVERSCAN_TOP)
+                || changed.contains(Field.OVERSCAN_BOTTOM);
+    }
+
+    public Set<Field> getChangedFields() {
+        return changed;
+    }
+
+    // True if a boolean field is enabled by the target profile, but not by the active one
+    public boolean turnsOn(Field field) {
+        return changed.contains(field) && target != null && target.getBoolean(field);
+    }
+
+    // True if a boolean field is enabled by the active profile, but not by the target one
+    public boolean turnsOff(Field field) {
+        return changed.contains(field) && active != null && active.getBoolean(field);
+    }
+
+    // Writes only the changed fields of the target profile into current.xml
+    public void writeTo(SharedPreferences.Editor editor) {
+        if(target == null)
+            return;
+
+        for(Field field : changed) {
+            target.put(editor, field);
+        }
+    }
+}
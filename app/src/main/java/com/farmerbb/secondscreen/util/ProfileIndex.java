@@ -0,0 +1,161 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Keeps a sorted list of saved profiles (filename and title) in memory, so that profile lists
+// don't need to look up every profile and re-sort them each time they are shown.
+//
+// The index is built from the ProfileStore on first use in a process.  After that, the store
+// updates it incrementally whenever a profile is saved or deleted.
+public final class ProfileIndex {
+
+    // Immutable, presorted view of the index
+    public static final class Snapshot {
+        private final List<String> filenames;
+        private final List<String> titles;
+
+        private Snapshot(List<String> filenames, List<String> titles) {
+            this.filenames = Collections.unmodifiableList(filenames);
+            this.titles = Collections.unmodifiableList(titles);
+        }
+
+        public List<String> getFilenames() {
+            return filenames;
+        }
+
+        public List<String> getTitles() {
+            return titles;
+        }
+
+        public int size() {
+            return filenames.size();
+        }
+
+        public boolean isEmpty() {
+            return filenames.isEmpty();
+        }
+    }
+
+    private static final class Entry {
+        private final String filename;
+        private final String title;
+        private CollationKey sortKey;
+
+        private Entry(String filename, String title) {
+            this.filename = filename;
+            this.title = title == null ? "" : title;
+        }
+    }
+
+    private Map<String, Entry> entries;
+    private Snapshot snapshot;
+
+    private Collator collator;
+    private Locale collatorLocale;
+
+    private static ProfileIndex theInstance;
+
+    private ProfileIndex() {}
+
+    public static ProfileIndex getInstance() {
+        if(theInstance == null) theInstance = new ProfileIndex();
+
+        return theInstance;
+    }
+
+    // Returns the current list of profiles, sorted alphabetically by title
+    public synchronized Snapshot getSnapshot(Context context) {
+        if(entries == null)
+            load(context);
+
+        if(snapshot == null)
+            snapshot = buildSnapshot();
+
+        return snapshot;
+    }
+
+    // Called by the ProfileStore whenever a profile is created or its title is changed
+    synchronized void update(String filename, String title) {
+        if(entries == null)
+            return;
+
+        entries.put(filename, new Entry(filename, title));
+        snapshot = null;
+    }
+
+    // Called by the ProfileStore whenever a profile is deleted
+    synchronized void remove(String filename) {
+        if(entries != null && entries.remove(filename) != null)
+            snapshot = null;
+    }
+
+    private void load(Context context) {
+        entries = new HashMap<>();
+
+        for(Map.Entry<String, String> title : ProfileStore.getInstance().getTitles(context).entrySet()) {
+            entries.put(title.getKey(), new Entry(title.getKey(), title.getValue()));
+        }
+
+        snapshot = null;
+    }
+
+    private Snapshot buildSnapshot() {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+
+        // Sort keys are computed once per entry, unless the locale has changed since then
+        Locale locale = Locale.getDefault();
+        if(collator == null || !locale.equals(collatorLocale)) {
+            collator = Collator.getInstance(locale);
+            collatorLocale = locale;
+
+            for(Entry entry : sorted) {
+                entry.sortKey = null;
+            }
+        }
+
+        for(Entry entry : sorted) {
+            if(entry.sortKey == null)
+                entry.sortKey = collator.getCollationKey(entry.title);
+        }
+
+        // Titles that compare equal are ordered by filename, so the order is always stable
+        Collections.sort(sorted, (e1, e2) -> {
+            int result = e1.sortKey.compareTo(e2.sortKey);
+            return result != 0 ? result : e1.filename.compareTo(e2.filename);
+        });
+
+        List<String> filenames = new ArrayList<>(sorted.size());
+        List<String> titles = new ArrayList<>(sorted.size());
+
+        for(Entry entry : sorted) {
+            filenames.add(entry.filename);
+            titles.add(entry.title);
+        }
+
+        return new Snapshot(filenames, titles);
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// SharedPreferences view of a single profile held in the ProfileStore.
+// Behaves the same as a regular SharedPreferences object, including type checking of values.
+final class ProfilePreferences implements SharedPreferences {
+
+    // Marks a key as removed in a pending edit
+    static final Object REMOVED = new Object();
+
+    private final ProfileStore store;
+    private final String filename;
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    ProfilePreferences(ProfileStore store, String filename) {
+        this.store = store;
+        this.filename = filename;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return store.getValues(filename);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) store.getValue(filename, key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> values = (Set<String>) store.getValue(filename, key);
+        return values != null ? new HashSet<>(values) : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) store.getValue(filename, key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) store.getValue(filename, key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) store.getValue(filename, key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) store.getValue(filename, key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return store.getValue(filename, key) != null;
+    }
+
+    @Override
+    public Editor edit() {
+        return new ProfileEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(listeners) {
+            listeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized(listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void notifyListeners(Set<String> changedKeys) {
+        final Set<OnSharedPreferenceChangeListener> copy;
+        synchronized(listeners) {
+            if(listeners.isEmpty() || changedKeys.isEmpty())
+                return;
+
+            copy = new HashSet<>(listeners.keySet());
+        }
+
+        // Listeners are always called on the main thread, same as the framework implementation
+        handler.post(() -> {
+            for(String key : changedKeys) {
+                for(OnSharedPreferenceChangeListener listener : copy) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        });
+    }
+
+    private final class ProfileEditor implements Editor {
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear = false;
+
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values == null ? null : new HashSet<>(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, REMOVED);
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized(this) {
+                clear = true;
+            }
+
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            notifyListeners(applyChanges());
+            return store.write(true);
+        }
+
+        @Override
+        public void apply() {
+            notifyListeners(applyChanges());
+            store.write(false);
+        }
+
+        private synchronized Editor put(String key, Object value) {
+            changes.put(key, value == null ? REMOVED : value);
+            return this;
+        }
+
+        private synchronized Set<String> applyChanges() {
+            Set<String> changedKeys = store.applyEdits(filename, changes, clear);
+
+            changes.clear();
+            clear = false;
+
+            return changedKeys;
+        }
+    }
+}
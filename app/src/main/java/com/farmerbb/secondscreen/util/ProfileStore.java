@@ -0,0 +1,477 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.AtomicFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+// Stores every saved profile in a single binary file, replacing the old layout of one
+// SharedPreferences XML file plus one title file per profile.
+//
+// File layout (big-endian):
+//   int     magic ("SSPS")
+//   int     format version
+//   int     number of profiles
+//   for each profile:
+//     UTF   filename
+//     bool  has title (followed by UTF title, if true)
+//     long  last modified time
+//     int   length of encoded fields, followed by the encoded fields
+//   long    CRC32 of everything above
+//
+// The whole file is read into memory once, but each profile's fields are only decoded the first
+// time that profile is accessed.  Writes go through an AtomicFile, so a crash mid-write never
+// leaves a half-written store behind.
+//
+// Profiles are exposed to the rest of the app as SharedPreferences (see U.getPrefSaved()), so
+// existing code can read and edit them as before.
+public final class ProfileStore {
+
+    private static final String FILENAME = "profiles.dat";
+    private static final int MAGIC = 0x53535053;
+    private static final int VERSION = 1;
+
+    // Field types
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_STRING_SET = 5;
+
+    private static final class Entry {
+        private final String filename;
+        private String title;
+        private long lastModified;
+
+        private byte[] encoded;
+        private Map<String, Object> values;
+
+        private Entry(String filename) {
+            this.filename = filename;
+        }
+
+        // Decodes this profile's fields on first access
+        private Map<String, Object> getValues() {
+            if(values == null) {
+                values = new HashMap<>();
+
+                if(encoded != null) {
+                    try {
+                        decodeValues(encoded, values);
+                    } catch (IOException e) { /* Gracefully fail */ }
+
+                    encoded = null;
+                }
+            }
+
+            return values;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, ProfilePreferences> preferences = new HashMap<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private AtomicFile file;
+    private long generation = 0;
+    private long writtenGeneration = 0;
+
+    private static ProfileStore theInstance;
+
+    private ProfileStore() {}
+
+    public static ProfileStore getInstance() {
+        if(theInstance == null) theInstance = new ProfileStore();
+
+        return theInstance;
+    }
+
+    // Returns a SharedPreferences view of a single profile.  The profile does not
+    // have to exist yet; it is created the first time something is written to it.
+    synchronized SharedPreferences getPreferences(Context context, String filename) {
+        load(context);
+
+        ProfilePreferences pref = preferences.get(filename);
+        if(pref == null) {
+            pref = new ProfilePreferences(this, filename);
+            preferences.put(filename, pref);
+        }
+
+        return pref;
+    }
+
+    // A profile only "exists" (is shown in lists, can be loaded, etc) once it has a title
+    public synchronized boolean exists(Context context, String filename) {
+        load(context);
+
+        Entry entry = entries.get(filename);
+        return entry != null && entry.title != null;
+    }
+
+    public synchronized String getTitle(Context context, String filename) {
+        load(context);
+
+        Entry entry = entries.get(filename);
+        return entry == null ? null : entry.title;
+    }
+
+    public void setTitle(Context context, String filename, String title) {
+        synchronized(this) {
+            load(context);
+
+            Entry entry = getOrCreateEntry(filename);
+            entry.title = title;
+            entry.lastModified = System.currentTimeMillis();
+        }
+
+        write(true);
+        ProfileIndex.getInstance().update(filename, title);
+    }
+
+    public void delete(Context context, String filename) {
+        synchronized(this) {
+            load(context);
+
+            if(entries.remove(filename) == null)
+                return;
+        }
+
+        write(true);
+        ProfileIndex.getInstance().remove(filename);
+        WarmStart.getInstance().invalidate(filename);
+        DisplayProfileMap.getInstance().removeProfile(context, filename);
+    }
+
+    // Returns the filename and title of every saved profile
+    synchronized Map<String, String> getTitles(Context context) {
+        load(context);
+
+        Map<String, String> titles = new HashMap<>();
+        for(Entry entry : entries.values()) {
+            if(entry.title != null)
+                titles.put(entry.filename, entry.title);
+        }
+
+        return titles;
+    }
+
+    // Called by ProfilePreferences
+    synchronized Object getValue(String filename, String key) {
+        Entry entry = entries.get(filename);
+        return entry == null ? null : entry.getValues().get(key);
+    }
+
+    synchronized Map<String, Object> getValues(String filename) {
+        Entry entry = entries.get(filename);
+        return entry == null ? new HashMap<>() : new HashMap<>(entry.getValues());
+    }
+
+    // Called by ProfileStoreMigrator
+    void importProfile(String filename, String title, long lastModified, Map<String, ?> values) {
+        Entry entry = getOrCreateEntry(filename);
+        entry.title = title;
+        entry.lastModified = lastModified;
+
+        for(Map.Entry<String, ?> value : values.entrySet()) {
+            Object object = value.getValue();
+            if(object instanceof Set)
+                object = new HashSet<>((Set<?>) object);
+
+            if(object != null)
+                entry.getValues().put(value.getKey(), object);
+        }
+    }
+
+    // Called by ProfilePreferences.Editor
+    synchronized Set<String> applyEdits(String filename, Map<String, Object> changes, boolean clear) {
+        Entry entry = getOrCreateEntry(filename);
+        Map<String, Object> values = entry.getValues();
+        Set<String> changedKeys = new HashSet<>();
+
+        if(clear) {
+            changedKeys.addAll(values.keySet());
+            values.clear();
+        }
+
+        for(Map.Entry<String, Object> change : changes.entrySet()) {
+            String key = change.getKey();
+            Object value = change.getValue();
+
+            // Removals are represented by the editor itself
+            if(value == ProfilePreferences.REMOVED || value == null) {
+                if(values.remove(key) != null)
+                    changedKeys.add(key);
+            } else {
+                Object previous = values.put(key, value);
+                if(!value.equals(previous))
+                    changedKeys.add(key);
+            }
+        }
+
+        if(!changedKeys.isEmpty()) {
+            entry.lastModified = System.currentTimeMillis();
+            WarmStart.getInstance().invalidate(filename);
+        }
+
+        return changedKeys;
+    }
+
+    // Persists the store, either immediately or on a background thread
+    boolean write(boolean sync) {
+        final long requested;
+        synchronized(this) {
+            requested = ++generation;
+        }
+
+        if(sync)
+            return writeIfNeeded(requested);
+
+        writer.execute(() -> writeIfNeeded(requested));
+        return true;
+    }
+
+    // The store is encoded and written under the same lock, so that a synchronous write and one
+    // running on the writer thread can't interleave and leave an older generation on disk
+    private synchronized boolean writeIfNeeded(long requested) {
+        // A later write has already covered this one
+        if(writtenGeneration >= requested)
+            return true;
+
+        FileOutputStream output = null;
+        try {
+            byte[] data = encode();
+
+            output = file.startWrite();
+            output.write(data);
+            file.finishWrite(output);
+
+            writtenGeneration = generation;
+            return true;
+        } catch (IOException e) {
+            if(output != null)
+                file.failWrite(output);
+
+            return false;
+        }
+    }
+
+    private Entry getOrCreateEntry(String filename) {
+        Entry entry = entries.get(filename);
+        if(entry == null) {
+            entry = new Entry(filename);
+            entry.lastModified = System.currentTimeMillis();
+            entries.put(filename, entry);
+        }
+
+        return entry;
+    }
+
+    private void load(Context context) {
+        if(file != null)
+            return;
+
+        File storeFile = new File(context.getFilesDir(), FILENAME);
+        file = new AtomicFile(storeFile);
+
+        if(storeFile.exists() || new File(storeFile.getPath() + ".bak").exists()) {
+            try {
+                decode(file.readFully());
+                return;
+            } catch (IOException e) {
+                // The store is unreadable; keep a copy of it around and start over
+                entries.clear();
+                storeFile.renameTo(new File(storeFile.getPath() + ".corrupt"));
+            }
+        }
+
+        // First run with the profile store; move any existing profiles into it
+        ProfileStoreMigrator.migrate(context, this);
+
+        if(write(true))
+            ProfileStoreMigrator.cleanup(context, entries.keySet());
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(entries.size());
+
+        for(Entry entry : entries.values()) {
+            output.writeUTF(entry.filename);
+            output.writeBoolean(entry.title != null);
+
+            if(entry.title != null)
+                output.writeUTF(entry.title);
+
+            output.writeLong(entry.lastModified);
+
+            // Profiles that were never decoded can be written back as-is
+            byte[] encoded = entry.values == null ? entry.encoded : encodeValues(entry.values);
+            if(encoded == null)
+                encoded = encodeValues(Collections.emptyMap());
+
+            output.writeInt(encoded.length);
+            output.write(encoded);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeLong(crc.getValue());
+        output.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private void decode(byte[] data) throws IOException {
+        if(data.length < 8)
+            throw new IOException("Profile store is truncated");
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        input.skipBytes(data.length - 8);
+
+        if(input.readLong() != crc.getValue())
+            throw new IOException("Profile store checksum mismatch");
+
+        input = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+
+        if(input.readInt() != MAGIC)
+            throw new IOException("Not a profile store");
+
+        if(input.readInt() > VERSION)
+            throw new IOException("Unsupported profile store version");
+
+        int count = input.readInt();
+        for(int i = 0; i < count; i++) {
+            Entry entry = new Entry(input.readUTF());
+
+            if(input.readBoolean())
+                entry.title = input.readUTF();
+
+            entry.lastModified = input.readLong();
+            entry.encoded = new byte[input.readInt()];
+            input.readFully(entry.encoded);
+
+            entries.put(entry.filename, entry);
+        }
+    }
+
+    private static byte[] encodeValues(Map<String, Object> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(values.size());
+
+        for(Map.Entry<String, Object> value : values.entrySet()) {
+            output.writeUTF(value.getKey());
+            Object object = value.getValue();
+
+            if(object instanceof String) {
+                output.writeByte(TYPE_STRING);
+                output.writeUTF((String) object);
+            } else if(object instanceof Integer) {
+                output.writeByte(TYPE_INT);
+                output.writeInt((Integer) object);
+            } else if(object instanceof Long) {
+                output.writeByte(TYPE_LONG);
+                output.writeLong((Long) object);
+            } else if(object instanceof Float) {
+                output.writeByte(TYPE_FLOAT);
+                output.writeFloat((Float) object);
+            } else if(object instanceof Boolean) {
+                output.writeByte(TYPE_BOOLEAN);
+                output.writeBoolean((Boolean) object);
+            } else if(object instanceof Set) {
+                @SuppressWarnings("unchecked")
+                Set<String> set = (Set<String>) object;
+
+                output.writeByte(TYPE_STRING_SET);
+                output.writeInt(set.size());
+
+                for(String string : set) {
+                    output.writeUTF(string);
+                }
+            } else
+                throw new IOException("Unsupported value type for key " + value.getKey());
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void decodeValues(byte[] encoded, Map<String, Object> values) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+
+        int count = input.readInt();
+        for(int i = 0; i < count; i++) {
+            String key = input.readUTF();
+
+            switch(input.readByte()) {
+                case TYPE_STRING:
+                    values.put(key, input.readUTF());
+                    break;
+                case TYPE_INT:
+                    values.put(key, input.readInt());
+                    break;
+                case TYPE_LONG:
+                    values.put(key, input.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    values.put(key, input.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, input.readBoolean());
+                    break;
+                case TYPE_STRING_SET:
+                    int size = input.readInt();
+                    Set<String> set = new HashSet<>(size);
+
+                    for(int j = 0; j < size; j++) {
+                        set.add(input.readUTF());
+                    }
+
+                    values.put(key, set);
+                    break;
+                default:
+                    throw new IOException("Unknown value type for key " + key);
+            }
+        }
+    }
+}
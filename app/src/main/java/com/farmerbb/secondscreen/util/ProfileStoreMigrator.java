@@ -0,0 +1,60 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+// One-time migration of profiles saved by older versions (one SharedPreferences XML file plus
+// one title file per profile) into the ProfileStore.  The old files are only removed once the
+// store has been written successfully.
+final class ProfileStoreMigrator {
+
+    private ProfileStoreMigrator() {}
+
+    static void migrate(Context context, ProfileStore store) {
+        File[] files = context.getFilesDir().listFiles();
+        if(files == null)
+            return;
+
+        for(File file : files) {
+            String filename = file.getName();
+            if(!U.isValidFilename(filename))
+                continue;
+
+            try {
+                String title = U.readTitleFile(context, filename);
+                if(title == null)
+                    continue;
+
+                store.importProfile(filename, title, file.lastModified(),
+                        context.getSharedPreferences(filename, Context.MODE_PRIVATE).getAll());
+            } catch (IOException e) { /* Gracefully fail */ }
+        }
+    }
+
+    static void cleanup(Context context, Set<String> filenames) {
+        File sharedPrefsDir = new File(context.getFilesDir().getParent(), "shared_prefs");
+
+        for(String filename : filenames) {
+            new File(context.getFilesDir(), filename).delete();
+            new File(sharedPrefsDir, filename + ".xml").delete();
+        }
+    }
+}
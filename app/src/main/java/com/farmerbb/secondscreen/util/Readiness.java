@@ -0,0 +1,177 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Locale;
+
+// Lets a command wait on the system actually being ready, instead of sleeping for a fixed time.
+//
+// A command built with Command.await() wraps the command to run once the system is ready.  When
+// the command pipeline reaches it, any commands before it are run first, then the pipeline blocks
+// until the signal is received (or the timeout elapses, which is the same delay that used to be
+// hard-coded), and then the wrapped command is run as normal.  It is shown in logs and traces as
+// "await display 2000 && kill ...", but is never run through the shell as text.
+public final class Readiness {
+
+    public enum Signal {
+        // Display changes have been applied and no further changes have been reported for a moment
+        DISPLAY,
+
+        // SystemUI has been restarted and is running again
+        SYSTEM_UI,
+
+        // Nothing that can be observed; the whole timeout is always waited out.  Used before
+        // restarting the framework, where settings written just before need time to be persisted.
+        DELAY
+    }
+
+    // How long the display needs to go without changes to be considered settled
+    private static final long DISPLAY_QUIET_PERIOD = 250;
+
+    // How often SystemUI is checked for while waiting on it to restart
+    private static final long POLL_INTERVAL = 100;
+
+    private Readiness() {}
+
+    static final class Wait {
+        private final Signal signal;
+        private final long timeout;
+
+        Wait(Signal signal, long timeout) {
+            this.signal = signal;
+            this.timeout = timeout;
+        }
+
+        // The wait itself, as shown in logs and traces
+        String getDescription() {
+            return "await " + signal.name().toLowerCase(Locale.US) + " " + timeout;
+        }
+
+        // Blocks until the signal is received, or the timeout elapses.
+        // Returns false if the timeout was hit.
+        boolean await(Context context) {
+            // Listeners are called on the main thread, so there is nothing to wait on if we are on it
+            if(Looper.myLooper() == Looper.getMainLooper()) {
+                SystemClock.sleep(timeout);
+                return false;
+            }
+
+            switch(signal) {
+                case DISPLAY:
+                    return awaitDisplay(context, timeout);
+                case SYSTEM_UI:
+                    return awaitSystemUI(timeout);
+                case DELAY:
+                    SystemClock.sleep(timeout);
+                    return true;
+                default:
+                    SystemClock.sleep(timeout);
+                    return false;
+            }
+        }
+    }
+
+    private static boolean awaitDisplay(Context context, long timeout) {
+        DisplayManager dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        final long[] lastChange = {SystemClock.elapsedRealtime()};
+
+        DisplayManager.DisplayListener listener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) {
+                onDisplayChanged(displayId);
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayId) {
+                onDisplayChanged(displayId);
+            }
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                synchronized(lastChange) {
+                    lastChange[0] = SystemClock.elapsedRealtime();
+                }
+            }
+        };
+
+        dm.registerDisplayListener(listener, new Handler(Looper.getMainLooper()));
+
+        try {
+            long deadline = SystemClock.elapsedRealtime() + timeout;
+
+            while(true) {
+                long now = SystemClock.elapsedRealtime();
+                long settled;
+
+                synchronized(lastChange) {
+                    settled = lastChange[0] + DISPLAY_QUIET_PERIOD;
+                }
+
+                if(now >= settled)
+                    return true;
+
+                if(now >= deadline)
+                    return false;
+
+                SystemClock.sleep(Math.min(settled, deadline) - now);
+            }
+        } finally {
+            dm.unregisterDisplayListener(listener);
+        }
+    }
+
+    // Waits until SystemUI shows up with a new pid, by polling the (already warm) root shell.
+    // pidof is only available on 7.0 and later.  The polls aren't traced individually; the
+    // whole wait is recorded as a single step instead.
+    private static boolean awaitSystemUI(long timeout) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            SystemClock.sleep(timeout);
+            return false;
+        }
+
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        String initialPid = getSystemUIPid();
+        boolean wasStopped = initialPid.isEmpty();
+
+        while(SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(POLL_INTERVAL);
+
+            String pid = getSystemUIPid();
+            if(pid.isEmpty())
+                wasStopped = true;
+            else if(wasStopped || !pid.equals(initialPid))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static String getSystemUIPid() {
+        List<CommandResult> results = Superuser.getInstance().runUntraced(new String[]{"pidof com.android.systemui"});
+        if(results.isEmpty() || !results.get(0).isSuccessful() || results.get(0).getOutput().isEmpty())
+            return "";
+
+        return results.get(0).getOutput().get(0).trim();
+    }
+}
@@ -0,0 +1,157 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.farmerbb.secondscreen.util.Profile.Field;
+
+// Determines the cheapest UI refresh that is still sufficient for a profile change.
+//
+// The UI refresh method saved in a profile is the most that will be done; if the live display
+// state shows that the size and density are already what the profile asks for, a full
+// ActivityManager restart (or SystemUI restart) is skipped entirely.
+public final class RefreshAnalyzer {
+
+    public enum Refresh {
+        // Nothing on screen needs to be refreshed
+        NONE,
+
+        // The framework already dispatches a configuration change when display settings change;
+        // just return to the home screen so that the launcher picks it up.  No process is killed.
+        CONFIGURATION,
+
+        // Restart SystemUI and kill background processes
+        SYSTEM_UI,
+
+        // Run "am restart" (a full restart of the Android framework)
+        ACTIVITY_MANAGER
+    }
+
+    private static final String TAG = "SecondScreen";
+
+    private final Context context;
+    private final String size;
+    private final String density;
+    private final boolean sizeChanged;
+    private final boolean densityChanged;
+
+    // Reads the live size and density once, and compares them against the requested values
+    public RefreshAnalyzer(Context context, String size, String density) {
+        this.context = context;
+        this.size = size;
+        this.density = density;
+
+        sizeChanged = U.runSizeCommand(context, size);
+        densityChanged = U.runDensityCommand(context, density);
+    }
+
+    public boolean isSizeChanged() {
+        return sizeChanged;
+    }
+
+    public boolean isDensityChanged() {
+        return densityChanged;
+    }
+
+    // Returns true if the live display already matches the requested size and density, and the
+    // forced size and density settings (applied by the ActivityManager on restart) match as well
+    public boolean isForcedStateApplied() {
+        if(sizeChanged || densityChanged)
+            return false;
+
+        String expectedSize = "reset".equals(size) ? null : size.replace('x', ',');
+        String expectedDensity = "reset".equals(density) ? null : density;
+
+        try {
+            return matches(readForcedSetting("display_size_forced"), expectedSize)
+                    && matches(readForcedSetting("display_density_forced"), expectedDensity);
+        } catch (SecurityException e) {
+            // Newer versions of Android don't allow apps to read these settings.
+            // The live metrics already reflect the forced values, so rely on them instead.
+            return true;
+        }
+    }
+
+    // Picks the refresh to perform, given the refresh method saved in the profile
+    public Refresh analyze(String method, boolean displayCommandsRun, boolean forceUiRefresh, ProfileDiff diff) {
+        Refresh requested;
+        switch(method) {
+            case "system-ui":
+                requested = Refresh.SYSTEM_UI;
+                break;
+            case "activity-manager":
+                requested = Refresh.ACTIVITY_MANAGER;
+                break;
+            default:
+                requested = Refresh.NONE;
+                break;
+        }
+
+        Refresh chosen;
+        String reason;
+
+        if(requested == Refresh.NONE) {
+            chosen = Refresh.NONE;
+            reason = "no refresh method set";
+        } else if(forceUiRefresh) {
+            chosen = requested;
+            reason = "refresh method changed";
+        } else if(displayCommandsRun) {
+            chosen = requested;
+            reason = "display size or density changed";
+        } else if(isDisplayChanged(diff)) {
+            chosen = Refresh.CONFIGURATION;
+            reason = "only live display settings changed";
+        } else {
+            chosen = Refresh.NONE;
+            reason = "display state unchanged";
+        }
+
+        Log.i(TAG, "UI refresh: requested " + requested + ", chose " + chosen + " (" + reason + ")"
+                + (requested == Refresh.ACTIVITY_MANAGER && chosen != requested ? "; skipped am restart" : ""));
+
+        return chosen;
+    }
+
+    // Settings that are applied immediately by the framework, but that the launcher may
+    // need to be brought to the front to pick up
+    private static boolean isDisplayChanged(ProfileDiff diff) {
+        return diff.isChanged(Field.OVERSCAN)
+                || diff.isOverscanChanged()
+                || diff.isChanged(Field.IMMERSIVE)
+                || diff.isChanged(Field.NAVBAR)
+                || diff.isChanged(Field.HDMI_ROTATION)
+                || diff.isChanged(Field.ROTATION_LOCK);
+    }
+
+    private String readForcedSetting(String name) {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N)
+            return Settings.Global.getString(context.getContentResolver(), name);
+        else
+            return Settings.Secure.getString(context.getContentResolver(), name);
+    }
+
+    private static boolean matches(String actual, String expected) {
+        if(actual == null || actual.isEmpty() || "null".equals(actual))
+            return expected == null;
+
+        return actual.equals(expected);
+    }
+}
@@ -0,0 +1,272 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.farmerbb.secondscreen.service.ProfileLoadService;
+import com.farmerbb.secondscreen.service.TurnOffService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Write-ahead journal for profile switches, so that a switch that was interrupted by a crash or a
+// reboot partway through can be finished (or undone) afterwards.
+//
+// Before the ProfileLoadService or TurnOffService changes anything, it records what it is about
+// to do, along with the contents of current.xml before the switch and the system settings that
+// the switch is about to override, in a single durable commit.  Once the commands have been
+// built, the contents of current.xml after the switch are added to the entry; current.xml itself
+// (and quick_actions.xml) are written asynchronously, as the journal has everything needed to
+// rebuild them.  Once the commands have been run, the entry is marked as done.
+//
+// After a reboot, the BootReceiver calls recover().  If the last switch was never marked as done,
+// current.xml is put back the way it was before the switch and the switch is run again: every
+// command is idempotent, so the commands that had already run are simply run a second time.
+// The device may already be partly switched by then, so the system settings recorded before the
+// interrupted switch are handed to the ProfileLoadService instead of being read again.
+// If the switch can't be run again (the profile it was loading has since been deleted), it is
+// rolled back instead: current.xml is set to the state the switch was heading towards, and the
+// profile is turned off, which restores the settings that were saved before it was loaded.
+//
+// A switch that restarts the activity manager (or needs a reboot) is never run again, as the
+// restart kills the app before the entry can be marked as done, and replaying it would just
+// restart the framework once more.  These are treated as done instead, and the BootService
+// finishes them on the normal boot path, as it did before the journal existed.
+public final class StateJournal {
+
+    private static final String TAG = "SecondScreen";
+    private static final String FILENAME = "journal";
+
+    public static final String OP_LOAD = "load";
+    public static final String OP_TURN_OFF = "turn_off";
+
+    // Intent extra holding the system settings recorded before a switch that is being run again
+    public static final String EXTRA_SYSTEM_STATE = "system_state";
+
+    private static final String KEY_OP = "op";
+    private static final String KEY_FILENAME = "filename";
+    private static final String KEY_PREVIOUS_FILENAME = "previous_filename";
+    private static final String KEY_DONE = "done";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_RESTART = "restart";
+    private static final String KEY_PREPARED = "prepared";
+
+    private static final String PREFIX_BEFORE = "before.";
+    private static final String PREFIX_AFTER = "after.";
+    private static final String PREFIX_SYSTEM = "system.";
+
+    private static StateJournal theInstance;
+
+    private StateJournal() {}
+
+    public static synchronized StateJournal getInstance() {
+        if(theInstance == null) theInstance = new StateJournal();
+
+        return theInstance;
+    }
+
+    // Records a switch that doesn't change anything before its commands are run, such as a single
+    // quick action.  "before" is the contents of current.xml when the switch started; "after" is
+    // what current.xml will contain once it is done.
+    public synchronized void begin(Context context, String op, String filename,
+                                   Map<String, ?> before, Map<String, ?> after) {
+        SharedPreferences.Editor editor = newEntry(context, op, filename, before, Collections.<String, Object>emptyMap());
+        editor.putBoolean(KEY_PREPARED, true);
+        putAll(editor, PREFIX_AFTER, after);
+
+        // Commit (for reliability)
+        editor.commit();
+    }
+
+    // Records that a switch is about to start, before it changes anything.  "system" holds the
+    // system settings that the switch is about to override (as read before they were changed),
+    // so that they don't have to be read again from a partly switched device if it is replayed.
+    // prepared() must be called once the commands of the switch have been built.
+    public synchronized void start(Context context, String op, String filename,
+                                   Map<String, ?> before, Map<String, ?> system) {
+        // Commit (for reliability)
+        newEntry(context, op, filename, before, system).commit();
+    }
+
+    // Records what current.xml will contain once the switch started by start() is done.
+    // "restartsFramework" is true if the switch restarts the activity manager or requires a
+    // reboot, in which case the switch is never run again by recover().
+    public synchronized void prepared(Context context, Map<String, ?> after, boolean restartsFramework) {
+        SharedPreferences.Editor editor = getPrefs(context).edit();
+        editor.putBoolean(KEY_PREPARED, true);
+        editor.putBoolean(KEY_RESTART, restartsFramework);
+        putAll(editor, PREFIX_AFTER, after);
+
+        // The restart flag has to be on disk before the framework is restarted.  Otherwise, losing
+        // this write only means an interrupted switch is rolled back to where it started from.
+        if(restartsFramework)
+            editor.commit();
+        else
+            editor.apply();
+    }
+
+    // Records that the commands of the current switch have all been run.  This doesn't need to be
+    // durable; if it is lost, the switch is just run again after the next reboot.
+    public synchronized void complete(Context context) {
+        getPrefs(context).edit().putBoolean(KEY_DONE, true).apply();
+    }
+
+    // Called instead of complete() when the commands of the current switch failed and were
+    // rolled back; puts current.xml back the way it was before the switch
+    public synchronized void abort(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        SharedPreferences.Editor editor = U.getPrefCurrent(context).edit();
+        editor.clear();
+
+        for(Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if(entry.getKey().startsWith(PREFIX_BEFORE))
+                put(editor, entry.getKey().substring(PREFIX_BEFORE.length()), entry.getValue());
+        }
+
+        if(prefs.getBoolean(PREFIX_BEFORE + "not_active", true))
+            editor.remove("filename");
+        else
+            editor.putString("filename", prefs.getString(KEY_PREVIOUS_FILENAME, "0"));
+
+        editor.commit();
+
+        // The previous switch is the last one that was actually applied
+        SharedPreferences.Editor journalEditor = prefs.edit();
+        journalEditor.putString(KEY_OP, OP_LOAD);
+        journalEditor.putString(KEY_FILENAME, prefs.getString(KEY_PREVIOUS_FILENAME, null));
+        journalEditor.putBoolean(KEY_DONE, true);
+        journalEditor.apply();
+    }
+
+    // Finishes or undoes a switch that was interrupted.  current.xml is updated before this
+    // returns, so the caller can carry on with its normal boot path afterwards.
+    public synchronized void recover(Context context) {
+        SharedPreferences prefs = getPrefs(context);
+        String op = prefs.getString(KEY_OP, null);
+
+        if(op == null || prefs.getBoolean(KEY_DONE, true))
+            return;
+
+        // The restart most likely did happen; current.xml already holds the state after the switch
+        if(prefs.getBoolean(KEY_RESTART, false)) {
+            Log.i(TAG, "Not replaying interrupted switch, as it restarts the activity manager");
+
+            prefs.edit().putBoolean(KEY_DONE, true).commit();
+            return;
+        }
+
+        String filename = prefs.getString(KEY_FILENAME, null);
+        boolean replay = OP_TURN_OFF.equals(op)
+                || (filename != null && (U.profileExists(context, filename) || "quick_actions".equals(filename)));
+
+        Map<String, ?> entries = prefs.getAll();
+        HashMap<String, Object> system = new HashMap<>();
+
+        for(Map.Entry<String, ?> entry : entries.entrySet()) {
+            if(entry.getKey().startsWith(PREFIX_SYSTEM))
+                system.put(entry.getKey().substring(PREFIX_SYSTEM.length()), entry.getValue());
+        }
+
+        // Put current.xml back the way it was before the switch (to run it again), or the way it
+        // would have been after it (to turn it off).  If the switch was interrupted before its
+        // commands were built, the state after it is unknown, so it is rolled back to the start.
+        String prefix = replay || !prefs.getBoolean(KEY_PREPARED, true) ? PREFIX_BEFORE : PREFIX_AFTER;
+        SharedPreferences.Editor editor = U.getPrefCurrent(context).edit();
+        editor.clear();
+
+        for(Map.Entry<String, ?> entry : entries.entrySet()) {
+            if(entry.getKey().startsWith(prefix))
+                put(editor, entry.getKey().substring(prefix.length()), entry.getValue());
+        }
+
+        editor.commit();
+        prefs.edit().putBoolean(KEY_DONE, true).commit();
+
+        Intent intent;
+        if(replay && OP_LOAD.equals(op)) {
+            Log.i(TAG, "Replaying interrupted load of profile " + filename);
+
+            intent = new Intent(context, ProfileLoadService.class);
+            intent.putExtra(U.NAME, filename);
+            intent.putExtra(EXTRA_SYSTEM_STATE, system);
+        } else if(replay || !U.getPrefCurrent(context).getBoolean("not_active", true)) {
+            Log.i(TAG, replay ? "Replaying interrupted turn-off" : "Rolling back interrupted load of profile " + filename);
+
+            intent = new Intent(context, TurnOffService.class);
+        } else
+            return;
+
+        U.startService(context, intent);
+    }
+
+    private SharedPreferences.Editor newEntry(Context context, String op, String filename,
+                                              Map<String, ?> before, Map<String, ?> system) {
+        SharedPreferences prefs = getPrefs(context);
+
+        // current.xml is given the requested filename as soon as a switch is requested, so the
+        // filename of the profile that was actually active comes from the previous entry instead
+        String previousFilename = null;
+        if(OP_LOAD.equals(prefs.getString(KEY_OP, null)) && prefs.getBoolean(KEY_DONE, false))
+            previousFilename = prefs.getString(KEY_FILENAME, null);
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.clear();
+        editor.putString(KEY_OP, op);
+        editor.putString(KEY_FILENAME, filename);
+        editor.putString(KEY_PREVIOUS_FILENAME, previousFilename);
+        editor.putBoolean(KEY_DONE, false);
+        editor.putLong(KEY_TIME, System.currentTimeMillis());
+        editor.putBoolean(KEY_RESTART, false);
+        editor.putBoolean(KEY_PREPARED, false);
+
+        putAll(editor, PREFIX_BEFORE, before);
+        putAll(editor, PREFIX_SYSTEM, system);
+
+        return editor;
+    }
+
+    private static void putAll(SharedPreferences.Editor editor, String prefix, Map<String, ?> values) {
+        for(Map.Entry<String, ?> entry : values.entrySet()) {
+            put(editor, prefix + entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(SharedPreferences.Editor editor, String key, Object value) {
+        if(value instanceof String)
+            editor.putString(key, (String) value);
+        else if(value instanceof Boolean)
+            editor.putBoolean(key, (Boolean) value);
+        else if(value instanceof Integer)
+            editor.putInt(key, (Integer) value);
+        else if(value instanceof Long)
+            editor.putLong(key, (Long) value);
+        else if(value instanceof Float)
+            editor.putFloat(key, (Float) value);
+        else if(value instanceof Set)
+            editor.putStringSet(key, (Set<String>) value);
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(FILENAME, Context.MODE_PRIVATE);
+    }
+}
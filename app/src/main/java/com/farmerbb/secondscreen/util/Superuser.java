@@ -15,12 +15,42 @@
 
 package com.farmerbb.secondscreen.util;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
 import eu.chainfire.libsuperuser.Shell;
 
+// Owns a small pool of long-lived, interactive root shells.  Forking a new su process (and waiting
+// on the su daemon handshake) for every batch of commands is slow, so shells are kept warm and
+// reused by every caller.  Idle shells are evicted after a while, shells are health-checked before
+// being handed out, and a dead shell is simply replaced with a freshly spawned one.
 class Superuser {
 
+    // Maximum number of idle shells kept around for reuse
+    private static final int MAX_POOL_SIZE = 2;
+
+    // Idle shells are closed once they have been unused for this long
+    private static final long IDLE_TIMEOUT = 60000;
+
+    // Shells that have been idle for this long are probed again before being reused
+    private static final long HEALTH_CHECK_INTERVAL = 10000;
+
+    // Commands that take longer than this (in seconds) cause the shell to be killed
+    private static final int WATCHDOG_TIMEOUT = 30;
+
     private Boolean hasRoot = null;
 
+    private final ArrayDeque<Session> pool = new ArrayDeque<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable evictIdleSessions = this::evictIdleSessions;
+
     private static Superuser theInstance;
 
     private Superuser() {}
@@ -36,13 +66,247 @@ class Superuser {
     }
 
     boolean available(boolean forceRecheck) {
-        if(hasRoot == null || forceRecheck)
-            hasRoot = Shell.SU.available();
+        if(hasRoot == null || forceRecheck) {
+            // Acquiring a session doubles as the root check; the shell is then kept warm
+            // for the commands that will almost certainly follow.
+            Session session = acquire(forceRecheck);
+            hasRoot = session != null;
+
+            if(session != null)
+                release(session);
+        }
 
         return hasRoot;
     }
 
-    void run(String[] commands) {
-        Shell.SU.run(commands);
+    // Makes sure there is a shell in the pool, so the next command doesn't have to wait for su
+    void warmUp() {
+        Session session = acquire(false);
+        if(session != null)
+            release(session);
+    }
+
+    List<CommandResult> run(String[] commands) {
+        List<CommandResult> results = runInSession(commands);
+
+        for(CommandResult result : results) {
+            CommandTrace.getInstance().record(result);
+        }
+
+        return results;
+    }
+
+    // Same as above, but without recording the commands in the CommandTrace
+    List<CommandResult> runUntraced(String[] commands) {
+        return runInSession(commands);
+    }
+
+    private List<CommandResult> runInSession(String[] commands) {
+        Session session = acquire(false);
+        if(session == null) {
+            hasRoot = false;
+            return failedResults(commands, Shell.OnCommandResultListener.SHELL_EXEC_FAILED);
+        }
+
+        List<CommandResult> results = session.run(commands);
+
+        // If the shell died before it could run anything, try again once with a fresh one
+        if(!session.isRunning() && !results.isEmpty()
+                && results.get(0).getExitCode() == Shell.OnCommandResultListener.SHELL_DIED) {
+            session.kill();
+            session = Session.open();
+
+            if(session == null) {
+                hasRoot = false;
+                return results;
+            }
+
+            results = session.run(commands);
+        }
+
+        if(session.isRunning())
+            release(session);
+        else
+            session.kill();
+
+        return results;
+    }
+
+    private Session acquire(boolean forceHealthCheck) {
+        synchronized(pool) {
+            while(!pool.isEmpty()) {
+                Session session = pool.pollLast();
+                if(session.isHealthy(forceHealthCheck))
+                    return session;
+
+                session.kill();
+            }
+        }
+
+        return Session.open();
+    }
+
+    private void release(Session session) {
+        session.lastUsed = SystemClock.elapsedRealtime();
+
+        synchronized(pool) {
+            if(pool.size() < MAX_POOL_SIZE) {
+                pool.addLast(session);
+                session = null;
+            }
+        }
+
+        if(session != null)
+            session.close();
+
+        handler.removeCallbacks(evictIdleSessions);
+        handler.postDelayed(evictIdleSessions, IDLE_TIMEOUT);
+    }
+
+    private void evictIdleSessions() {
+        long now = SystemClock.elapsedRealtime();
+        boolean sessionsRemaining;
+
+        synchronized(pool) {
+            Iterator<Session> iterator = pool.iterator();
+            while(iterator.hasNext()) {
+                Session session = iterator.next();
+                if(now - session.lastUsed >= IDLE_TIMEOUT || !session.isRunning()) {
+                    iterator.remove();
+                    session.kill();
+                }
+            }
+
+            sessionsRemaining = !pool.isEmpty();
+        }
+
+        if(sessionsRemaining)
+            handler.postDelayed(evictIdleSessions, IDLE_TIMEOUT);
+    }
+
+    private static List<CommandResult> failedResults(String[] commands, int exitCode) {
+        List<CommandResult> results = new ArrayList<>(commands.length);
+        for(String command : commands) {
+            if(command != null && !command.isEmpty())
+                results.add(new CommandResult(command, exitCode, null));
+        }
+
+        return results;
+    }
+
+    // A single interactive su shell.  Commands are queued one at a time so that each one
+    // reports its own exit code and output.
+    private static final class Session {
+
+        private final Shell.Interactive shell;
+        private long lastUsed = SystemClock.elapsedRealtime();
+
+        private Session(Shell.Interactive shell) {
+            this.shell = shell;
+        }
+
+        static Session open() {
+            long start = CommandTrace.now();
+            Session session = openSession();
+
+            // Opening a shell (and waiting on the su daemon) is recorded as a step of its own
+            CommandTrace.getInstance().recordSince(CommandTrace.Backend.ROOT_SHELL, "su", start,
+                    session != null, "Unable to open a root shell");
+
+            return session;
+        }
+
+        private static Session openSession() {
+            Shell.Interactive shell = new Shell.Builder()
+                    .useSU()
+                    .setWantSTDERR(true)
+                    .setWatchdogTimeout(WATCHDOG_TIMEOUT)
+                    .setMinimalLogging(true)
+                    .setAutoHandler(false)
+                    .open();
+
+            Session session = new Session(shell);
+            if(session.probe())
+                return session;
+
+            session.kill();
+            return null;
+        }
+
+        boolean isRunning() {
+            return shell.isRunning();
+        }
+
+        boolean isHealthy(boolean forceHealthCheck) {
+            if(!shell.isRunning())
+                return false;
+
+            if(forceHealthCheck || SystemClock.elapsedRealtime() - lastUsed >= HEALTH_CHECK_INTERVAL)
+                return probe();
+
+            return true;
+        }
+
+        // Verifies that the shell is alive and actually running as root
+        private boolean probe() {
+            List<CommandResult> results = run(new String[]{"id"});
+            if(results.isEmpty() || !results.get(0).isSuccessful())
+                return false;
+
+            for(String line : results.get(0).getOutput()) {
+                if(line.contains("uid=0"))
+                    return true;
+            }
+
+            return false;
+        }
+
+        List<CommandResult> run(String[] commands) {
+            List<String> queued = new ArrayList<>(commands.length);
+            for(String command : commands) {
+                if(command != null && !command.isEmpty())
+                    queued.add(command);
+            }
+
+            CommandResult[] results = new CommandResult[queued.size()];
+
+            // Commands run one after the other, so each one took from when the previous one
+            // finished until it finished itself
+            final long[] lastFinished = {CommandTrace.now()};
+
+            for(int i = 0; i < queued.size(); i++) {
+                final String command = queued.get(i);
+                shell.addCommand(command, i, (commandCode, exitCode, output) -> {
+                    long finished = CommandTrace.now();
+                    results[commandCode] = new CommandResult(command, exitCode, output, finished - lastFinished[0]);
+                    lastFinished[0] = finished;
+                });
+            }
+
+            try {
+                shell.waitForIdle();
+            } catch (Exception e) { /* Gracefully fail */ }
+
+            for(int i = 0; i < results.length; i++) {
+                if(results[i] == null)
+                    results[i] = new CommandResult(queued.get(i), Shell.OnCommandResultListener.SHELL_DIED, null);
+            }
+
+            return new ArrayList<>(Arrays.asList(results));
+        }
+
+        void close() {
+            try {
+                shell.close();
+            } catch (Exception e) {
+                kill();
+            }
+        }
+
+        void kill() {
+            try {
+                shell.kill();
+            } catch (Exception e) { /* Gracefully fail */ }
+        }
     }
-}
\ No newline at end of file
+}
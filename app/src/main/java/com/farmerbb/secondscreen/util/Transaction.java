@@ -0,0 +1,212 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.chainfire.libsuperuser.Shell;
+
+// Lets a batch of commands be applied all-or-nothing.
+//
+// Before the commands are run, the current value of everything they are about to change is
+// captured, and an inverse command is built for each one.  Once they have been run, each result
+// is checked; if a command that changes something failed, or any command timed out (and was
+// killed by the shell's watchdog), the commands that did succeed are undone in reverse order,
+// leaving the device the way it was before the batch was started.
+//
+// Commands that can be undone are the ones that change a setting: "settings put", "wm size" and
+// "wm density" (the current override is queried from wm), "svc wifi", and "setprop".  Everything
+// else (UI refreshes, broadcasts, sysfs writes, and so on) either has no lasting effect or can't
+// be queried beforehand, and is left alone.
+final class Transaction {
+
+    private static final String TAG = "SecondScreen";
+
+    private static final class Entry {
+        private final String command;
+        private Command inverse;
+        private boolean applied = false;
+
+        private Entry(String command, Command inverse) {
+            this.command = command;
+            this.inverse = inverse;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    private Transaction() {}
+
+    // Captures the current state of everything the commands are about to change.
+    // Must be called right before the commands are run.
+    static Transaction capture(Context context, Command[] commands) {
+        Transaction transaction = new Transaction();
+
+        // wm and getprop queries need a shell; they are batched into a single run
+        List<String> queries = new ArrayList<>();
+        List<Entry> pending = new ArrayList<>();
+        List<Command> pendingCommands = new ArrayList<>();
+
+        for(Command command : commands) {
+            command = Command.strip(command);
+            if(command == null)
+                continue;
+
+            String query = getQuery(command);
+            Entry entry = new Entry(command.toString(), query == null ? getInverse(context, command) : null);
+            transaction.entries.add(entry);
+
+            if(query != null) {
+                queries.add(query);
+                pending.add(entry);
+                pendingCommands.add(command);
+            }
+        }
+
+        if(!queries.isEmpty()) {
+            List<CommandResult> results = Superuser.getInstance().run(queries.toArray(new String[queries.size()]));
+
+            for(int i = 0; i < pending.size() && i < results.size(); i++) {
+                if(results.get(i).isSuccessful())
+                    pending.get(i).inverse = getInverse(pendingCommands.get(i), results.get(i).getOutput());
+            }
+        }
+
+        return transaction;
+    }
+
+    // Checks the results of running the commands.  Returns true if everything was applied;
+    // otherwise, returns false, and getRollbackCommands() returns the commands to undo it.
+    boolean commit(List<CommandResult> results) {
+        boolean failed = false;
+
+        for(CommandResult result : results) {
+            Entry entry = find(result.getCommand());
+
+            if(result.isSuccessful()) {
+                if(entry != null)
+                    entry.applied = true;
+            } else if(result.getExitCode() == Shell.OnCommandResultListener.WATCHDOG_EXIT
+                    || (entry != null && entry.inverse != null)) {
+                Log.w(TAG, "Command failed (" + result.getExitCode() + "): " + result.getCommand());
+                failed = true;
+            }
+        }
+
+        return !failed;
+    }
+
+    // Inverse commands for everything that was applied, most recent first
+    Command[] getRollbackCommands() {
+        List<Command> rollback = new ArrayList<>();
+
+        for(Entry entry : entries) {
+            if(entry.applied && entry.inverse != null)
+                rollback.add(entry.inverse);
+        }
+
+        Collections.reverse(rollback);
+        return rollback.toArray(new Command[rollback.size()]);
+    }
+
+    private Entry find(String command) {
+        for(Entry entry : entries) {
+            if(!entry.applied && entry.command.equals(command))
+                return entry;
+        }
+
+        return null;
+    }
+
+    // Returns the shell command that reports the current state of what the command changes,
+    // for commands whose state can only be read through a shell
+    private static String getQuery(Command command) {
+        if(command instanceof Command.WmSize || command instanceof Command.WmDensity)
+            return ((Command.WmCommand) command).getQuery();
+
+        if(command instanceof Command.SetProp)
+            return "getprop " + ((Command.SetProp) command).getKey();
+
+        return null;
+    }
+
+    // Builds the inverse of a wm or setprop command from the output of its query
+    private static Command getInverse(Command command, List<String> output) {
+        if(command instanceof Command.SetProp)
+            return output.isEmpty() || output.get(0).isEmpty()
+                    ? null
+                    : Command.setProp(((Command.SetProp) command).getKey(), output.get(0).trim());
+
+        // "wm size" prints "Physical size: ..." followed by "Override size: ..." if it was changed
+        String override = "reset";
+        for(String line : output) {
+            if(line.startsWith("Override ")) {
+                override = line.substring(line.indexOf(':') + 1).trim();
+                break;
+            }
+        }
+
+        return ((Command.WmCommand) command).withValue(override);
+    }
+
+    // Builds the inverse of a settings or Wi-Fi command from the current state
+    private static Command getInverse(Context context, Command command) {
+        if(command instanceof Command.SettingsPut) {
+            Command.SettingsPut put = (Command.SettingsPut) command;
+
+            String value;
+            try {
+                value = getSetting(context.getContentResolver(), put.getNamespace(), put.getKey());
+            } catch (SecurityException e) {
+                return null;
+            }
+
+            if(value == null)
+                return Command.shell("settings delete " + put.getNamespace() + " " + put.getKey());
+
+            // Values with spaces can't be passed back through the shell as-is
+            return value.contains(" ") ? null : Command.settingsPut(put.getNamespace(), put.getKey(), value);
+        }
+
+        if(command instanceof Command.SvcWifi) {
+            WifiManager wifi = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+            return U.wifiCommand(wifi.isWifiEnabled());
+        }
+
+        return null;
+    }
+
+    private static String getSetting(ContentResolver resolver, String namespace, String key) {
+        switch(namespace) {
+            case "global":
+                return Settings.Global.getString(resolver, key);
+            case "secure":
+                return Settings.Secure.getString(resolver, key);
+            case "system":
+                return Settings.System.getString(resolver, key);
+            default:
+                throw new SecurityException("Unknown namespace: " + namespace);
+        }
+    }
+}
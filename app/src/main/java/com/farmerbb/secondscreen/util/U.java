@@ -42,6 +42,7 @@ import android.os.Build;
 import android.preference.Preference;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
+import android.text.TextUtils;
 import androidx.core.app.NotificationCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.appcompat.app.AlertDialog;
@@ -60,23 +61,29 @@ import com.farmerbb.secondscreen.activity.RebootRequiredActivity;
 import com.farmerbb.secondscreen.activity.TaskerQuickActionsActivity;
 import com.farmerbb.secondscreen.activity.WriteSettingsPermissionActivity;
 import com.farmerbb.secondscreen.receiver.LockDeviceReceiver;
+import com.farmerbb.secondscreen.service.JobRunner;
 import com.farmerbb.secondscreen.service.ProfileLoadService;
 import com.farmerbb.secondscreen.service.TurnOffService;
 import com.farmerbb.secondscreen.support.NonRootUtils;
 import com.farmerbb.secondscreen.support.SupportUtils;
+import com.farmerbb.secondscreen.util.Readiness.Signal;
+
+import eu.chainfire.libsuperuser.Shell;
 
 import org.apache.commons.lang3.math.NumberUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 
@@ -97,6 +104,9 @@ public final class U {
     // Sent when SecondScreen detects a screen disconnection
     public static final String SCREEN_DISCONNECT = "com.farmerbb.secondscreen.SCREEN_DISCONNECT";
 
+    // Asks the running NotificationService to refresh its notification
+    public static final String UPDATE_NOTIFICATION = "com.farmerbb.secondscreen.UPDATE_NOTIFICATION";
+
     // Used by debug mode
     public static final String SIMULATE_REBOOT = "com.farmerbb.secondscreen.SIMULATE_REBOOT";
     public static final String SIMULATE_APP_UPGRADE = "com.farmerbb.secondscreen.SIMULATE_APP_UPGRADE";
@@ -142,141 +152,170 @@ public final class U {
 
     // Commands for features with boolean values.
     // "true" to turn a feature on, "false" to turn it off
-    private static final String navbarCommand = "settings put secure dev_force_show_navbar ";
-    public static String navbarCommand(boolean checked) {
-        if(checked)
-            return navbarCommand + "1";
-        else
-            return navbarCommand + "0";
+    public static Command navbarCommand(boolean checked) {
+        return Command.settingsPut("secure", "dev_force_show_navbar", checked ? "1" : "0");
     }
 
-    private static final String showTouchesCommand = "settings put system show_touches ";
-    public static String showTouchesCommand(boolean checked) {
-        if(checked)
-            return showTouchesCommand + "1";
-        else
-            return showTouchesCommand + "0";
+    public static Command showTouchesCommand(boolean checked) {
+        return Command.settingsPut("system", "show_touches", checked ? "1" : "0");
     }
 
-    private static final String daydreamsCommand = "settings put secure screensaver_enabled ";
-    public static String daydreamsCommand(boolean checked) {
-        if(checked)
-            return daydreamsCommand + "1";
-        else
-            return daydreamsCommand + "0";
+    public static Command daydreamsCommand(boolean checked) {
+        return Command.settingsPut("secure", "screensaver_enabled", checked ? "1" : "0");
     }
 
-    private static final String daydreamsChargingCommand = "settings put secure screensaver_activate_on_sleep ";
-    public static String daydreamsChargingCommand(boolean checked) {
-        if(checked)
-            return daydreamsChargingCommand + "1";
-        else
-            return daydreamsChargingCommand + "0";
+    public static Command daydreamsChargingCommand(boolean checked) {
+        return Command.settingsPut("secure", "screensaver_activate_on_sleep", checked ? "1" : "0");
     }
 
-    private static final String freeformCommand = "settings put global enable_freeform_support ";
-    public static String freeformCommand(boolean checked) {
-        if(checked)
-            return freeformCommand + "1";
-        else
-            return freeformCommand + "0";
+    public static Command freeformCommand(boolean checked) {
+        return Command.settingsPut("global", "enable_freeform_support", checked ? "1" : "0");
+    }
+
+    // Non-boolean commands.  These take a variable value as an argument to the method.
+    public static final Command chromeCommandRemove = Command.shell("rm " + CHROME_COMMAND_LINE);
+
+    public static Command rotationCommand(int dockState) {
+        return Command.am("broadcast -a android.intent.action.DOCK_EVENT --ei android.intent.extra.DOCK_STATE " + dockState);
     }
 
-    // Non-boolean commands.  Most of these take a variable value either as an argument to the method,
-    // or by tacking the argument onto the end of the string.
-    public static final String chromeCommandRemove = "rm " + CHROME_COMMAND_LINE;
-    public static final String rotationCommand = "am broadcast -a android.intent.action.DOCK_EVENT --ei android.intent.extra.DOCK_STATE ";
-    public static final String rotationPrePostCommands = "settings put secure screensaver_activate_on_dock ";
-    public static final String stayOnCommand = "settings put global stay_on_while_plugged_in ";
-    public static final String timeoutCommand = "settings put secure lock_screen_lock_after_timeout ";
-    public static final String hdmiRotationCommand = "setprop persist.demo.hdmirotation ";
-    public static final String setHomeActivityCommand = "cmd package set-home-activity ";
+    public static Command rotationPrePostCommands(int value) {
+        return Command.settingsPut("secure", "screensaver_activate_on_dock", String.valueOf(value));
+    }
 
-    public static String wifiCommand(boolean enabled) {
-        return "svc wifi " + (enabled ? "enable" : "disable");
+    public static Command stayOnCommand(int value) {
+        return Command.settingsPut("global", "stay_on_while_plugged_in", String.valueOf(value));
     }
 
-    public static String safeModeSizeCommand(String args) {
+    public static Command timeoutCommand(int timeout) {
+        return Command.settingsPut("secure", "lock_screen_lock_after_timeout", String.valueOf(timeout));
+    }
+
+    public static Command hdmiRotationCommand(String rotation) {
+        return Command.setProp("persist.demo.hdmirotation", rotation);
+    }
+
+    public static Command setHomeActivityCommand(String component) {
+        return Command.shell("cmd package set-home-activity " + component);
+    }
+
+    public static Command wifiCommand(boolean enabled) {
+        return Command.svcWifi(enabled);
+    }
+
+    public static Command safeModeSizeCommand(String args) {
         if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N)
-            return "settings put global display_size_forced " + args;
+            return Command.settingsPut("global", "display_size_forced", args);
         else
-            return "settings put secure display_size_forced " + args;
+            return Command.settingsPut("secure", "display_size_forced", args);
     }
 
-    public static String safeModeDensityCommand(String args) {
+    public static Command safeModeDensityCommand(String args) {
         if(Build.VERSION.SDK_INT < Build.VERSION_CODES.N)
-            return "settings put global display_density_forced " + args;
+            return Command.settingsPut("global", "display_density_forced", args);
         else
-            return "settings put secure display_density_forced " + args;
+            return Command.settingsPut("secure", "display_density_forced", args);
     }
 
-    public static String sizeCommand(Context context, String args) {
+    public static Command sizeCommand(Context context, String args) {
         if(isDesktopModeActive(context))
-            return "wm size " + args + " -d " + getExternalDisplayID(context);
+            return Command.wmSize(args, getExternalDisplayID(context));
         else if(Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR1)
-            return "wm size " + args;
+            return Command.wmSize(args, Display.INVALID_DISPLAY);
         else
-            return "am display-size " + args;
+            return Command.am("display-size " + args);
     }
 
-    public static String densityCommand(Context context, String args) {
+    public static Command densityCommand(Context context, String args) {
         if(isDesktopModeActive(context))
-            return "wm density " + args + " -d " + getExternalDisplayID(context);
+            return Command.wmDensity(args, getExternalDisplayID(context));
         if(Build.VERSION.SDK_INT > Build.VERSION_CODES.JELLY_BEAN_MR1)
-            return "wm density " + args;
+            return Command.wmDensity(args, Display.INVALID_DISPLAY);
         else
-            return "am display-density " + args;
+            return Command.am("display-density " + args);
     }
 
-    public static String overscanCommand(Context context, String args) {
+    public static Command overscanCommand(Context context, String args) {
         if(isDesktopModeActive(context))
-            return "wm overscan " + args + " -d " + getExternalDisplayID(context);
+            return Command.wmOverscan(args, getExternalDisplayID(context));
         else
-            return "wm overscan " + args;
+            return Command.wmOverscan(args, Display.INVALID_DISPLAY);
     }
 
-    public static String chromeCommand(Context context) {
-        return "echo 'chrome --user-agent=\"Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/" + getChromeVersion(context) + " Safari/537.36\"' > " + CHROME_COMMAND_LINE + " && chmod 644 " + CHROME_COMMAND_LINE;
+    // Builds the overscan command for the overscan values of a profile.
+    // Values are only reordered for landscape devices when switching from another profile.
+    public static Command overscanCommand(Context context, Profile profile, boolean switching) {
+        SharedPreferences prefMain = getPrefMain(context);
+        String overscanValues;
+
+        if(switching && prefMain.getBoolean("landscape", false)) {
+            overscanValues = profile.getInt(Profile.Field.OVERSCAN_LEFT) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_TOP) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_RIGHT) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_BOTTOM);
+        } else {
+            overscanValues = profile.getInt(Profile.Field.OVERSCAN_BOTTOM) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_LEFT) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_TOP) + ","
+                    + profile.getInt(Profile.Field.OVERSCAN_RIGHT);
+        }
+
+        // Fix overscan values under certain conditions
+        if(isDesktopModeActive(context) && !prefMain.getBoolean("landscape", false)) {
+            String[] splitValues = overscanValues.split(",");
+            overscanValues = splitValues[1] + ","
+                    + splitValues[2] + ","
+                    + splitValues[3] + ","
+                    + splitValues[0];
+        }
+
+        return overscanCommand(context, overscanValues);
     }
 
-    public static String chromeCommand2(Context context) {
-        return "am force-stop " + getChromePackageName(context);
+    public static Command chromeCommand(Context context) {
+        return Command.shell("echo 'chrome --user-agent=\"Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/" + getChromeVersion(context) + " Safari/537.36\"' > " + CHROME_COMMAND_LINE + " && chmod 644 " + CHROME_COMMAND_LINE);
     }
 
-    public static String immersiveCommand(String pref) {
-        String returnCommand = "settings put global policy_control ";
+    public static Command chromeCommand2(Context context) {
+        return Command.am("force-stop " + getChromePackageName(context));
+    }
+
+    public static Command immersiveCommand(String pref) {
+        String value = "";
 
         switch(pref) {
             case "status-only":
-                returnCommand = returnCommand + "immersive.navigation=*";
+                value = "immersive.navigation=*";
                 break;
             case "immersive-mode":
-                returnCommand = returnCommand + "immersive.full=*";
+                value = "immersive.full=*";
                 break;
             case "do-nothing":
-                returnCommand = returnCommand + "null";
+                value = "null";
                 break;
         }
 
-        return returnCommand;
+        return Command.settingsPut("global", "policy_control", value);
     }
 
-    public static String uiRefreshCommand(Context context, boolean restartActivityManager) {
+    public static Command uiRefreshCommand(Context context, boolean restartActivityManager) {
         ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
         List<ActivityManager.RunningAppProcessInfo> pids = am.getRunningAppProcesses();
         int processid = 0;
 
         if(restartActivityManager) {
-            // Kill surfaceflinger if on a Jelly Bean device; run "am restart" if on KitKat or later
+            // Kill surfaceflinger if on a Jelly Bean device; run "am restart" if on KitKat or later.
+            // The settings written before this don't cause any display changes to wait on, so the
+            // fixed delay is kept to give them time to be persisted before the framework restarts.
             if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
                 for(ActivityManager.RunningAppProcessInfo process : pids) {
                     if(process.processName.equalsIgnoreCase("/system/bin/surfaceflinger"))
                         processid = process.pid;
                 }
 
-                return "sleep 1 && kill " + processid;
+                return Command.await(Signal.DELAY, 1000, Command.shell("kill " + processid));
             } else
-                return "sleep 1 && am restart";
+                return Command.await(Signal.DELAY, 1000, Command.am("restart"));
         } else {
             // Get SystemUI pid
             for(ActivityManager.RunningAppProcessInfo process : pids) {
@@ -290,17 +329,15 @@ public final class U {
             // instead, and hope that the user has that command available on their device.
             // Starting with 7.0, pkill doesn't work, so use "kill" and "pidof" instead.
             if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
-                return "sleep 2 && kill `pidof com.android.systemui`";
+                return Command.await(Signal.DISPLAY, 2000, Command.shell("kill `pidof com.android.systemui`"));
             else if(processid == 0)
-                return "sleep 2 && pkill com.android.systemui";
+                return Command.await(Signal.DISPLAY, 2000, Command.shell("pkill com.android.systemui"));
             else
-                return "sleep 2 && kill " + processid;
+                return Command.await(Signal.DISPLAY, 2000, Command.shell("kill " + processid));
         }
     }
 
-    public static String uiRefreshCommand2(Context context, boolean shouldClearHome) {
-        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-
+    public static Command uiRefreshCommand2(Context context, boolean shouldClearHome) {
         // For better reliability, we execute the UI refresh while on the home screen
         Intent homeIntent = new Intent(Intent.ACTION_MAIN);
         homeIntent.addCategory(Intent.CATEGORY_HOME);
@@ -312,23 +349,19 @@ public final class U {
             } catch (ActivityNotFoundException e) { /* Gracefully fail */ }
         }
 
-        // Kill all background processes, in order to fully refresh UI
-        PackageManager pm = context.getPackageManager();
-        List<ApplicationInfo> packages = pm.getInstalledApplications(0);
-        for(ApplicationInfo packageInfo : packages) {
-            if(!packageInfo.packageName.equalsIgnoreCase(context.getPackageName()))
-                am.killBackgroundProcesses(packageInfo.packageName);
-        }
-
         // Get launcher package name
+        PackageManager pm = context.getPackageManager();
         final ResolveInfo mInfo = pm.resolveActivity(homeIntent, 0);
         final String launcherPackageName = mInfo.activityInfo.applicationInfo.packageName;
 
+        // Kill the background processes left with a stale configuration, in order to fully refresh UI
+        ProcessRestarter.killStaleProcesses(context, launcherPackageName);
+
         if(launcherPackageName.equals(getTaskbarPackageName(context))
                 || launcherPackageName.equals("android"))
-            return "sleep 1";
+            return Command.await(Signal.SYSTEM_UI, 1000, null);
         else
-            return "sleep 1 && am force-stop " + launcherPackageName;
+            return Command.await(Signal.SYSTEM_UI, 1000, Command.am("force-stop " + launcherPackageName));
     }
 
     // Runs checks to determine if size or density commands need to be run.
@@ -431,36 +464,33 @@ public final class U {
         return getPrefSaved(context, context.getPackageName() + "_preferences");
     }
 
-    // Gets any XML file corresponding to a saved profile filename.
+    // Gets the preferences corresponding to a saved profile filename.
+    // Saved profiles live in the ProfileStore; anything else is a regular XML file.
     public static SharedPreferences getPrefSaved(Context context, String filename) {
+        if(isValidFilename(filename))
+            return ProfileStore.getInstance().getPreferences(context, filename);
+
         return context.getSharedPreferences(filename, Context.MODE_PRIVATE);
     }
 
     // Methods used for generating the list of saved profiles
 
-    // Returns list of filenames in /data/data/com.farmerbb.secondscreen/files/, plus a fake entry for "Turn Off"
-    private static String[] getListOfProfiles(File file) {
-        return file.list();
+    // Checks if a saved profile exists with the given filename
+    public static boolean profileExists(Context context, String filename) {
+        return ProfileStore.getInstance().exists(context, filename);
     }
 
-    private static String[] getListOfProfiles(File file, String fakeEntry) {
-        String[] list = file.list();
-        String[] realList = new String[list.length + 1];
-
-        System.arraycopy(list, 0, realList, 0, list.length);
-
-        realList[list.length] = fakeEntry;
-
-        return realList;
-    }
+    // Loads the title of a profile for display in the ListView
+    public static String getProfileTitle(Context context, String filename) throws IOException {
+        String title = ProfileStore.getInstance().getTitle(context, filename);
+        if(title == null)
+            throw new FileNotFoundException(filename);
 
-    // Returns an integer with number of files in /data/data/com.farmerbb.secondscreen/files/
-    public static int getNumOfFiles(File file) {
-        return new File(file.getPath()).list().length;
+        return title;
     }
 
-    // Loads first line of a profile for display in the ListView
-    public static String getProfileTitle(Context context, String filename) throws IOException {
+    // Loads first line of a title file saved by older versions, for migration into the ProfileStore
+    static String readTitleFile(Context context, String filename) throws IOException {
         // Open the file on disk
         FileInputStream input = context.openFileInput(filename);
         InputStreamReader reader = new InputStreamReader(input);
@@ -485,87 +515,28 @@ public final class U {
     }
 
     private static String[][] listProfiles(Context context, boolean fakeEntry, String fakeEntryValue, int fakeEntryTitle) {
-        // Get number of files
-        int numOfFiles = getNumOfFiles(context.getFilesDir());
-        int numOfProfiles = numOfFiles;
-
-        // Get array of filenames
-        String[] listOfFiles;
-        ArrayList<String> listOfProfiles = new ArrayList<>();
-
-        if(fakeEntry)
-            listOfFiles = getListOfProfiles(context.getFilesDir(), fakeEntryValue);
-        else
-            listOfFiles = getListOfProfiles(context.getFilesDir());
+        ProfileIndex.Snapshot snapshot = ProfileIndex.getInstance().getSnapshot(context);
 
-        // Remove any files from the list that aren't profiles
-        for(int i = 0; i < numOfFiles; i++) {
-            if(isValidFilename(listOfFiles[i]) && !listOfFiles[i].equals(fakeEntryValue))
-                listOfProfiles.add(listOfFiles[i]);
-            else
-                numOfProfiles--;
-        }
-
-        if(numOfProfiles == 0)
+        if(snapshot.isEmpty())
             return null;
-        else {
-            // Get "fake" number of files, if applicable
-            int fakeNumOfProfiles;
-            if(fakeEntry)
-                fakeNumOfProfiles = numOfProfiles + 1;
-            else
-                fakeNumOfProfiles = numOfProfiles;
-
-            // Create arrays of profile lists
-            String[] listOfProfilesByDate = new String[fakeNumOfProfiles];
-            String[] listOfProfilesByName = new String[fakeNumOfProfiles];
-
-            String[] listOfTitlesByDate = new String[fakeNumOfProfiles];
-            String[] listOfTitlesByName = new String[fakeNumOfProfiles];
-
-            for(int i = 0; i < numOfProfiles; i++) {
-                listOfProfilesByDate[i] = listOfProfiles.get(i);
-            }
-
-            // Get array of first lines of each profile
-            for(int i = 0; i < numOfProfiles; i++) {
-                try {
-                    listOfTitlesByDate[i] = getProfileTitle(context, listOfProfilesByDate[i]);
-                } catch (IOException e) {
-                    showToast(context, R.string.error_loading_list);
-                }
-            }
-
-            // Add fake entry, if applicable
-            if(fakeEntry)
-                listOfTitlesByDate[numOfProfiles] = " " + context.getResources().getString(R.string.bullet) + " " + context.getResources().getString(fakeEntryTitle) + " " + context.getResources().getString(R.string.bullet);
-
-            // Sort alphabetically
-            // Copy titles array
-            System.arraycopy(listOfTitlesByDate, 0, listOfTitlesByName, 0, fakeNumOfProfiles);
 
-            // Sort titles
-            Arrays.sort(listOfTitlesByName, (s, t1) -> Collator.getInstance().compare(s, t1));
+        // The fake entry, if applicable, always goes at the top of the list
+        int offset = fakeEntry ? 1 : 0;
 
-            // Initialize profiles array
-            for(int i = 0; i < fakeNumOfProfiles; i++)
-                listOfProfilesByName[i] = "new";
+        String[] listOfProfilesByName = new String[snapshot.size() + offset];
+        String[] listOfTitlesByName = new String[snapshot.size() + offset];
 
-            // Copy filenames array with new sort order of titles and nullify date arrays
-            for(int i = 0; i < fakeNumOfProfiles; i++) {
-                for(int j = 0; j < fakeNumOfProfiles; j++) {
-                    if(listOfTitlesByName[i].equals(listOfTitlesByDate[j]) && listOfProfilesByName[i].equals("new")) {
-                        listOfProfilesByName[i] = listOfProfilesByDate[j];
-                        listOfProfilesByDate[j] = "";
-                        listOfTitlesByDate[j] = "";
-                    }
-                }
-            }
-
-            if(fakeEntry) listOfProfilesByName[0] = fakeEntryValue;
+        if(fakeEntry) {
+            listOfProfilesByName[0] = fakeEntryValue;
+            listOfTitlesByName[0] = " " + context.getResources().getString(R.string.bullet) + " " + context.getResources().getString(fakeEntryTitle) + " " + context.getResources().getString(R.string.bullet);
+        }
 
-            return new String[][] {listOfProfilesByName, listOfTitlesByName};
+        for(int i = 0; i < snapshot.size(); i++) {
+            listOfProfilesByName[i + offset] = snapshot.getFilenames().get(i);
+            listOfTitlesByName[i + offset] = snapshot.getTitles().get(i);
         }
+
+        return new String[][] {listOfProfilesByName, listOfTitlesByName};
     }
 
     // Sends broadcast to refresh list of profiles
@@ -583,46 +554,69 @@ public final class U {
         return hasElevatedPermissions(context, false);
     }
 
+    // The result is cached (see Capabilities); forceRecheck checks everything again first
     public static boolean hasElevatedPermissions(Context context, boolean forceRecheck) {
-        return Superuser.getInstance().available(forceRecheck)
-                || NonRootUtils.hasWriteSecureSettingsPermission(context)
+        Capabilities.Snapshot capabilities = forceRecheck
+                ? Capabilities.getInstance().recheck(context)
+                : Capabilities.getInstance().get(context);
+
+        return capabilities.hasRoot()
+                || capabilities.canWriteSecureSettings()
                 || getPrefMain(context).getBoolean("debug_mode", false);
     }
 
     // Checks if SecondScreen is running in non-root mode.
     public static boolean isInNonRootMode(Context context) {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-                && !(Superuser.getInstance().available()
+                && !(Capabilities.getInstance().get(context).hasRoot()
                 || getPrefMain(context).getBoolean("debug_mode", false));
     }
 
     // Executes multiple commands, either by calling superuser
     // or by writing to the settings database directly.
-    public static void runCommands(Context context, String[] commands, boolean rebootRequired) {
+    public static void runCommands(Context context, Command[] commands, boolean rebootRequired) {
+        runCommands(context, commands, null, rebootRequired);
+    }
+
+    // Same as above, for the commands of a plan, which are applied all-or-nothing when run through
+    // superuser: if one of them fails or times out, the ones that were already applied are undone
+    // in reverse order (see Transaction), and false is returned.
+    // The UI is only refreshed once the steps before the refresh have all been applied.  If a step
+    // after it fails, the refresh is run again after the rollback, so that the UI is laid out for
+    // the values it was rolled back to.
+    // In non-root mode, failures can't be detected, so the commands are always run as-is.
+    public static boolean runCommands(Context context, CommandPlan plan, boolean restartActivityManager, boolean rebootRequired) {
+        return runCommands(context, plan.schedule(restartActivityManager), plan, rebootRequired);
+    }
+
+    private static boolean runCommands(Context context, Command[] commands, CommandPlan plan, boolean rebootRequired) {
+        boolean success = true;
         boolean arrayIsEmpty = true;
-        for(String command : commands) {
-            if(command != null && !command.equals("")) {
+        for(Command command : commands) {
+            if(command != null) {
                 arrayIsEmpty = false;
                 break;
             }
         }
 
-        boolean runAsRoot = Superuser.getInstance().available()
+        boolean runAsRoot = Capabilities.getInstance().get(context).hasRoot()
                 || getPrefMain(context).getBoolean("debug_mode", false);
 
         if(!arrayIsEmpty) {
             if(runAsRoot) {
-                for(String command : commands) {
-                    if(!command.isEmpty()) {
-                        runSuCommands(context, commands);
-                        break;
-                    }
-                }
+                if(plan != null && !getPrefMain(context).getBoolean("debug_mode", false))
+                    success = runTransaction(context, commands, plan);
+                else
+                    runSuCommands(context, commands);
             } else
-                NonRootUtils.runCommands(context, commands);
+                runNonRootCommands(context, commands);
         }
 
-        CommandDispatcher.getInstance().dispatch(context);
+        // Commands queued for the support library belong to the commands that were rolled back
+        if(success)
+            CommandDispatcher.getInstance().dispatch(context);
+        else
+            CommandDispatcher.getInstance().discard();
 
         if(!runAsRoot && rebootRequired) {
             SharedPreferences prefCurrent = getPrefCurrent(context);
@@ -633,22 +627,132 @@ public final class U {
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(intent);
         }
+
+        return success;
+    }
+
+    // Runs the commands of a plan in two parts: everything before the UI refresh, and then (only
+    // if all of that was applied) the refresh and everything after it.  Returns false if the
+    // commands were rolled back.
+    private static boolean runTransaction(Context context, Command[] commands, CommandPlan plan) {
+        Transaction transaction = Transaction.capture(context, commands);
+
+        int refreshIndex = commands.length;
+        List<Command> refreshCommands = new ArrayList<>();
+
+        for(int i = 0; i < commands.length; i++) {
+            if(plan.isRefresh(commands[i])) {
+                refreshIndex = Math.min(refreshIndex, i);
+                refreshCommands.add(commands[i]);
+            }
+        }
+
+        Command[] beforeRefresh = Arrays.copyOfRange(commands, 0, refreshIndex);
+        Command[] afterRefresh = Arrays.copyOfRange(commands, refreshIndex, commands.length);
+
+        if(beforeRefresh.length > 0 && !transaction.commit(runSuCommands(context, beforeRefresh))) {
+            runSuCommands(context, transaction.getRollbackCommands());
+            return false;
+        }
+
+        if(afterRefresh.length > 0 && !transaction.commit(runSuCommands(context, afterRefresh))) {
+            runSuCommands(context, transaction.getRollbackCommands());
+
+            if(!refreshCommands.isEmpty())
+                runSuCommands(context, refreshCommands.toArray(new Command[refreshCommands.size()]));
+
+            return false;
+        }
+
+        return true;
+    }
+
+    // Runs commands through NonRootUtils, one step at a time (consecutive wm commands are still
+    // applied together), so that each step can be timed
+    private static void runNonRootCommands(Context context, Command[] commands) {
+        List<Command.WmCommand> wmCommands = new ArrayList<>();
+
+        for(Command command : commands) {
+            if(command instanceof Command.WmCommand) {
+                wmCommands.add((Command.WmCommand) command);
+                continue;
+            }
+
+            runNonRootWmCommands(context, wmCommands);
+
+            long start = CommandTrace.now();
+
+            if(command instanceof Command.SettingsPut) {
+                Command.SettingsPut put = (Command.SettingsPut) command;
+                boolean success = NonRootUtils.putSetting(context, put.getNamespace(), put.getKey(), put.getValue());
+                CommandTrace.getInstance().recordSince(CommandTrace.Backend.SETTINGS_PROVIDER, command.toString(), start, success, "Not applied");
+            } else if(command instanceof Command.SvcWifi) {
+                boolean success = NonRootUtils.setWifiEnabled(context, ((Command.SvcWifi) command).isEnabled());
+                CommandTrace.getInstance().recordSince(CommandTrace.Backend.SYSTEM_API, command.toString(), start, success, "Not applied");
+            }
+        }
+
+        runNonRootWmCommands(context, wmCommands);
+    }
+
+    private static void runNonRootWmCommands(Context context, List<Command.WmCommand> wmCommands) {
+        if(wmCommands.isEmpty())
+            return;
+
+        String batch = TextUtils.join("; ", wmCommands);
+        long start = CommandTrace.now();
+        boolean success = applyWmCommands(context, wmCommands);
+        CommandTrace.getInstance().recordSince(CommandTrace.Backend.WINDOW_MANAGER, batch, start, success,
+                "Not applied or not confirmed by the window manager");
+    }
+
+    // Applies wm commands through the window manager directly, grouped into a single pass per
+    // display, and then clears the list.  Returns false if any of them couldn't be applied or confirmed.
+    private static boolean applyWmCommands(Context context, List<Command.WmCommand> wmCommands) {
+        // Keyed by display ID; each entry holds the size, density and overscan values
+        Map<Integer, String[]> batches = new LinkedHashMap<>();
+
+        for(Command.WmCommand command : wmCommands) {
+            String[] batch = batches.get(command.getDisplayID());
+            if(batch == null) {
+                batch = new String[3];
+                batches.put(command.getDisplayID(), batch);
+            }
+
+            if(command instanceof Command.WmSize)
+                batch[0] = command.getValue();
+            else if(command instanceof Command.WmDensity)
+                batch[1] = command.getValue();
+            else
+                batch[2] = command.getValue();
+        }
+
+        wmCommands.clear();
+        boolean success = true;
+
+        for(Map.Entry<Integer, String[]> entry : batches.entrySet()) {
+            String[] batch = entry.getValue();
+            success = NonRootUtils.applyDisplaySettings(context, entry.getKey(), batch[0], batch[1], batch[2]) && success;
+        }
+
+        return success;
     }
 
     // Executes a single command.
-    public static void runCommand(Context context, String command) {
-        runCommands(context, new String[]{command}, false);
+    public static void runCommand(Context context, Command command) {
+        runCommands(context, new Command[]{command}, false);
     }
 
     // Executes multiple superuser commands.
     // If debug mode is enabled, the command is not actually run; instead, this will show a
     // notification containing the command that would have been run instead.
-    private static void runSuCommands(Context context, String[] commands) {
+    // Returns the result of each command, in order (empty in debug mode).
+    private static List<CommandResult> runSuCommands(Context context, Command[] commands) {
         if(getPrefMain(context).getBoolean("debug_mode", false)) {
             StringBuilder dump = new StringBuilder();
 
-            for(String command : commands) {
-                if(!command.equals(""))
+            for(Command command : commands) {
+                if(command != null)
                     dump.append(context.getResources().getString(R.string.bullet))
                             .append(" ").append(command).append("\n");
             }
@@ -675,8 +779,141 @@ public final class U {
             // Some devices (Android TV) don't show notifications, so let's also print the commands
             // to the log just in case.
             System.out.println(dump);
-        } else
-            Superuser.getInstance().run(commands);
+            return Collections.emptyList();
+        }
+
+        // If WRITE_SECURE_SETTINGS has been granted, settings can be written directly, and wm
+        // commands can be applied directly through the window manager.  This avoids starting a
+        // separate process for each one.  Everything else (sysfs writes, am, setprop, etc) is
+        // rendered as text and batched up to be run through the root shell, preserving order.
+        boolean canWriteSettings = Capabilities.getInstance().get(context).canWriteSecureSettings();
+
+        List<CommandResult> results = new ArrayList<>(commands.length);
+        List<Command.WmCommand> wmBatch = new ArrayList<>();
+        List<String> shellBatch = new ArrayList<>();
+
+        for(Command command : commands) {
+            // Commands waiting on a readiness signal run everything before them first,
+            // then block until the system is ready (or the old fixed delay has elapsed)
+            while(command instanceof Command.Await) {
+                Readiness.Wait wait = ((Command.Await) command).getWait();
+
+                runWmBatch(context, wmBatch, shellBatch, results);
+                runShellBatch(shellBatch, results);
+
+                long start = CommandTrace.now();
+                boolean ready = wait.await(context);
+                CommandTrace.getInstance().recordSince(CommandTrace.Backend.WAIT, wait.getDescription(), start, ready, "Timed out");
+
+                command = ((Command.Await) command).getNext();
+            }
+
+            if(command == null)
+                continue;
+
+            if(canWriteSettings && command instanceof Command.WmCommand) {
+                runShellBatch(shellBatch, results);
+                wmBatch.add((Command.WmCommand) command);
+                continue;
+            }
+
+            runWmBatch(context, wmBatch, shellBatch, results);
+
+            if(canWriteSettings && command instanceof Command.SettingsPut) {
+                runShellBatch(shellBatch, results);
+
+                Command.SettingsPut put = (Command.SettingsPut) command;
+                long start = CommandTrace.now();
+                boolean applied = NonRootUtils.putSetting(context, put.getNamespace(), put.getKey(), put.getValue());
+                CommandTrace.getInstance().recordSince(CommandTrace.Backend.SETTINGS_PROVIDER, command.toString(), start, applied,
+                        "Not applied; falling back to the root shell");
+
+                if(applied) {
+                    results.add(new CommandResult(command.toString(), 0, null));
+                    continue;
+                }
+            }
+
+            shellBatch.add(command.toString());
+        }
+
+        runWmBatch(context, wmBatch, shellBatch, results);
+        runShellBatch(shellBatch, results);
+
+        // A failed command may mean that root access or a permission has been revoked since
+        // the capabilities were last checked.  Commands that routinely fail on some devices
+        // (sysfs writes, "wm overscan" on 11+, etc) don't say anything about that, so only
+        // failures caused by lost privileges throw the cached capabilities away.
+        if(canWriteSettings && !NonRootUtils.hasWriteSecureSettingsPermission(context))
+            Capabilities.getInstance().invalidate();
+        else {
+            for(CommandResult result : results) {
+                if(isPrivilegeLost(result)) {
+                    Capabilities.getInstance().invalidate();
+                    break;
+                }
+            }
+        }
+
+        return results;
+    }
+
+    // True if the command failed because the root shell couldn't be run (or died),
+    // or because it was denied a permission it had before
+    private static boolean isPrivilegeLost(CommandResult result) {
+        switch(result.getExitCode()) {
+            case 0:
+                return false;
+            case Shell.OnCommandResultListener.SHELL_DIED:
+            case Shell.OnCommandResultListener.SHELL_EXEC_FAILED:
+            case Shell.OnCommandResultListener.SHELL_WRONG_UID:
+                return true;
+        }
+
+        for(String line : result.getOutput()) {
+            if(line.contains("SecurityException"))
+                return true;
+        }
+
+        return false;
+    }
+
+    // Applies wm commands through the window manager, falling back to the root shell
+    // if they can't be applied or confirmed.
+    private static void runWmBatch(Context context, List<Command.WmCommand> wmBatch, List<String> shellBatch, List<CommandResult> results) {
+        if(wmBatch.isEmpty())
+            return;
+
+        List<Command.WmCommand> commands = new ArrayList<>(wmBatch);
+
+        long start = CommandTrace.now();
+        boolean applied = applyWmCommands(context, wmBatch);
+        CommandTrace.getInstance().recordSince(CommandTrace.Backend.WINDOW_MANAGER, TextUtils.join("; ", commands), start, applied,
+                "Not applied or not confirmed; falling back to the root shell");
+
+        for(Command command : commands) {
+            if(applied)
+                results.add(new CommandResult(command.toString(), 0, null));
+            else
+                shellBatch.add(command.toString());
+        }
+    }
+
+    private static void runShellBatch(List<String> shellBatch, List<CommandResult> results) {
+        if(shellBatch.isEmpty())
+            return;
+
+        List<CommandResult> batchResults = Superuser.getInstance().run(shellBatch.toArray(new String[shellBatch.size()]));
+        shellBatch.clear();
+
+        // Density changes occasionally don't stick on the first try, so retry once if needed
+        for(int i = 0; i < batchResults.size(); i++) {
+            CommandResult result = batchResults.get(i);
+            if(result.getCommand().startsWith("wm density") && !result.isSuccessful())
+                batchResults.set(i, Superuser.getInstance().run(new String[]{result.getCommand()}).get(0));
+        }
+
+        results.addAll(batchResults);
     }
 
     // Loads a profile with the given filename
@@ -1134,10 +1371,10 @@ public final class U {
                     ((Activity) context).overridePendingTransition(0, 0);
             }
         } else
-            runCommand(context, "input keyevent 26");
+            runCommand(context, Command.shell("input keyevent 26"));
     }
 
-    private static boolean isValidFilename(String filename) {
+    static boolean isValidFilename(String filename) {
         // Handle legacy default profiles from version 1.x.x
         switch(filename) {
             case "monitor_1080p":
@@ -1228,12 +1465,7 @@ public final class U {
 
             createProfileFromTemplate(context, profileName, 3, getPrefSaved(context, filename));
 
-            // Write the String to a new file with filename of current milliseconds of Unix time
-            try {
-                FileOutputStream output = context.openFileOutput(filename, Context.MODE_PRIVATE);
-                output.write(profileName.getBytes());
-                output.close();
-            } catch (IOException e) { /* Gracefully fail */ }
+            ProfileStore.getInstance().setTitle(context, filename, profileName);
         }
     }
 
@@ -1510,8 +1742,10 @@ public final class U {
         }
     }
 
+    // Background jobs are run by the JobRunner; everything else is started as a regular service
     public static void startService(Context context, Intent intent) {
-        SupportUtils.startService(context, intent);
+        if(!JobRunner.getInstance().enqueue(context, intent))
+            SupportUtils.startService(context, intent);
     }
 
     @SuppressLint("PrivateApi")
@@ -1535,15 +1769,8 @@ public final class U {
     }
 
     public static boolean isDesktopModeActive(Context context) {
-        boolean desktopModePrefEnabled;
-
-        try {
-            desktopModePrefEnabled = Settings.Global.getInt(context.getContentResolver(), "force_desktop_mode_on_external_displays") == 1;
-        } catch (Settings.SettingNotFoundException e) {
-            desktopModePrefEnabled = false;
-        }
-
-        return desktopModePrefEnabled && getExternalDisplayID(context) != Display.DEFAULT_DISPLAY;
+        return DisplayTopology.getInstance(context).isDesktopModeEnabled()
+                && getExternalDisplayID(context) != Display.DEFAULT_DISPLAY;
     }
 
     public static int getExternalDisplayID(Context context) {
@@ -1553,10 +1780,8 @@ public final class U {
         if(savedID != -1)
             return savedID;
 
-        DisplayManager dm = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
-        Display[] displays = dm.getDisplays();
-
-        return displays[displays.length - 1].getDisplayId();
+        DisplayTopology.Descriptor sink = DisplayTopology.getInstance(context).getExternalSink();
+        return sink != null ? sink.getId() : Display.DEFAULT_DISPLAY;
     }
 
     public static boolean canEnableOverscan() {
@@ -0,0 +1,173 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Speculatively prepares for a profile being loaded as soon as a display is added, while the
+// user is still looking at the HdmiActivity (or while the display is still settling).
+//
+// Everything that doesn't have side effects is done ahead of time: the (cached) capabilities are
+// checked and the root shell is opened and kept warm (so the ProfileLoadService doesn't have to fork su
+// before running its first command), the preferences and profile store are read from disk,
+// the display topology is built, and the profiles likely to be picked are decoded.  The
+// ProfileLoadService then picks up the decoded profile instead of reading it again.
+//
+// Command plans themselves are still built by the ProfileLoadService, since building them
+// involves toggling Wi-Fi, Bluetooth, and so on, which can't be done speculatively.
+public final class WarmStart {
+
+    private static final String TAG = "SecondScreen";
+
+    // Prepared profiles are discarded after this long, if none of them have been loaded
+    private static final long MAX_AGE = 120000;
+
+    // Upper limit on how many profiles are decoded ahead of time
+    private static final int MAX_CANDIDATES = 16;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Map<String, Profile> prepared = new HashMap<>();
+
+    private long preparedAt;
+    private boolean preparing;
+
+    // Bumped whenever a profile is edited, so that a run that was in progress at the time
+    // doesn't store a stale copy of it
+    private long generation;
+
+    private static WarmStart theInstance;
+
+    private WarmStart() {}
+
+    public static synchronized WarmStart getInstance() {
+        if(theInstance == null) theInstance = new WarmStart();
+
+        return theInstance;
+    }
+
+    // Starts preparing in the background; returns right away
+    public void prepare(Context context) {
+        final Context appContext = context.getApplicationContext();
+
+        synchronized(this) {
+            if(preparing)
+                return;
+
+            preparing = true;
+        }
+
+        executor.execute(() -> {
+            try {
+                run(appContext);
+            } finally {
+                synchronized(WarmStart.this) {
+                    preparing = false;
+                }
+            }
+        });
+    }
+
+    // Returns the decoded profile, if it was prepared ahead of time and hasn't been edited since.
+    // Anything else that was prepared is discarded, as the user has made their choice.
+    public synchronized Profile take(String filename) {
+        Profile profile = null;
+
+        if(SystemClock.elapsedRealtime() - preparedAt < MAX_AGE)
+            profile = prepared.get(filename);
+
+        prepared.clear();
+        return profile;
+    }
+
+    // Called by the ProfileStore whenever a profile is edited or deleted
+    synchronized void invalidate(String filename) {
+        prepared.remove(filename);
+        generation++;
+    }
+
+    private void run(Context context) {
+        long start = SystemClock.elapsedRealtime();
+
+        // Nothing will be loaded on connect if a profile is already active
+        SharedPreferences prefMain = U.getPrefMain(context);
+        if(!U.getPrefCurrent(context).getBoolean("not_active", true))
+            return;
+
+        DisplayTopology.getInstance(context);
+
+        // Open the root shell now; it is kept in the pool for the ProfileLoadService.
+        // The cached capabilities are used, so su is only run again if root is already known
+        // to be available (or the cache has expired).
+        if(!U.isInNonRootMode(context) && !prefMain.getBoolean("debug_mode", false)
+                && Capabilities.getInstance().get(context).hasRoot())
+            Superuser.getInstance().warmUp();
+
+        long startGeneration;
+        synchronized(this) {
+            startGeneration = generation;
+        }
+
+        Map<String, Profile> profiles = new HashMap<>();
+        for(String filename : getCandidates(context, prefMain)) {
+            profiles.put(filename, Profile.fromSaved(context, U.getPrefSaved(context, filename)));
+        }
+
+        synchronized(this) {
+            if(generation != startGeneration)
+                return;
+
+            prepared.clear();
+            prepared.putAll(profiles);
+            preparedAt = SystemClock.elapsedRealtime();
+        }
+
+        Log.i(TAG, "Warm start: prepared " + profiles.size() + " profiles in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    // The profile picked for this display and the auto-start profile come first,
+    // followed by the profiles shown in the HdmiActivity list
+    private static Set<String> getCandidates(Context context, SharedPreferences prefMain) {
+        Set<String> candidates = new LinkedHashSet<>();
+
+        String mappedFilename = DisplayProfileMap.getInstance().resolve(context);
+        if(mappedFilename != null)
+            candidates.add(mappedFilename);
+
+        String autoStartFilename = prefMain.getString("hdmi_load_profile", "show_list");
+        if(U.profileExists(context, autoStartFilename))
+            candidates.add(autoStartFilename);
+
+        for(String filename : ProfileIndex.getInstance().getSnapshot(context).getFilenames()) {
+            if(candidates.size() >= MAX_CANDIDATES)
+                break;
+
+            candidates.add(filename);
+        }
+
+        return candidates;
+    }
+}
@@ -16,7 +16,6 @@
 package com.farmerbb.secondscreen.support;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.wifi.WifiManager;
@@ -24,164 +23,165 @@ import android.os.Build;
 import android.provider.Settings;
 import android.view.Display;
 
-import java.util.Scanner;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public final class NonRootUtils {
 
     private NonRootUtils() {}
 
-    public static void runCommands(Context context, String[] commands) {
+    // Runs commands received as text (such as the "commands" extra sent to the support library)
+    // through putSetting(), applyDisplaySettings() and setWifiEnabled().  Only "settings put",
+    // "wm size", "wm density", "wm overscan" and "svc wifi" are understood; the text comes from
+    // another app, so anything else (or anything malformed) is skipped.  Consecutive wm commands
+    // are applied together, in a single pass per display.  Returns false if any of the commands
+    // couldn't be applied.
+    public static boolean runCommands(Context context, String[] commands) {
+        // Keyed by display ID; each entry holds the size, density and overscan values
+        Map<Integer, String[]> batches = new LinkedHashMap<>();
+        boolean success = true;
+
         for(String command : commands) {
-            String[] commandArgs = command.split(" ");
-            int displayID = getDisplayID(commandArgs);
+            if(command == null)
+                continue;
 
-            switch(commandArgs[0]) {
-                case "settings":
-                    switch(commandArgs[2]) {
-                        case "global":
-                            if(hasWriteSecureSettingsPermission(context))
-                                Settings.Global.putString(context.getContentResolver(), commandArgs[3], commandArgs[4]);
-                            break;
-                        case "secure":
-                            if(hasWriteSecureSettingsPermission(context))
-                                Settings.Secure.putString(context.getContentResolver(), commandArgs[3], commandArgs[4]);
-                            break;
-                        case "system":
-                            if(hasWriteSettingsPermission(context))
-                                Settings.System.putString(context.getContentResolver(), commandArgs[3], commandArgs[4]);
-                            break;
-                    }
+            String[] commandArgs = command.trim().split(" +");
 
-                    break;
-                case "wm":
-                    if(hasWriteSecureSettingsPermission(context)) {
-                        try {
-                            switch(commandArgs[1]) {
-                                case "size":
-                                    wmSize(commandArgs[2], displayID);
-                                    break;
-                                case "density":
-                                    if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1)
-                                        wmDensity(commandArgs[2], displayID);
-                                    else
-                                        wmDensityOld(commandArgs[2], displayID);
-                                    break;
-                                case "overscan":
-                                    wmOverscan(commandArgs[2], displayID);
-                                    break;
-                            }
-                        } catch (Exception e) { /* Gracefully fail */ }
-                    }
+            if(commandArgs[0].equals("wm")) {
+                success = addWmCommand(batches, commandArgs) && success;
+                continue;
+            }
 
+            success = applyWmCommands(context, batches) && success;
+
+            switch(commandArgs[0]) {
+                case "settings":
+                    // The value is everything after the key, and may contain spaces
+                    String[] settingArgs = command.trim().split(" +", 5);
+                    success = settingArgs.length == 5
+                            && settingArgs[1].equals("put")
+                            && putSetting(context, settingArgs[2], settingArgs[3], settingArgs[4])
+                            && success;
                     break;
                 case "svc":
-                    if ("wifi".equals(commandArgs[1])) {
-                        WifiManager wifi = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-                        wifi.setWifiEnabled("enable".equals(commandArgs[2]));
-                    }
-
+                    success = commandArgs.length == 3
+                            && commandArgs[1].equals("wifi")
+                            && (commandArgs[2].equals("enable") || commandArgs[2].equals("disable"))
+                            && setWifiEnabled(context, commandArgs[2].equals("enable"))
+                            && success;
+                    break;
+                default:
+                    success = false;
                     break;
             }
         }
-    }
 
-    public static boolean hasWriteSettingsPermission(Context context) {
-        return Build.VERSION.SDK_INT < Build.VERSION_CODES.M || Settings.System.canWrite(context);
+        return applyWmCommands(context, batches) && success;
     }
 
-    public static boolean hasWriteSecureSettingsPermission(Context context) {
-        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
-                && context.checkSelfPermission(Manifest.permission.WRITE_SECURE_SETTINGS) == PackageManager.PERMISSION_GRANTED;
+    // Applies a size, density and/or overscan change to a display (the equivalent of "wm size",
+    // "wm density" and "wm overscan") through the window manager directly, in a single pass.
+    // Any value can be null to leave it alone.  Returns false if the change couldn't be applied
+    // or confirmed.
+    public static boolean applyDisplaySettings(Context context, int displayID, String size, String density, String overscan) {
+        if(!hasWriteSecureSettingsPermission(context))
+            return false;
+
+        try {
+            return WindowManagerProxy.apply(displayID, size, density, overscan);
+        } catch (Exception e) {
+            return false;
+        }
     }
 
-    @SuppressLint("PrivateApi")
-    private static Object getWindowManagerService() throws Exception {
-        return Class.forName("android.view.WindowManagerGlobal")
-                .getMethod("getWindowManagerService")
-                .invoke(null);
-    }
+    // Writes a setting (the equivalent of "settings put") directly through the settings provider,
+    // without spawning a process.  Returns false if the setting couldn't be written this way.
+    public static boolean putSetting(Context context, String namespace, String key, String value) {
+        try {
+            switch(namespace) {
+                case "global":
+                    return hasWriteSecureSettingsPermission(context)
+                            && Settings.Global.putString(context.getContentResolver(), key, value);
+                case "secure":
+                    return hasWriteSecureSettingsPermission(context)
+                            && Settings.Secure.putString(context.getContentResolver(), key, value);
+                case "system":
+                    return hasWriteSettingsPermission(context)
+                            && Settings.System.putString(context.getContentResolver(), key, value);
+            }
+        } catch (Exception e) { /* Gracefully fail */ }
 
-    @SuppressLint("PrivateApi")
-    private static void wmDensity(String commandArg, int displayID) throws Exception {
-        // From android.os.UserHandle
-        final int USER_CURRENT_OR_SELF = -3;
-
-        if(commandArg.equals("reset")) {
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("clearForcedDisplayDensityForUser", int.class, int.class)
-                    .invoke(getWindowManagerService(), displayID, USER_CURRENT_OR_SELF);
-        } else {
-            int density = Integer.parseInt(commandArg);
-
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("setForcedDisplayDensityForUser", int.class, int.class, int.class)
-                    .invoke(getWindowManagerService(), displayID, density, USER_CURRENT_OR_SELF);
-        }
+        return false;
     }
 
-    @SuppressLint("PrivateApi")
-    private static void wmDensityOld(String commandArg, int displayID) throws Exception {
-        if(commandArg.equals("reset")) {
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("clearForcedDisplayDensity", int.class)
-                    .invoke(getWindowManagerService(), displayID);
-        } else {
-            int density = Integer.parseInt(commandArg);
-
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("setForcedDisplayDensity", int.class, int.class)
-                    .invoke(getWindowManagerService(), displayID, density);
-        }
+    // The equivalent of "svc wifi enable" / "svc wifi disable"
+    public static boolean setWifiEnabled(Context context, boolean enabled) {
+        WifiManager wifi = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        return wifi.setWifiEnabled(enabled);
     }
 
-    @SuppressLint("PrivateApi")
-    private static void wmSize(String commandArg, int displayID) throws Exception {
-        if(commandArg.equals("reset")) {
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("clearForcedDisplaySize", int.class)
-                    .invoke(getWindowManagerService(), displayID);
-        } else {
-            Scanner scanner = new Scanner(commandArg);
-            scanner.useDelimiter("x");
-
-            int width = scanner.nextInt();
-            int height = scanner.nextInt();
-
-            scanner.close();
+    // Adds a "wm <size|density|overscan> <value> [-d <display ID>]" command to the batch for its
+    // display.  Returns false if the command is malformed.
+    private static boolean addWmCommand(Map<Integer, String[]> batches, String[] commandArgs) {
+        if(commandArgs.length != 3 && commandArgs.length != 5)
+            return false;
+
+        int displayID = Display.DEFAULT_DISPLAY;
+        if(commandArgs.length == 5) {
+            if(!commandArgs[3].equals("-d"))
+                return false;
+
+            try {
+                displayID = Integer.parseInt(commandArgs[4]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
 
-            Class.forName("android.view.IWindowManager")
-                    .getMethod("setForcedDisplaySize", int.class, int.class, int.class)
-                    .invoke(getWindowManagerService(), displayID, width, height);
+        int index;
+        switch(commandArgs[1]) {
+            case "size":
+                index = 0;
+                break;
+            case "density":
+                index = 1;
+                break;
+            case "overscan":
+                index = 2;
+                break;
+            default:
+                return false;
         }
-    }
 
-    @SuppressLint("PrivateApi")
-    private static void wmOverscan(String commandArg, int displayID) throws Exception {
-        int left, top, right, bottom;
+        String[] batch = batches.get(displayID);
+        if(batch == null) {
+            batch = new String[3];
+            batches.put(displayID, batch);
+        }
 
-        if(commandArg.equals("reset"))
-            left = top = right = bottom = 0;
-        else {
-            Scanner scanner = new Scanner(commandArg);
-            scanner.useDelimiter(",");
+        batch[index] = commandArgs[2];
+        return true;
+    }
 
-            left = scanner.nextInt();
-            top = scanner.nextInt();
-            right = scanner.nextInt();
-            bottom = scanner.nextInt();
+    // Applies the batched wm commands, and then clears them
+    private static boolean applyWmCommands(Context context, Map<Integer, String[]> batches) {
+        boolean success = true;
 
-            scanner.close();
+        for(Map.Entry<Integer, String[]> entry : batches.entrySet()) {
+            String[] batch = entry.getValue();
+            success = applyDisplaySettings(context, entry.getKey(), batch[0], batch[1], batch[2]) && success;
         }
 
-        Class.forName("android.view.IWindowManager")
-                .getMethod("setOverscan", int.class, int.class, int.class, int.class, int.class)
-                .invoke(getWindowManagerService(), displayID, left, top, right, bottom);
+        batches.clear();
+        return success;
     }
 
-    private static int getDisplayID(String[] commandArgs) {
-        if(commandArgs.length < 5 || !commandArgs[commandArgs.length - 2].equals("-d"))
-            return Display.DEFAULT_DISPLAY;
+    public static boolean hasWriteSettingsPermission(Context context) {
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.M || Settings.System.canWrite(context);
+    }
 
-        return Integer.parseInt(commandArgs[commandArgs.length - 1]);
+    public static boolean hasWriteSecureSettingsPermission(Context context) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && context.checkSelfPermission(Manifest.permission.WRITE_SECURE_SETTINGS) == PackageManager.PERMISSION_GRANTED;
     }
 }
\ No newline at end of file
@@ -125,8 +125,28 @@ public abstract class RotationLockService extends Service implements ServiceInte
     }
 
     private void removeSystemOverlay() {
-        if(windowManager != null && view != null)
+        if(windowManager != null && view != null) {
             windowManager.removeView(view);
+            view = null;
+        }
+    }
+
+    // Applies a change in the requested screen orientation to the overlay already being shown,
+    // instead of restarting the service
+    protected void updateSystemOverlay() {
+        int screenOrientation = getScreenOrientation();
+
+        if(view == null || screenOrientation == -1) {
+            removeSystemOverlay();
+            drawSystemOverlay();
+            return;
+        }
+
+        WindowManager.LayoutParams params = (WindowManager.LayoutParams) view.getLayoutParams();
+        if(params.screenOrientation != screenOrientation) {
+            params.screenOrientation = screenOrientation;
+            windowManager.updateViewLayout(view, params);
+        }
     }
 
     protected abstract void startService();
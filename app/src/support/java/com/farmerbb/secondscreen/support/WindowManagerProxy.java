@@ -0,0 +1,190 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.support;
+
+import android.annotation.SuppressLint;
+import android.graphics.Point;
+import android.os.Build;
+
+import java.lang.reflect.Method;
+
+// Thin wrapper around the hidden IWindowManager interface, used to apply the equivalent of
+// "wm size", "wm density" and "wm overscan" without spawning a process.
+//
+// The binder proxy and all reflected methods are resolved once and cached for the lifetime of
+// the process.  (MethodHandles would be slightly faster, but they require API 26.)
+public final class WindowManagerProxy {
+
+    // From android.os.UserHandle
+    private static final int USER_CURRENT_OR_SELF = -3;
+
+    private static Object service;
+
+    private static Method setForcedDisplaySize;
+    private static Method clearForcedDisplaySize;
+    private static Method setForcedDisplayDensity;
+    private static Method clearForcedDisplayDensity;
+    private static Method setOverscan;
+    private static Method getBaseDisplaySize;
+    private static Method getBaseDisplayDensity;
+    private static Method getInitialDisplaySize;
+    private static Method getInitialDisplayDensity;
+
+    private WindowManagerProxy() {}
+
+    @SuppressLint("PrivateApi")
+    private static synchronized Object getService() throws Exception {
+        if(service != null)
+            return service;
+
+        Class<?> iWindowManager = Class.forName("android.view.IWindowManager");
+
+        setForcedDisplaySize = iWindowManager.getMethod("setForcedDisplaySize", int.class, int.class, int.class);
+        clearForcedDisplaySize = iWindowManager.getMethod("clearForcedDisplaySize", int.class);
+        getBaseDisplaySize = iWindowManager.getMethod("getBaseDisplaySize", int.class, Point.class);
+        getInitialDisplaySize = iWindowManager.getMethod("getInitialDisplaySize", int.class, Point.class);
+        getBaseDisplayDensity = iWindowManager.getMethod("getBaseDisplayDensity", int.class);
+        getInitialDisplayDensity = iWindowManager.getMethod("getInitialDisplayDensity", int.class);
+
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1) {
+            setForcedDisplayDensity = iWindowManager.getMethod("setForcedDisplayDensityForUser", int.class, int.class, int.class);
+            clearForcedDisplayDensity = iWindowManager.getMethod("clearForcedDisplayDensityForUser", int.class, int.class);
+        } else {
+            setForcedDisplayDensity = iWindowManager.getMethod("setForcedDisplayDensity", int.class, int.class);
+            clearForcedDisplayDensity = iWindowManager.getMethod("clearForcedDisplayDensity", int.class);
+        }
+
+        // Overscan support was removed in Android 11
+        try {
+            setOverscan = iWindowManager.getMethod("setOverscan", int.class, int.class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException e) { /* Gracefully fail */ }
+
+        service = Class.forName("android.view.WindowManagerGlobal")
+                .getMethod("getWindowManagerService")
+                .invoke(null);
+
+        return service;
+    }
+
+    // Applies a size, density and/or overscan change to a display in a single pass, then reads the
+    // values back from the window manager to confirm they took effect.  Any argument can be null
+    // to leave that value alone; otherwise arguments use the same format as the "wm" command.
+    //
+    // Returns true if every requested change was confirmed.
+    public static boolean apply(int displayID, String size, String density, String overscan) throws Exception {
+        Object wm = getService();
+
+        if(size != null)
+            setSize(wm, displayID, size);
+
+        if(density != null)
+            setDensity(wm, displayID, density);
+
+        if(overscan != null)
+            setOverscan(wm, displayID, overscan);
+
+        boolean confirmed = true;
+
+        if(size != null && !sizeMatches(wm, displayID, size)) {
+            setSize(wm, displayID, size);
+            confirmed = sizeMatches(wm, displayID, size);
+        }
+
+        // Density changes occasionally don't stick on the first try, so retry once if needed
+        if(density != null && !densityMatches(wm, displayID, density)) {
+            setDensity(wm, displayID, density);
+            confirmed = confirmed && densityMatches(wm, displayID, density);
+        }
+
+        return confirmed;
+    }
+
+    private static void setSize(Object wm, int displayID, String size) throws Exception {
+        if(size.equals("reset"))
+            clearForcedDisplaySize.invoke(wm, displayID);
+        else {
+            Point point = parseSize(size);
+            setForcedDisplaySize.invoke(wm, displayID, point.x, point.y);
+        }
+    }
+
+    private static void setDensity(Object wm, int displayID, String density) throws Exception {
+        boolean forUser = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1;
+
+        if(density.equals("reset")) {
+            if(forUser)
+                clearForcedDisplayDensity.invoke(wm, displayID, USER_CURRENT_OR_SELF);
+            else
+                clearForcedDisplayDensity.invoke(wm, displayID);
+        } else {
+            int value = Integer.parseInt(density);
+
+            if(forUser)
+                setForcedDisplayDensity.invoke(wm, displayID, value, USER_CURRENT_OR_SELF);
+            else
+                setForcedDisplayDensity.invoke(wm, displayID, value);
+        }
+    }
+
+    private static void setOverscan(Object wm, int displayID, String overscan) throws Exception {
+        if(setOverscan == null)
+            return;
+
+        int left, top, right, bottom;
+
+        if(overscan.equals("reset"))
+            left = top = right = bottom = 0;
+        else {
+            int first = overscan.indexOf(',');
+            int second = overscan.indexOf(',', first + 1);
+            int third = overscan.indexOf(',', second + 1);
+
+            left = Integer.parseInt(overscan.substring(0, first));
+            top = Integer.parseInt(overscan.substring(first + 1, second));
+            right = Integer.parseInt(overscan.substring(second + 1, third));
+            bottom = Integer.parseInt(overscan.substring(third + 1));
+        }
+
+        setOverscan.invoke(wm, displayID, left, top, right, bottom);
+    }
+
+    private static boolean sizeMatches(Object wm, int displayID, String size) throws Exception {
+        Point expected = new Point();
+        if(size.equals("reset"))
+            getInitialDisplaySize.invoke(wm, displayID, expected);
+        else
+            expected = parseSize(size);
+
+        Point actual = new Point();
+        getBaseDisplaySize.invoke(wm, displayID, actual);
+
+        return expected.equals(actual);
+    }
+
+    private static boolean densityMatches(Object wm, int displayID, String density) throws Exception {
+        int expected = density.equals("reset")
+                ? (int) getInitialDisplayDensity.invoke(wm, displayID)
+                : Integer.parseInt(density);
+
+        return expected == (int) getBaseDisplayDensity.invoke(wm, displayID);
+    }
+
+    // "1920x1080"
+    private static Point parseSize(String size) {
+        int separator = size.indexOf('x');
+        return new Point(Integer.parseInt(size.substring(0, separator)), Integer.parseInt(size.substring(separator + 1)));
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+
+import com.farmerbb.secondscreen.support.NonRootUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Benchmarks for the command pipeline of a profile load: building and scheduling the command
+// plan, rendering its commands as shell text (for the root shell, the support library and the
+// trace), and parsing that text back in the support library (NonRootUtils.runCommands()).
+//
+// The plan is the one for activating a profile that changes every setting (see
+// Simulation.dockPlan()).  U itself isn't compiled here, as it needs most of the Android framework
+// (activities, notifications, broadcasts and the root shell); for the same reason,
+// U.generateBlurb() (string array lookups on an Activity) and U.isBlacklisted() (which
+// reads a system property through the root shell) aren't benchmarked.
+@State(Scope.Benchmark)
+public class CommandBenchmark {
+
+    @Param({"false", "true"})
+    public boolean restartActivityManager;
+
+    private final Context context = new Context();
+
+    // The commands that a non-root load hands to the support library, as text
+    private String[] supportCommands;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> commands = new ArrayList<>();
+
+        for(Command command : Simulation.dockPlan().schedule(restartActivityManager)) {
+            command = Command.strip(command);
+
+            if(command instanceof Command.SettingsPut
+                    || command instanceof Command.WmCommand
+                    || command instanceof Command.SvcWifi)
+                commands.add(command.toString());
+        }
+
+        supportCommands = commands.toArray(new String[commands.size()]);
+    }
+
+    @Benchmark
+    public Command[] plan() {
+        return Simulation.dockPlan().schedule(restartActivityManager);
+    }
+
+    // Commands cache their text once rendered, so a new plan is built for every invocation
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        for(Command command : Simulation.dockPlan().schedule(restartActivityManager)) {
+            blackhole.consume(command.toString());
+        }
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return NonRootUtils.runCommands(context, supportCommands);
+    }
+}
@@ -0,0 +1,153 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Benchmarks for the paths that scale with the number of saved profiles: decoding every saved
+// profile, diffing each one against the active profile (the first step of planning a load),
+// listing the profiles (what U.listProfiles() reads, before copying it into its arrays), and
+// re-sorting the profile list after a profile has been renamed.
+//
+// Profiles are generated with a fixed seed, so every run works on the same data.
+@State(Scope.Benchmark)
+public class ProfileBenchmark {
+
+    private static final String[] SIZES = {"reset", "1920x1080", "1280x720", "3840x2160"};
+    private static final String[] DENSITIES = {"reset", "160", "240", "320"};
+    private static final String[] UI_REFRESH = {"do-nothing", "system-ui", "activity-manager"};
+
+    // Titles mix case and accents, so the collator has real work to do
+    private static final String[] TITLE_WORDS = {"Desk", "desk", "T\u00e9l\u00e9vision", "TV", "Projector",
+            "\u00c9cran", "Office", "Living room", "Bureau", "Chromecast", "Monitor", "\u00c9tude"};
+
+    @Param({"10", "100", "1000"})
+    public int profiles;
+
+    private final Context context = new Context();
+
+    private SharedPreferences[] prefSaved;
+    private Profile[] saved;
+    private Profile active;
+
+    private String[] filenames;
+    private int renames = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(profiles);
+
+        prefSaved = new SharedPreferences[profiles];
+        saved = new Profile[profiles];
+        filenames = new String[profiles];
+
+        Map<String, String> titles = new HashMap<>();
+
+        for(int i = 0; i < profiles; i++) {
+            filenames[i] = String.valueOf(1500000000000L + i);
+            prefSaved[i] = generateProfile(random, title(random, i));
+            saved[i] = Profile.fromSaved(context, prefSaved[i]);
+
+            titles.put(filenames[i], prefSaved[i].getString("profile_name", ""));
+        }
+
+        // The first saved profile is the active one, as written to current.xml by a load
+        SharedPreferences prefCurrent = new FakeSharedPreferences();
+        SharedPreferences.Editor editor = prefCurrent.edit();
+        ProfileDiff.between(null, saved[0]).writeTo(editor);
+        editor.putBoolean("not_active", false);
+        editor.putString("ui_refresh", saved[0].getUiRefresh());
+        editor.apply();
+
+        active = Profile.fromCurrent(prefCurrent);
+
+        // Builds the index (and its sort keys) up front, the same as the first list in a process
+        ProfileStore.getInstance().setTitles(titles);
+        ProfileIndex.getInstance().getSnapshot(context);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for(SharedPreferences pref : prefSaved) {
+            blackhole.consume(Profile.fromSaved(context, pref));
+        }
+    }
+
+    @Benchmark
+    public void diff(Blackhole blackhole) {
+        for(Profile target : saved) {
+            blackhole.consume(ProfileDiff.between(active, target));
+        }
+    }
+
+    // The index is only sorted again after a change, so listing is a lookup of the last snapshot
+    @Benchmark
+    public ProfileIndex.Snapshot list() {
+        return ProfileIndex.getInstance().getSnapshot(context);
+    }
+
+    // Renaming a profile updates one entry of the index, and the list is then sorted again
+    @Benchmark
+    public ProfileIndex.Snapshot sortAfterRename() {
+        int index = renames++ % profiles;
+        ProfileIndex.getInstance().update(filenames[index], "Renamed " + renames);
+
+        return ProfileIndex.getInstance().getSnapshot(context);
+    }
+
+    private static String title(Random random, int index) {
+        return TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " " + index;
+    }
+
+    private static SharedPreferences generateProfile(Random random, String title) {
+        SharedPreferences pref = new FakeSharedPreferences();
+        SharedPreferences.Editor editor = pref.edit();
+
+        editor.putString("profile_name", title);
+        editor.putString("size", SIZES[random.nextInt(SIZES.length)]);
+        editor.putString("density", DENSITIES[random.nextInt(DENSITIES.length)]);
+        editor.putString("ui_refresh", UI_REFRESH[random.nextInt(UI_REFRESH.length)]);
+        editor.putString("rotation_lock_new", random.nextBoolean() ? "landscape" : "do-nothing");
+        editor.putString("immersive_new", random.nextBoolean() ? "immersive-mode" : "do-nothing");
+        editor.putBoolean("overscan", random.nextBoolean());
+        editor.putInt("overscan_left", random.nextInt(40));
+        editor.putInt("overscan_right", random.nextInt(40));
+        editor.putInt("overscan_top", random.nextInt(40));
+        editor.putInt("overscan_bottom", random.nextInt(40));
+        editor.putBoolean("chrome", random.nextBoolean());
+        editor.putBoolean("navbar", random.nextBoolean());
+        editor.putBoolean("freeform", random.nextBoolean());
+        editor.putBoolean("taskbar", random.nextBoolean());
+        editor.putBoolean("wifi_on", random.nextBoolean());
+        editor.putBoolean("backlight_off", random.nextBoolean());
+        editor.apply();
+
+        return pref;
+    }
+}
@@ -0,0 +1,36 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// In-memory stand-in for the Android class of the same name.  Holds the settings written
+// through android.provider.Settings, one table per namespace.
+public class ContentResolver {
+
+    private final Map<String, Map<String, String>> tables = new HashMap<>();
+
+    public Map<String, String> getTable(String namespace) {
+        Map<String, String> table = tables.get(namespace);
+        if(table == null) {
+            table = new HashMap<>();
+            tables.put(namespace, table);
+        }
+
+        return table;
+    }
+}
@@ -0,0 +1,51 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.net.wifi.WifiManager;
+
+// In-memory stand-in for the Android class of the same name, providing only what the
+// benchmarked sources use.  Every permission is granted.
+public class Context {
+
+    public static final String WIFI_SERVICE = "wifi";
+
+    private final Resources resources = new Resources();
+    private final ContentResolver contentResolver = new ContentResolver();
+    private final WifiManager wifiManager = new WifiManager();
+
+    public Resources getResources() {
+        return resources;
+    }
+
+    public ContentResolver getContentResolver() {
+        return contentResolver;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Object getSystemService(String name) {
+        return WIFI_SERVICE.equals(name) ? wifiManager : null;
+    }
+
+    public int checkSelfPermission(String permission) {
+        return PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+// In-memory stand-in for the Android class of the same name, providing only what the
+// benchmarked sources use.  Reports the newest API level the app is tested against.
+public final class Build {
+
+    public static final class VERSION {
+        public static final int SDK_INT = VERSION_CODES.VANILLA_ICE_CREAM;
+    }
+
+    public static final class VERSION_CODES {
+        public static final int M = 23;
+        public static final int VANILLA_ICE_CREAM = 35;
+    }
+}
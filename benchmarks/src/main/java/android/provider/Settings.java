@@ -0,0 +1,49 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.provider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+// In-memory stand-in for the Android class of the same name, providing only what the
+// benchmarked sources use.  Settings are kept in the ContentResolver.
+public final class Settings {
+
+    public static final class Global {
+        public static boolean putString(ContentResolver resolver, String name, String value) {
+            resolver.getTable("global").put(name, value);
+            return true;
+        }
+    }
+
+    public static final class Secure {
+        public static boolean putString(ContentResolver resolver, String name, String value) {
+            resolver.getTable("secure").put(name, value);
+            return true;
+        }
+    }
+
+    public static final class System {
+        public static boolean canWrite(Context context) {
+            return true;
+        }
+
+        public static boolean putString(ContentResolver resolver, String name, String value) {
+            resolver.getTable("system").put(name, value);
+            return true;
+        }
+    }
+}
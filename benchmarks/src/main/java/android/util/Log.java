@@ -0,0 +1,28 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+// Stand-in for the Android class of the same name, providing only what the benchmarked sources
+// use.  Messages are written to standard error.
+public final class Log {
+
+    private Log() {}
+
+    public static int i(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+}
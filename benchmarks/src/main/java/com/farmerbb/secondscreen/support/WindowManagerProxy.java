@@ -0,0 +1,27 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.support;
+
+// Stand-in for the support library's WindowManagerProxy, which calls the hidden IWindowManager
+// interface.  Changes are accepted without being applied anywhere.
+public final class WindowManagerProxy {
+
+    private WindowManagerProxy() {}
+
+    public static boolean apply(int displayID, String size, String density, String overscan) throws Exception {
+        return true;
+    }
+}
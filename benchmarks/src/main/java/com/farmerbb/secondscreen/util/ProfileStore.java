@@ -0,0 +1,47 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.content.Context;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// In-memory stand-in for the app's ProfileStore, holding only the profile titles that the
+// ProfileIndex is built from
+public final class ProfileStore {
+
+    private Map<String, String> titles = Collections.emptyMap();
+
+    private static ProfileStore theInstance;
+
+    private ProfileStore() {}
+
+    public static ProfileStore getInstance() {
+        if(theInstance == null) theInstance = new ProfileStore();
+
+        return theInstance;
+    }
+
+    synchronized void setTitles(Map<String, String> titles) {
+        this.titles = new HashMap<>(titles);
+    }
+
+    synchronized Map<String, String> getTitles(Context context) {
+        return Collections.unmodifiableMap(titles);
+    }
+}
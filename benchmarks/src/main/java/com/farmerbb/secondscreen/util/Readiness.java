@@ -0,0 +1,45 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import java.util.Locale;
+
+// Stand-in for the app's Readiness, holding only the signals and the wait description that
+// Command uses; nothing is ever waited on here
+public final class Readiness {
+
+    public enum Signal {
+        DISPLAY,
+        SYSTEM_UI,
+        DELAY
+    }
+
+    private Readiness() {}
+
+    static final class Wait {
+        private final Signal signal;
+        private final long timeout;
+
+        Wait(Signal signal, long timeout) {
+            this.signal = signal;
+            this.timeout = timeout;
+        }
+
+        String getDescription() {
+            return "await " + signal.name().toLowerCase(Locale.US) + " " + timeout;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// A simulated device that the app's commands can be run against on the host JVM, without a phone
+// or an emulator (see Simulation).
+//
+// It models the parts of the device that SecondScreen changes: a settings database, the forced
+// size, density, and overscan of each display, and system properties.  Commands don't take any
+// real time to run; instead, each one advances a simulated clock by a configurable latency, based
+// on what kind of command it is (see CommandTrace.classify()), so the time a whole profile load
+// or turn-off would take on a real device can be read from the clock afterwards.
+//
+// An external display can be connected and disconnected, which is reported to the listeners just
+// like a real hot-plug, so full dock and undock cycles can be run.
+public final class SimulatedDevice {
+
+    public interface Listener {
+        void onDisplayAdded(int displayID);
+        void onDisplayRemoved(int displayID);
+    }
+
+    // Latency (in milliseconds) of each kind of command, approximating a typical rooted device
+    private static final Map<String, Long> DEFAULT_LATENCIES = new HashMap<>();
+    private static final long DEFAULT_LATENCY = 30;
+
+    // The simulated external display; its id is well above those of real displays, so the two
+    // never collide
+    public static final int EXTERNAL_DISPLAY = 1000;
+
+    static {
+        DEFAULT_LATENCIES.put("settings put global", 60L);
+        DEFAULT_LATENCIES.put("settings put secure", 60L);
+        DEFAULT_LATENCIES.put("settings put system", 60L);
+        DEFAULT_LATENCIES.put("wm size", 250L);
+        DEFAULT_LATENCIES.put("wm density", 250L);
+        DEFAULT_LATENCIES.put("wm overscan", 150L);
+        DEFAULT_LATENCIES.put("am broadcast", 120L);
+        DEFAULT_LATENCIES.put("am restart", 8000L);
+        DEFAULT_LATENCIES.put("am force-stop", 150L);
+        DEFAULT_LATENCIES.put("cmd package", 200L);
+        DEFAULT_LATENCIES.put("svc wifi", 80L);
+        DEFAULT_LATENCIES.put("setprop", 20L);
+        DEFAULT_LATENCIES.put("echo", 5L);
+        DEFAULT_LATENCIES.put("sleep", 2000L);
+        DEFAULT_LATENCIES.put("kill", 40L);
+        DEFAULT_LATENCIES.put("pkill", 40L);
+        DEFAULT_LATENCIES.put("await display", 400L);
+        DEFAULT_LATENCIES.put("await system_ui", 1500L);
+        DEFAULT_LATENCIES.put("await delay", 1000L);
+    }
+
+    private final Map<String, Long> latencies = new HashMap<>(DEFAULT_LATENCIES);
+    private final Map<String, String> settings = new HashMap<>();
+    private final Map<String, String> properties = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // Keyed by display ID; each entry holds the forced size, density and overscan (null if reset)
+    private final Map<Integer, String[]> displays = new HashMap<>();
+
+    // Simulated time (in microseconds) spent on each kind of command, and in total
+    private final Map<String, Long> elapsedByClass = new TreeMap<>();
+    private long elapsed = 0;
+
+    private boolean externalDisplayConnected = false;
+
+    // Overrides the latency (in milliseconds) of a kind of command (see CommandTrace.classify())
+    public void setLatency(String commandClass, long latency) {
+        latencies.put(commandClass, latency);
+    }
+
+    // Sets a setting without running a command, as if it had been that way all along
+    public void seedSetting(String namespace, String key, String value) {
+        settings.put(namespace + " " + key, value);
+    }
+
+    public String getSetting(String namespace, String key) {
+        return settings.get(namespace + " " + key);
+    }
+
+    public String getProperty(String key) {
+        return properties.get(key);
+    }
+
+    // The forced size, density or overscan of a display, or null if it hasn't been forced
+    public String getForced(int displayID, String kind) {
+        String[] state = displays.get(displayID);
+        int index = indexOf(kind);
+
+        return state == null || index == -1 ? null : state[index];
+    }
+
+    // Total simulated time (in milliseconds) spent running commands since the clock was reset
+    public long getElapsed() {
+        return elapsed / 1000;
+    }
+
+    // Simulated time (in milliseconds) spent on each kind of command since the clock was reset
+    public Map<String, Long> getElapsedByClass() {
+        Map<String, Long> millis = new TreeMap<>();
+        for(Map.Entry<String, Long> entry : elapsedByClass.entrySet()) {
+            millis.put(entry.getKey(), entry.getValue() / 1000);
+        }
+
+        return millis;
+    }
+
+    public void resetClock() {
+        elapsed = 0;
+        elapsedByClass.clear();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean isExternalDisplayConnected() {
+        return externalDisplayConnected;
+    }
+
+    // Simulates an external display being plugged in or unplugged
+    public void setExternalDisplayConnected(boolean connected) {
+        if(externalDisplayConnected == connected)
+            return;
+
+        externalDisplayConnected = connected;
+        if(!connected)
+            displays.remove(EXTERNAL_DISPLAY);
+
+        for(Listener listener : new ArrayList<>(listeners)) {
+            if(connected)
+                listener.onDisplayAdded(EXTERNAL_DISPLAY);
+            else
+                listener.onDisplayRemoved(EXTERNAL_DISPLAY);
+        }
+    }
+
+    // Runs commands against the simulated device, in order, and returns their results.
+    // Commands waiting on a readiness signal are given the simulated latency of the wait.
+    public List<CommandResult> run(Command[] commands) {
+        List<CommandResult> results = new ArrayList<>(commands.length);
+
+        for(Command command : commands) {
+            while(command instanceof Command.Await) {
+                advance(((Command.Await) command).getWait().getDescription());
+                command = ((Command.Await) command).getNext();
+            }
+
+            if(command == null)
+                continue;
+
+            // The simulated device models the shell, so it is given the same text the shell would be
+            results.add(runCommand(command.toString()));
+        }
+
+        return results;
+    }
+
+    private CommandResult runCommand(String command) {
+        long duration = 0;
+        List<String> output = new ArrayList<>();
+        boolean success = true;
+
+        // "sleep 2 && echo 0 > ..." and similar
+        for(String part : command.split(" && ")) {
+            part = part.trim();
+            duration += advance(part);
+            success = apply(part.split(" "), output) && success;
+        }
+
+        return new CommandResult(command, success ? 0 : 1, output, duration);
+    }
+
+    private boolean apply(String[] args, List<String> output) {
+        switch(args[0]) {
+            case "settings":
+                if(args.length >= 4 && "get".equals(args[1])) {
+                    output.add(String.valueOf(getSetting(args[2], args[3])));
+                    return true;
+                }
+
+                if(args.length >= 5 && "put".equals(args[1])) {
+                    settings.put(args[2] + " " + args[3], args[4]);
+                    return true;
+                }
+
+                if(args.length >= 4 && "delete".equals(args[1])) {
+                    settings.remove(args[2] + " " + args[3]);
+                    return true;
+                }
+
+                return false;
+            case "wm":
+                return args.length >= 2 && applyWm(args, output);
+            case "svc":
+                if(args.length < 3 || !"wifi".equals(args[1]))
+                    return false;
+
+                if(!"enable".equals(args[2]) && !"disable".equals(args[2]))
+                    return false;
+
+                settings.put("global wifi_on", "enable".equals(args[2]) ? "1" : "0");
+                return true;
+            case "setprop":
+                if(args.length < 3)
+                    return false;
+
+                properties.put(args[1], args[2]);
+                return true;
+            case "getprop":
+                if(args.length < 2)
+                    return false;
+
+                String value = properties.get(args[1]);
+                output.add(value == null ? "" : value);
+                return true;
+            default:
+                // Broadcasts, restarts, sysfs writes, etc don't change anything that is modelled
+                return true;
+        }
+    }
+
+    private boolean applyWm(String[] args, List<String> output) {
+        int index = indexOf(args[1]);
+        if(index == -1)
+            return false;
+
+        int displayID = 0;
+        boolean hasValue = args.length >= 3 && !"-d".equals(args[2]);
+        int display = hasValue ? 3 : 2;
+
+        if(args.length > display + 1 && "-d".equals(args[display])) {
+            try {
+                displayID = Integer.parseInt(args[display + 1]);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        // Displays other than the built-in one only exist while they are connected
+        if(displayID != 0 && (displayID != EXTERNAL_DISPLAY || !externalDisplayConnected))
+            return false;
+
+        String[] state = displays.get(displayID);
+        if(state == null) {
+            state = new String[3];
+            displays.put(displayID, state);
+        }
+
+        // Without a value, report the current state the same way wm does
+        if(!hasValue) {
+            if(state[index] != null)
+                output.add("Override " + args[1] + ": " + state[index]);
+
+            return index != 2;
+        }
+
+        state[index] = "reset".equals(args[2]) ? null : args[2];
+        return true;
+    }
+
+    private static int indexOf(String kind) {
+        switch(kind) {
+            case "size":
+                return 0;
+            case "density":
+                return 1;
+            case "overscan":
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    // Advances the simulated clock by the latency of the command; returns the latency in microseconds
+    private long advance(String command) {
+        String commandClass = CommandTrace.classify(command);
+        Long latency = latencies.get(commandClass);
+        long duration = (latency == null ? DEFAULT_LATENCY : latency) * 1000;
+
+        Long total = elapsedByClass.get(commandClass);
+        elapsedByClass.put(commandClass, (total == null ? 0 : total) + duration);
+        elapsed += duration;
+        return duration;
+    }
+
+    // A copy of the simulated settings database, for inspection
+    public Map<String, String> getSettings() {
+        return Collections.unmodifiableMap(new HashMap<>(settings));
+    }
+}
@@ -0,0 +1,185 @@
+/* Copyright 2026 Braden Farmer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.farmerbb.secondscreen.util;
+
+import android.view.Display;
+
+import com.farmerbb.secondscreen.util.CommandPlan.Step;
+import com.farmerbb.secondscreen.util.Readiness.Signal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs a full dock and undock cycle against a SimulatedDevice, and reports how long each would
+// take on a real device:
+//
+//     ./gradlew :benchmarks:simulate [--args=--restart-activity-manager]
+//
+// Connecting the simulated external display loads a profile that changes every setting, and
+// disconnecting it turns the profile off again.  The plans are built from the same commands that
+// the producers in U build (U itself needs most of the Android framework, so it isn't compiled
+// here).  Exits with a non-zero status if any command fails, or if the device isn't back in the
+// state it started in once the profile has been turned off.
+public final class Simulation {
+
+    // The settings that the plans change, and what they are before a profile is loaded
+    private static final Map<String, String> INITIAL_SETTINGS = new LinkedHashMap<>();
+
+    static {
+        INITIAL_SETTINGS.put("global enable_freeform_support", "0");
+        INITIAL_SETTINGS.put("global stay_on_while_plugged_in", "0");
+        INITIAL_SETTINGS.put("global policy_control", "null");
+        INITIAL_SETTINGS.put("global wifi_on", "0");
+        INITIAL_SETTINGS.put("secure screensaver_activate_on_dock", "1");
+        INITIAL_SETTINGS.put("secure screensaver_enabled", "0");
+        INITIAL_SETTINGS.put("secure screensaver_activate_on_sleep", "0");
+        INITIAL_SETTINGS.put("secure dev_force_show_navbar", "0");
+        INITIAL_SETTINGS.put("system show_touches", "0");
+    }
+
+    private Simulation() {}
+
+    public static void main(String[] args) {
+        boolean restartActivityManager = args.length > 0 && "--restart-activity-manager".equals(args[0]);
+
+        final SimulatedDevice device = new SimulatedDevice();
+        for(Map.Entry<String, String> entry : INITIAL_SETTINGS.entrySet()) {
+            String[] name = entry.getKey().split(" ");
+            device.seedSetting(name[0], name[1], entry.getValue());
+        }
+
+        final List<String> failures = new ArrayList<>();
+        final Command[] dock = dockPlan().schedule(restartActivityManager);
+        final Command[] undock = undockPlan().schedule(restartActivityManager);
+
+        device.addListener(new SimulatedDevice.Listener() {
+            @Override
+            public void onDisplayAdded(int displayID) {
+                run(device, "Profile load", dock, failures);
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayID) {
+                run(device, "Turn-off", undock, failures);
+            }
+        });
+
+        device.setExternalDisplayConnected(true);
+
+        if(!"1920x1080".equals(device.getForced(Display.DEFAULT_DISPLAY, "size")))
+            failures.add("size wasn't forced by the profile load");
+
+        device.setExternalDisplayConnected(false);
+
+        for(String kind : new String[] {"size", "density", "overscan"}) {
+            if(device.getForced(Display.DEFAULT_DISPLAY, kind) != null)
+                failures.add(kind + " is still forced after the turn-off");
+        }
+
+        for(Map.Entry<String, String> entry : INITIAL_SETTINGS.entrySet()) {
+            String[] name = entry.getKey().split(" ");
+            String value = device.getSetting(name[0], name[1]);
+
+            if(!entry.getValue().equals(value))
+                failures.add(entry.getKey() + " is " + value + " after the turn-off, instead of " + entry.getValue());
+        }
+
+        for(String failure : failures) {
+            System.err.println("FAILED: " + failure);
+        }
+
+        if(!failures.isEmpty())
+            System.exit(1);
+    }
+
+    private static void run(SimulatedDevice device, String operation, Command[] commands, List<String> failures) {
+        device.resetClock();
+
+        for(CommandResult result : device.run(commands)) {
+            if(!result.isSuccessful())
+                failures.add(operation + ": " + result.getCommand());
+        }
+
+        System.out.println(operation + " took " + device.getElapsed() + " ms");
+        for(Map.Entry<String, Long> entry : device.getElapsedByClass().entrySet()) {
+            System.out.println("    " + entry.getKey() + ": " + entry.getValue() + " ms");
+        }
+    }
+
+    // Activates a profile that changes every setting
+    static CommandPlan dockPlan() {
+        CommandPlan plan = new CommandPlan();
+
+        plan.add(Step.WIFI, Command.svcWifi(true));
+        plan.add(Step.SET_HOME_ACTIVITY, Command.shell("cmd package set-home-activity com.farmerbb.taskbar/com.farmerbb.taskbar.activity.HomeActivity"));
+        plan.add(Step.FREEFORM, Command.settingsPut("global", "enable_freeform_support", "1"));
+        plan.add(Step.SIZE, Command.wmSize("1920x1080", Display.INVALID_DISPLAY));
+        plan.add(Step.DENSITY, Command.wmDensity("240", Display.INVALID_DISPLAY));
+        plan.add(Step.OVERSCAN, Command.wmOverscan("0,20,0,20", Display.INVALID_DISPLAY));
+        plan.add(Step.ROTATION, Command.am("broadcast -a android.intent.action.DOCK_EVENT --ei android.intent.extra.DOCK_STATE 1"));
+        plan.add(Step.ROTATION_PRE, Command.settingsPut("secure", "screensaver_activate_on_dock", "0"));
+        plan.add(Step.ROTATION_POST, Command.settingsPut("secure", "screensaver_activate_on_dock", "1"));
+        plan.add(Step.STAY_ON, Command.settingsPut("global", "stay_on_while_plugged_in", "7"));
+        plan.add(Step.CHROME, Command.shell("echo 'chrome --user-agent=\"Mozilla/5.0 (X11; Linux x86_64)\"' > /data/local/chrome-command-line && chmod 644 /data/local/chrome-command-line"));
+        plan.add(Step.CHROME_2, Command.am("force-stop com.android.chrome"));
+        plan.add(Step.DAYDREAMS, Command.settingsPut("secure", "screensaver_enabled", "1"));
+        plan.add(Step.DAYDREAMS_CHARGING, Command.settingsPut("secure", "screensaver_activate_on_sleep", "1"));
+        plan.add(Step.VIBRATION, Command.sysfsWrite("/sys/class/timed_output/vibrator/amp", "0"));
+        plan.add(Step.BACKLIGHT, Command.sysfsWrite("/sys/class/leds/lcd-backlight/brightness", "0", 2));
+        plan.add(Step.SHOW_TOUCHES, Command.settingsPut("system", "show_touches", "1"));
+        plan.add(Step.NAVBAR, Command.settingsPut("secure", "dev_force_show_navbar", "1"));
+        plan.add(Step.IMMERSIVE, Command.settingsPut("global", "policy_control", "immersive.full=*"));
+        plan.add(Step.HDMI_ROTATION, Command.setProp("persist.demo.hdmirotation", "portrait"));
+        plan.add(Step.SAFE_MODE_SIZE, Command.settingsPut("secure", "display_size_forced", "null"));
+        plan.add(Step.SAFE_MODE_DENSITY, Command.settingsPut("secure", "display_density_forced", "null"));
+        plan.add(Step.UI_REFRESH, Command.await(Signal.DISPLAY, 2000, Command.shell("kill `pidof com.android.systemui`")));
+        plan.add(Step.UI_REFRESH_2, Command.await(Signal.SYSTEM_UI, 1000, Command.am("force-stop com.android.launcher3")));
+
+        return plan;
+    }
+
+    // Turns the profile from dockPlan() off again, the same way TurnOffService does
+    static CommandPlan undockPlan() {
+        CommandPlan plan = new CommandPlan();
+
+        plan.add(Step.WIFI, Command.svcWifi(false));
+        plan.add(Step.SET_HOME_ACTIVITY, Command.shell("cmd package set-home-activity com.android.launcher3/com.android.launcher3.Launcher"));
+        plan.add(Step.FREEFORM, Command.settingsPut("global", "enable_freeform_support", "0"));
+        plan.add(Step.SIZE, Command.wmSize("reset", Display.INVALID_DISPLAY));
+        plan.add(Step.DENSITY, Command.wmDensity("reset", Display.INVALID_DISPLAY));
+        plan.add(Step.OVERSCAN, Command.wmOverscan("reset", Display.INVALID_DISPLAY));
+        plan.add(Step.ROTATION, Command.am("broadcast -a android.intent.action.DOCK_EVENT --ei android.intent.extra.DOCK_STATE 0"));
+        plan.add(Step.ROTATION_PRE, Command.settingsPut("secure", "screensaver_activate_on_dock", "0"));
+        plan.add(Step.ROTATION_POST, Command.settingsPut("secure", "screensaver_activate_on_dock", "1"));
+        plan.add(Step.STAY_ON, Command.settingsPut("global", "stay_on_while_plugged_in", "0"));
+        plan.add(Step.CHROME, Command.shell("rm /data/local/chrome-command-line"));
+        plan.add(Step.CHROME_2, Command.am("force-stop com.android.chrome"));
+        plan.add(Step.DAYDREAMS, Command.settingsPut("secure", "screensaver_enabled", "0"));
+        plan.add(Step.DAYDREAMS_CHARGING, Command.settingsPut("secure", "screensaver_activate_on_sleep", "0"));
+        plan.add(Step.VIBRATION, Command.sysfsWrite("/sys/class/timed_output/vibrator/amp", "100"));
+        plan.add(Step.BACKLIGHT, Command.sysfsWrite("/sys/class/leds/lcd-backlight/brightness", "128"));
+        plan.add(Step.SHOW_TOUCHES, Command.settingsPut("system", "show_touches", "0"));
+        plan.add(Step.NAVBAR, Command.settingsPut("secure", "dev_force_show_navbar", "0"));
+        plan.add(Step.IMMERSIVE, Command.settingsPut("global", "policy_control", "null"));
+        plan.add(Step.HDMI_ROTATION, Command.setProp("persist.demo.hdmirotation", "landscape"));
+        plan.add(Step.UI_REFRESH, Command.await(Signal.DISPLAY, 2000, Command.shell("kill `pidof com.android.systemui`")));
+        plan.add(Step.UI_REFRESH_2, Command.await(Signal.SYSTEM_UI, 1000, Command.am("force-stop com.android.launcher3")));
+
+        return plan;
+    }
+}